@@ -8,6 +8,14 @@ import static com.github.natanbc.idk.common.UnaryOperationType.*;
 
 public class BytecodeConstants {
     public static final int MAGIC = 0xB173C0DE;
+    //programs using RegisterOpcode instead of Opcode
+    public static final int REGISTER_MAGIC = 0xB173C0DF;
+    //written after the magic and bumped on every change to the encoding, so
+    //bytecode written by another version is rejected instead of misread
+    public static final int FORMAT_VERSION = 5;
+    //bumped whenever the converters or the optimizer start generating different
+    //code for the same ir, so stored bytecode from an older version is never reused
+    public static final int CODEGEN_VERSION = 1;
     public static final short FUNCTION_TAG = (short)0xC0DE;
     public static final byte CONSTANT_LONG = 1;
     public static final byte CONSTANT_DOUBLE = 2;
@@ -2,49 +2,96 @@ package com.github.natanbc.idk.bytecode;
 
 import com.github.natanbc.idk.bytecode.util.ByteReader;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class BytecodeReader {
     private final ByteReader reader;
+    private final boolean registers;
     private final List<Object> constantPool;
     private final short entrypoint;
     private final int functionCount;
+    //position of each function, relative to functionsStart
+    private final int[] functionOffsets;
+    private final int functionsStart;
+    //position of the constant pool, which follows the last function
+    private final int functionsEnd;
     private int readFunctions;
     
     public BytecodeReader(ByteReader reader) {
         this.reader = reader;
         var magic = reader.u32();
-        if(magic != BytecodeConstants.MAGIC) {
+        if(magic != BytecodeConstants.MAGIC && magic != BytecodeConstants.REGISTER_MAGIC) {
             throw new IllegalArgumentException("Invalid magic 0x" + Integer.toHexString(magic));
         }
-        int cpEntries = reader.u16() & 0xFFFF;
+        this.registers = magic == BytecodeConstants.REGISTER_MAGIC;
+        var version = reader.u16() & 0xFFFF;
+        if(version != BytecodeConstants.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported format version " + version + ", expected " + BytecodeConstants.FORMAT_VERSION);
+        }
+        functionsStart = reader.pos();
+        //the functions are followed by the constant pool and the offset table,
+        //found through the position stored in the last 4 bytes
+        var end = reader.pos() + reader.limit();
+        if(end - functionsStart < 4) {
+            throw new IllegalArgumentException("Truncated bytecode");
+        }
+        functionsEnd = reader.view(end - 4, 4).u32();
+        if(functionsEnd < functionsStart || functionsEnd > end - 4) {
+            throw new IllegalArgumentException("Invalid constant pool position " + functionsEnd);
+        }
+        var trailer = reader.view(functionsEnd, end - 4 - functionsEnd);
+        int cpEntries = trailer.u16() & 0xFFFF;
         constantPool = new ArrayList<>(cpEntries);
         for(var i = 0; i < cpEntries; i++) {
-            var tag = reader.u8();
+            var tag = trailer.u8();
             switch(tag) {
-                case BytecodeConstants.CONSTANT_LONG -> constantPool.add(reader.u64());
-                case BytecodeConstants.CONSTANT_DOUBLE -> constantPool.add(reader.f64());
-                case BytecodeConstants.CONSTANT_STRING -> constantPool.add(reader.utf());
+                case BytecodeConstants.CONSTANT_LONG -> constantPool.add(trailer.u64());
+                case BytecodeConstants.CONSTANT_DOUBLE -> constantPool.add(trailer.f64());
+                case BytecodeConstants.CONSTANT_STRING -> constantPool.add(trailer.utf());
                 default -> throw new IllegalArgumentException("Invalid constant pool tag 0x" + Integer.toHexString(tag & 0xFF));
             }
         }
-        entrypoint = reader.u16();
-        functionCount = reader.u16() & 0xFFFF;
+        entrypoint = trailer.u16();
+        functionCount = trailer.u16() & 0xFFFF;
+        functionOffsets = new int[functionCount];
+        for(var i = 0; i < functionCount; i++) {
+            functionOffsets[i] = trailer.u32();
+        }
     }
     
     public BytecodeReader(byte[] data) {
         this(new ByteReader(data));
     }
     
+    //reads from the buffer without copying it, so it can be a mapped file
+    public BytecodeReader(ByteBuffer data) {
+        this(new ByteReader(data));
+    }
+    
     public ByteReader reader() {
         return reader;
     }
     
+    //whether the code of the functions uses RegisterOpcode instead of Opcode
+    public boolean registers() {
+        return registers;
+    }
+    
     public int functionCount() {
         return functionCount;
     }
     
+    public int constantCount() {
+        return constantPool.size();
+    }
+    
+    //one of Long, Double or String
+    public Object constant(short pos) {
+        return constantPool.get(pos & 0xFFFF);
+    }
+    
     private <T> T constant(Class<T> type, short pos) {
         var c = constantPool.get(pos & 0xFFFF);
         if(type.isInstance(c)) {
@@ -70,11 +117,33 @@ public class BytecodeReader {
         return entrypoint;
     }
     
+    //next function in the order they're stored, null if all were read
     public FunctionReader readFunction() {
         if(readFunctions >= functionCount) {
             return null;
         }
         readFunctions++;
+        return readFunction(reader);
+    }
+    
+    //function with the given id, found through the offset table without
+    //reading any other function. doesn't change what readFunction returns
+    public FunctionReader function(int id) {
+        if(id < 0 || id >= functionCount) {
+            throw new IllegalArgumentException("No function with id " + id);
+        }
+        var start = functionsStart + functionOffsets[id];
+        if(functionOffsets[id] < 0 || start > functionsEnd) {
+            throw new IllegalArgumentException("Invalid offset for function " + id);
+        }
+        var fr = readFunction(reader.view(start, functionsEnd - start));
+        if((fr.id() & 0xFFFF) != id) {
+            throw new IllegalArgumentException("Offset of function " + id + " points to function " + (fr.id() & 0xFFFF));
+        }
+        return fr;
+    }
+    
+    private FunctionReader readFunction(ByteReader reader) {
         short tag = reader.u16();
         if(tag != BytecodeConstants.FUNCTION_TAG) {
             throw new IllegalArgumentException("Invalid tag!");
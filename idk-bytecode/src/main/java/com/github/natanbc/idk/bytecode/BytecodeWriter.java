@@ -3,37 +3,95 @@ package com.github.natanbc.idk.bytecode;
 import com.github.natanbc.idk.bytecode.util.ByteWriter;
 import com.github.natanbc.idk.bytecode.util.Utils;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+//functions are written to the output as soon as they end, and the constant
+//pool and offset table follow them once the program is finished, so the
+//writer never holds more than the function being written
 public class BytecodeWriter {
-    private final ByteWriter writer = new ByteWriter();
+    private final boolean registers;
     private final List<Object> constantPool = new ArrayList<>();
+    //constant -> index in constantPool. Long and Double equality compares the
+    //bits written to the pool, so 0.0 and -0.0 get different entries and every
+    //NaN shares one, like the serialized form
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
     private final BitSet writtenFunctions = new BitSet();
+    private final DataOutputStream out;
+    //holds the program if no output stream was given
+    private final ByteArrayOutputStream buffer;
+    //position of each function relative to the first one, indexed by id
+    private int[] functionOffsets = new int[8];
+    private int functionsSize;
     private int nextFunctionId = 0;
     private int entrypoint;
+    private boolean finished;
     
-    public ByteWriter writer() {
-        return writer;
+    public BytecodeWriter() {
+        this(false);
     }
     
-    public FunctionWriter createFunction(String name, int argumentCount, int localsCount,
-                                         boolean varargs, List<String> annotations) {
+    public BytecodeWriter(boolean registers) {
+        this(registers, null);
+    }
+    
+    //registers selects the encoding of every function: RegisterOpcode, written with
+    //createRegisterFunction, or Opcode, written with createFunction. the program
+    //is written to out while it's created and finish writes the rest, or kept in
+    //memory until write is called if out is null
+    public BytecodeWriter(boolean registers, OutputStream out) {
+        this.registers = registers;
+        this.buffer = out == null ? new ByteArrayOutputStream() : null;
+        this.out = new DataOutputStream(out == null ? buffer : new BufferedOutputStream(out));
+        try {
+            this.out.writeInt(registers ? BytecodeConstants.REGISTER_MAGIC : BytecodeConstants.MAGIC);
+            this.out.writeShort(BytecodeConstants.FORMAT_VERSION);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    public FunctionWriter createFunction(String name, int argumentCount, int localsCount, boolean varargs,
+                                         List<String> annotations, int[] capturedLocals, int[] upvalues) {
+        if(registers) {
+            throw new IllegalStateException("Writing register code");
+        }
+        return newFunction(name, argumentCount, localsCount, varargs, annotations, capturedLocals, upvalues);
+    }
+    
+    public RegisterFunctionWriter createRegisterFunction(String name, int argumentCount, int localsCount, boolean varargs,
+                                                         List<String> annotations, int[] capturedLocals, int[] upvalues) {
+        if(!registers) {
+            throw new IllegalStateException("Writing stack code");
+        }
+        return new RegisterFunctionWriter(this, newFunction(name, argumentCount, localsCount, varargs, annotations, capturedLocals, upvalues));
+    }
+    
+    private FunctionWriter newFunction(String name, int argumentCount, int localsCount, boolean varargs,
+                                       List<String> annotations, int[] capturedLocals, int[] upvalues) {
+        checkNotFinished();
         Utils.validateU16(argumentCount, "Argument count out of bounds");
         Utils.validateU16(localsCount, "Locals count out of bounds");
         Utils.validateU16(annotations.size(), "Too many annotations");
+        Utils.validateU16(capturedLocals.length, "Too many captured locals");
+        Utils.validateU16(upvalues.length, "Too many upvalues");
         int id = nextFunctionId;
         Utils.validateInternalU16(id, "Too many functions");
         nextFunctionId++;
         /* expand bitset */
         writtenFunctions.set(id);
         writtenFunctions.clear(id);
-        return new FunctionWriter(this, (short)id, name, argumentCount, localsCount, varargs, annotations);
+        return new FunctionWriter(this, (short)id, name, argumentCount, localsCount, varargs, annotations, capturedLocals, upvalues);
     }
     
     public void setEntrypoint(short id) {
@@ -51,64 +109,106 @@ public class BytecodeWriter {
     public short constant(double d) { return checkConstant(d); }
     
     private short checkConstant(Object o) {
-        int idx = constantPool.indexOf(o);
-        if(idx == -1) {
+        var idx = constantIndex.get(o);
+        if(idx == null) {
             idx = constantPool.size();
             Utils.validateInternalU16(idx, "Too many constants");
             constantPool.add(o);
+            constantIndex.put(o, idx);
         }
-        return (short)idx;
+        return (short)(int)idx;
     }
     
     void writeFunction(short id, ByteWriter writer) {
+        checkNotFinished();
         int idx = id & 0xFFFF;
         if(writtenFunctions.get(idx)) {
             throw new IllegalStateException("Function with id " + idx + " already written");
         }
         writtenFunctions.set(idx);
-        this.writer.u16(BytecodeConstants.FUNCTION_TAG);
-        this.writer.u32(writer.size());
+        if(idx >= functionOffsets.length) {
+            functionOffsets = Arrays.copyOf(functionOffsets, Math.max(idx + 1, functionOffsets.length * 2));
+        }
+        functionOffsets[idx] = functionsSize;
         try {
-            writer.write(this.writer.sink());
+            out.writeShort(BytecodeConstants.FUNCTION_TAG);
+            out.writeInt(writer.size());
+            writer.write(out);
         } catch(IOException e) {
-            throw new IllegalStateException(e);
+            throw new UncheckedIOException(e);
         }
+        //tag and size
+        functionsSize += 6 + writer.size();
     }
     
+    //the serialized program. only for writers created without an output stream
     public byte[] write() {
+        finishBuffer();
+        return buffer.toByteArray();
+    }
+    
+    //copies the serialized program to out. only for writers created without an
+    //output stream
+    public void write(OutputStream out) throws IOException {
+        finishBuffer();
+        buffer.writeTo(out);
+    }
+    
+    //writes the constant pool and the offset table after the functions and
+    //flushes the output. every created function must have been written
+    public void finish() throws IOException {
+        if(finished) {
+            return;
+        }
+        for(var i = 0; i < nextFunctionId; i++) {
+            if(!writtenFunctions.get(i)) {
+                throw new IllegalStateException("Function with id " + i + " not written");
+            }
+        }
+        finished = true;
+        out.writeShort(constantPool.size());
+        for(Object obj : constantPool) {
+            if(obj instanceof Long) {
+                out.writeByte(BytecodeConstants.CONSTANT_LONG);
+                out.writeLong((Long)obj);
+            } else if(obj instanceof Double) {
+                out.writeByte(BytecodeConstants.CONSTANT_DOUBLE);
+                out.writeDouble((Double)obj);
+            } else if(obj instanceof String) {
+                out.writeByte(BytecodeConstants.CONSTANT_STRING);
+                out.writeUTF((String)obj);
+            } else {
+                throw new IllegalStateException(
+                        "Unable to serialize constant pool value "
+                                + (obj == null ? "null" : "of type " + obj.getClass().getName())
+                );
+            }
+        }
+        out.writeShort(entrypoint);
+        out.writeShort(nextFunctionId);
+        //offset table, so readers can find a function without reading the ones before it
+        for(var i = 0; i < nextFunctionId; i++) {
+            out.writeInt(functionOffsets[i]);
+        }
+        //position of the constant pool, after the header and the functions
+        out.writeInt(4 + 2 + functionsSize);
+        out.flush();
+    }
+    
+    private void finishBuffer() {
+        if(buffer == null) {
+            throw new IllegalStateException("Program is written to the stream given to the constructor, use finish");
+        }
         try {
-            var out = new ByteArrayOutputStream();
-            write(out);
-            return out.toByteArray();
+            finish();
         } catch(IOException e) {
             throw new IllegalStateException(e);
         }
     }
     
-    public void write(OutputStream out) throws IOException {
-        try(var dos = new DataOutputStream(out)) {
-            dos.writeInt(BytecodeConstants.MAGIC);
-            dos.writeShort(constantPool.size());
-            for(Object obj : constantPool) {
-                if(obj instanceof Long) {
-                    dos.writeByte(BytecodeConstants.CONSTANT_LONG);
-                    dos.writeLong((Long)obj);
-                } else if(obj instanceof Double) {
-                    dos.writeByte(BytecodeConstants.CONSTANT_DOUBLE);
-                    dos.writeDouble((Double)obj);
-                } else if(obj instanceof String) {
-                    dos.writeByte(BytecodeConstants.CONSTANT_STRING);
-                    dos.writeUTF((String)obj);
-                } else {
-                    throw new IllegalStateException(
-                            "Unable to serialize constant pool value "
-                                    + (obj == null ? "null" : "of type " + obj.getClass().getName())
-                    );
-                }
-            }
-            dos.writeShort(entrypoint);
-            dos.writeShort(nextFunctionId);
-            writer.write(dos);
+    private void checkNotFinished() {
+        if(finished) {
+            throw new IllegalStateException("Program already written");
         }
     }
 }
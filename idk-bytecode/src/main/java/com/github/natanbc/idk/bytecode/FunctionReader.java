@@ -2,6 +2,7 @@ package com.github.natanbc.idk.bytecode;
 
 import com.github.natanbc.idk.bytecode.util.ByteReader;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -15,8 +16,12 @@ public class FunctionReader {
     private final String name;
     private final int argumentCount;
     private final int localsCount;
+    private final int maxStackSize;
     private final boolean varargs;
     private final List<String> annotations;
+    private final int[] capturedLocals;
+    private final int[] upvalues;
+    private final ByteBuffer code;
     
     FunctionReader(BytecodeReader owner, ByteReader reader) {
         this.owner = owner;
@@ -30,6 +35,7 @@ public class FunctionReader {
         }
         this.argumentCount = reader.u16() & 0xFFFF;
         this.localsCount = reader.u16() & 0xFFFF;
+        this.maxStackSize = reader.u16() & 0xFFFF;
         this.varargs = reader.bool();
         var annotationCount = reader.u16() & 0xFFFF;
         var annotations = new ArrayList<String>(annotationCount);
@@ -37,6 +43,17 @@ public class FunctionReader {
             annotations.add(owner.constantString(reader.u16()));
         }
         this.annotations = Collections.unmodifiableList(annotations);
+        this.capturedLocals = new int[reader.u16() & 0xFFFF];
+        for(var i = 0; i < capturedLocals.length; i++) {
+            capturedLocals[i] = reader.u16() & 0xFFFF;
+        }
+        this.upvalues = new int[reader.u16() & 0xFFFF];
+        for(var i = 0; i < upvalues.length; i++) {
+            var local = reader.bool();
+            var idx = reader.u16() & 0xFFFF;
+            upvalues[i] = local ? idx : ~idx;
+        }
+        this.code = reader.remaining();
     }
     
     public ByteReader reader() {
@@ -63,6 +80,10 @@ public class FunctionReader {
         return localsCount;
     }
     
+    public int maxStackSize() {
+        return maxStackSize;
+    }
+    
     public boolean varargs() {
         return varargs;
     }
@@ -71,6 +92,23 @@ public class FunctionReader {
         return annotations;
     }
     
+    //locals of this function used as upvalues by functions it creates
+    public int[] capturedLocals() {
+        return capturedLocals.clone();
+    }
+    
+    //sources of the upvalues of this function: v >= 0 is local v of the
+    //function creating it, a negative v is its upvalue ~v
+    public int[] upvalues() {
+        return upvalues.clone();
+    }
+    
+    //read only view of the code of this function, sharing the memory the
+    //bytecode was read from. independent of the position of reader()
+    public ByteBuffer code() {
+        return code.duplicate();
+    }
+    
     public Opcode nextOpcode() {
         if(!reader.canRead()) return null;
         return Opcode.fromValue(reader.u8());
@@ -86,6 +124,17 @@ public class FunctionReader {
         return new Operation(op, args);
     }
     
+    //next instruction of register code, see BytecodeReader.registers
+    public RegisterOperation nextRegisterInstruction() {
+        if(!reader.canRead()) return null;
+        var op = RegisterOpcode.fromValue(reader.u8());
+        var args = new Object[op.argumentTypes.size()];
+        for(var i = 0; i < args.length; i++) {
+            args[i] = op.argumentTypes.get(i).tryRead(this);
+        }
+        return new RegisterOperation(op, args);
+    }
+    
     public static class Operation {
         private final Opcode opcode;
         private final Object[] args;
@@ -108,4 +157,27 @@ public class FunctionReader {
             return opcode.name() + (args.length > 0 ? " " + Arrays.toString(args) : "");
         }
     }
+    
+    public static class RegisterOperation {
+        private final RegisterOpcode opcode;
+        private final Object[] args;
+    
+        RegisterOperation(RegisterOpcode opcode, Object[] args) {
+            this.opcode = opcode;
+            this.args = args;
+        }
+    
+        public RegisterOpcode opcode() {
+            return opcode;
+        }
+    
+        public Object[] args() {
+            return args;
+        }
+    
+        @Override
+        public String toString() {
+            return opcode.name() + (args.length > 0 ? " " + Arrays.toString(args) : "");
+        }
+    }
 }
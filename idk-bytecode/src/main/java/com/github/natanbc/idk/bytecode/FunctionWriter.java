@@ -6,21 +6,33 @@ import com.github.natanbc.idk.common.UnaryOperationType;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class FunctionWriter {
     private final ByteWriter writer = new ByteWriter();
     private final Map<Label, List<Integer>> labelFixups = new HashMap<>();
+    private final Map<Label, Integer> labelStackSizes = new HashMap<>();
+    //labels bound in unreachable code before anything jumped to them. the code
+    //after them wasn't counted, so jumping to one later is an error
+    private final Set<Label> untrackedLabels = new HashSet<>();
     
     private final BytecodeWriter owner;
     private final short id;
     private final int localsCountOffset;
+    private final int maxStackSizeOffset;
     private final int codeStart;
     private int localsCount;
-    
-    FunctionWriter(BytecodeWriter owner, short id, String name, int argumentCount,
-                          int localsCount, boolean varargs, List<String> annotations) {
+    //stack size is only tracked for reachable code, anything after an
+    //unconditional jump is dead until a label that was jumped to is bound
+    private int stackSize;
+    private int maxStackSize;
+    private boolean reachable = true;
+    
+    FunctionWriter(BytecodeWriter owner, short id, String name, int argumentCount, int localsCount,
+                          boolean varargs, List<String> annotations, int[] capturedLocals, int[] upvalues) {
         this.owner = owner;
         this.id = id;
         writer.u16(id);
@@ -32,11 +44,22 @@ public class FunctionWriter {
         localsCountOffset = writer.size();
         this.localsCount = localsCount;
         writer.u16(localsCount);
+        maxStackSizeOffset = writer.size();
+        writer.u16(0);
         writer.bool(varargs);
         writer.u16(annotations.size());
         for(var annotation : annotations) {
             writer.u16(owner.constant(annotation));
         }
+        writer.u16(capturedLocals.length);
+        for(var local : capturedLocals) {
+            writer.u16(local);
+        }
+        writer.u16(upvalues.length);
+        for(var upvalue : upvalues) {
+            writer.bool(upvalue >= 0);
+            writer.u16(upvalue >= 0 ? upvalue : ~upvalue);
+        }
         codeStart = writer.size();
     }
     
@@ -47,138 +70,182 @@ public class FunctionWriter {
         return n;
     }
     
+    //offset of the next instruction written, relative to the start of the code
+    public int position() {
+        return writer.size() - codeStart;
+    }
+    
     public short id() {
         return id;
     }
     
     public void loadNil() {
         writer.u8(Opcode.CONSTANT_NIL.value);
+        stack(0, 1);
     }
     
     public void loadConstant(boolean b) {
         writer.u8(Opcode.CONSTANT_BOOLEAN.value);
         writer.bool(b);
+        stack(0, 1);
     }
     
     public void loadConstant(long l) {
         op_u16(Opcode.CONSTANT_LONG, owner.constant(l));
+        stack(0, 1);
     }
     
     public void loadConstant(double d) {
         op_u16(Opcode.CONSTANT_DOUBLE, owner.constant(d));
+        stack(0, 1);
     }
     
     public void loadConstant(String s) {
         op_u16(Opcode.CONSTANT_STRING, owner.constant(s));
+        stack(0, 1);
     }
     
     public void arrayLiteral(int size) {
         op_u16(Opcode.CREATE_ARRAY, size);
+        stack(size, 1);
     }
     
     public void objectLiteral(int size) {
         op_u16(Opcode.CREATE_OBJECT, size);
+        stack(size * 2, 1);
     }
     
     public void createRange() {
         op(Opcode.CREATE_RANGE);
+        stack(2, 1);
     }
     
     public void loadLocal(int idx) {
         op_u16(Opcode.LOAD_LOCAL, idx);
+        stack(0, 1);
     }
     
     public void storeLocal(int idx) {
         op_u16(Opcode.STORE_LOCAL, idx);
+        stack(1, 0);
     }
     
-    public void loadUpvalue(int level, int idx) {
-        op_u16_u16(Opcode.LOAD_UPVALUE, level, idx);
+    public void loadUpvalue(int idx) {
+        op_u16(Opcode.LOAD_UPVALUE, idx);
+        stack(0, 1);
     }
     
-    public void storeUpvalue(int level, int idx) {
-        op_u16_u16(Opcode.STORE_UPVALUE, level, idx);
+    public void storeUpvalue(int idx) {
+        op_u16(Opcode.STORE_UPVALUE, idx);
+        stack(1, 0);
     }
     
     public void loadGlobal(String name) {
         op_u16(Opcode.LOAD_GLOBAL, owner.constant(name));
+        stack(0, 1);
     }
     
     public void storeGlobal(String name) {
         op_u16(Opcode.STORE_GLOBAL, owner.constant(name));
+        stack(1, 0);
     }
     
     public void loadMember() {
         op(Opcode.LOAD_MEMBER);
+        stack(2, 1);
     }
     
     public void storeMember() {
         op(Opcode.STORE_MEMBER);
+        stack(3, 0);
     }
     
     public void call(int argumentCount) {
         op_u16(Opcode.CALL, argumentCount);
+        stack(argumentCount + 1, 1);
     }
     
     public void ret() {
         op(Opcode.RETURN);
+        stack(1, 0);
+        reachable = false;
     }
     
     public void binaryOperation(BinaryOperationType type) {
         op_u8(Opcode.BINARY_OPERATION, BytecodeConstants.binaryOpNumber(type));
+        stack(2, 1);
     }
     
     public void unaryOperation(UnaryOperationType type) {
         op_u8(Opcode.UNARY_OPERATION, BytecodeConstants.unaryOpNumber(type));
+        stack(1, 1);
     }
     
     public void jump(Label target) {
         op(Opcode.JUMP);
-        if(target.bound) {
-            writer.u16(target.position);
-        } else {
-            labelFixups.computeIfAbsent(target, __ -> new ArrayList<>(1)).add(writer.size());
-            writer.u16(0xFFFF);
-        }
+        jumpTarget(target);
+        reachable = false;
     }
     
     public void jumpIf(ConditionType type, Label target) {
         op(Opcode.JUMP_IF);
         writer.u8(type.value);
-        if(target.bound) {
-            writer.u16(target.position);
-        } else {
-            labelFixups.computeIfAbsent(target, __ -> new ArrayList<>(1)).add(writer.size());
-            writer.u16(0xFFFF);
-        }
+        stack(1, 0);
+        jumpTarget(target);
     }
     
     public void loadFunction(short id) {
         op_u16(Opcode.LOAD_FUNCTION, id & 0xFFFF);
+        stack(0, 1);
     }
     
     public void pop() {
         op(Opcode.POP);
+        stack(1, 0);
     }
     
     public void dup() {
         op(Opcode.DUP);
+        stack(1, 2);
     }
     
     public void exthrow() {
         op(Opcode.THROW);
+        stack(1, 0);
+        reachable = false;
     }
     
     public void testType(ValueType type) {
         op_u8(Opcode.TEST_TYPE, type.value);
+        stack(1, 1);
     }
     
     public void size() {
         op(Opcode.SIZE);
+        stack(1, 1);
     }
     
     public void swap2() {
         op(Opcode.SWAP2);
+        stack(2, 2);
+    }
+    
+    public void addLocalLocal(int a, int b) {
+        op_u16(Opcode.ADD_LOCAL_LOCAL, a);
+        writer.u16(b);
+        stack(0, 1);
+    }
+    
+    public void incrementLocal(int idx, long value) {
+        op_u16(Opcode.INC_LOCAL, idx);
+        writer.u16(owner.constant(value));
+    }
+    
+    public void jumpIfLess(ConditionType type, Label target) {
+        op(Opcode.JUMP_IF_LESS);
+        writer.u8(type.value);
+        stack(2, 0);
+        jumpTarget(target);
     }
     
     public void bind(Label label) {
@@ -187,23 +254,75 @@ public class FunctionWriter {
         }
         label.bound = true;
         label.position = writer.size() - codeStart;
+        var expected = labelStackSizes.get(label);
+        if(expected != null) {
+            if(reachable && expected != stackSize) {
+                throw new IllegalStateException("Stack size mismatch at label: expected " + expected + ", got " + stackSize);
+            }
+            stackSize = expected;
+            reachable = true;
+        } else if(reachable) {
+            labelStackSizes.put(label, stackSize);
+        } else {
+            //dead unless something jumps back to it, which jumpTarget rejects
+            untrackedLabels.add(label);
+        }
     }
     
+    //binds a label with a known stack size, for labels only reached by jumps written after it
+    public void bind(Label label, int stackSize) {
+        var expected = labelStackSizes.putIfAbsent(label, stackSize);
+        if(expected != null && expected != stackSize) {
+            throw new IllegalStateException("Stack size mismatch at label: expected " + expected + ", got " + stackSize);
+        }
+        bind(label);
+    }
+    
+    public int maxStackSize() {
+        return maxStackSize;
+    }
+    
+    //jump positions written here aren't labels, so stack sizes at their targets aren't checked
     public void instruction(Opcode opcode, Object... values) {
-        writer.u8(opcode.value);
         if(opcode.argumentTypes.size() != values.length) {
             throw new IllegalArgumentException("Invalid number of arguments");
         }
+        writer.u8(opcode.value);
         for(var i = 0; i < values.length; i++) {
             opcode.argumentTypes.get(i).tryWrite(this, values[i]);
         }
+        switch(opcode) {
+            case CONSTANT_NIL, CONSTANT_BOOLEAN, CONSTANT_LONG, CONSTANT_DOUBLE, CONSTANT_STRING,
+                    LOAD_LOCAL, LOAD_UPVALUE, LOAD_GLOBAL, LOAD_FUNCTION, ADD_LOCAL_LOCAL -> stack(0, 1);
+            case CREATE_ARRAY -> stack(((Number)values[0]).intValue() & 0xFFFF, 1);
+            case CREATE_OBJECT -> stack((((Number)values[0]).intValue() & 0xFFFF) * 2, 1);
+            case CALL -> stack((((Number)values[0]).intValue() & 0xFFFF) + 1, 1);
+            case CREATE_RANGE, LOAD_MEMBER, BINARY_OPERATION -> stack(2, 1);
+            case STORE_LOCAL, STORE_UPVALUE, STORE_GLOBAL, JUMP_IF, POP -> stack(1, 0);
+            case STORE_MEMBER -> stack(3, 0);
+            case UNARY_OPERATION, TEST_TYPE, SIZE -> stack(1, 1);
+            case DUP -> stack(1, 2);
+            case SWAP2 -> stack(2, 2);
+            case JUMP_IF_LESS -> stack(2, 0);
+            case INC_LOCAL -> {}
+            case RETURN, THROW -> {
+                stack(1, 0);
+                reachable = false;
+            }
+            case JUMP -> reachable = false;
+        }
     }
     
     public ByteWriter writer() {
         return writer;
     }
     
+    BytecodeWriter owner() {
+        return owner;
+    }
+    
     public void end() {
+        writer.patchU16(maxStackSizeOffset, maxStackSize);
         labelFixups.forEach((label, positions) -> {
             if(!label.bound) {
                 throw new IllegalStateException("Unbound labels remaining");
@@ -215,6 +334,33 @@ public class FunctionWriter {
         owner.writeFunction(id, writer);
     }
     
+    private void jumpTarget(Label target) {
+        if(reachable && untrackedLabels.contains(target)) {
+            throw new IllegalStateException("Jump to a label bound in unreachable code, bind it with an explicit stack size");
+        }
+        if(reachable) {
+            var expected = labelStackSizes.putIfAbsent(target, stackSize);
+            if(expected != null && expected != stackSize) {
+                throw new IllegalStateException("Stack size mismatch at jump: expected " + expected + ", got " + stackSize);
+            }
+        }
+        if(target.bound) {
+            writer.u16(target.position);
+        } else {
+            labelFixups.computeIfAbsent(target, __ -> new ArrayList<>(1)).add(writer.size());
+            writer.u16(0xFFFF);
+        }
+    }
+    
+    private void stack(int pops, int pushes) {
+        if(!reachable) return;
+        if(stackSize < pops) {
+            throw new IllegalStateException("Stack underflow");
+        }
+        stackSize += pushes - pops;
+        maxStackSize = Math.max(maxStackSize, stackSize);
+    }
+    
     private void op(Opcode opcode) {
         writer.u8(opcode.value);
     }
@@ -228,10 +374,4 @@ public class FunctionWriter {
         op(opcode);
         writer.u16(imm);
     }
-    
-    private void op_u16_u16(Opcode opcode, int imm1, int imm2) {
-        op(opcode);
-        writer.u16(imm1);
-        writer.u16(imm2);
-    }
 }
@@ -32,9 +32,9 @@ public enum Opcode {
     //..., <value: any> -> ...
     STORE_LOCAL(9, ArgumentType.SHORT /* idx */),
     //... -> ..., <value: any>
-    LOAD_UPVALUE(10, ArgumentType.SHORT /* level */, ArgumentType.SHORT /* idx */),
+    LOAD_UPVALUE(10, ArgumentType.SHORT /* idx */),
     //..., <value: any> -> ...
-    STORE_UPVALUE(11, ArgumentType.SHORT /* level */, ArgumentType.SHORT /* idx */),
+    STORE_UPVALUE(11, ArgumentType.SHORT /* idx */),
     //... -> ..., <value: any>
     LOAD_GLOBAL(12, ArgumentType.STRING /* name */),
     //..., <value: any> -> ...
@@ -68,7 +68,14 @@ public enum Opcode {
     //..., <value: array|object> -> ..., <size: long>
     SIZE(27),
     //..., <v1: any>, <v2: any> -> ..., <v2>, <v1>
-    SWAP2(28);
+    SWAP2(28),
+    //superinstructions, only emitted by BytecodeOptimizer
+    //... -> ..., <local a + local b: any>
+    ADD_LOCAL_LOCAL(29, ArgumentType.SHORT /* a */, ArgumentType.SHORT /* b */),
+    //... -> ... (local idx = local idx + value)
+    INC_LOCAL(30, ArgumentType.SHORT /* idx */, ArgumentType.LONG /* value */),
+    //..., <lhs: any>, <rhs: any> -> ... (jumps if lhs < rhs matches the condition)
+    JUMP_IF_LESS(31, ArgumentType.CONDITION_TYPE /* condition */, ArgumentType.SHORT /* position */);
     
     private static final Map<Integer, Opcode> MAP = Arrays.stream(values()).collect(
             Collectors.toUnmodifiableMap(
@@ -103,7 +110,7 @@ public enum Opcode {
         BOOLEAN(1, false) {
             @Override
             public void tryWrite(FunctionWriter output, Object value) {
-                Utils.checkedWrite(value, Boolean.class, output::loadConstant);
+                Utils.checkedWrite(value, Boolean.class, b -> output.writer().bool(b));
             }
     
             @Override
@@ -136,7 +143,7 @@ public enum Opcode {
         LONG(2, true) {
             @Override
             public void tryWrite(FunctionWriter output, Object value) {
-                Utils.checkedWrite(value, Long.class, output::loadConstant);
+                Utils.checkedWrite(value, Long.class, l -> output.writer().u16(output.owner().constant(l) & 0xFFFF));
             }
     
             @Override
@@ -147,7 +154,7 @@ public enum Opcode {
         DOUBLE(2, true) {
             @Override
             public void tryWrite(FunctionWriter output, Object value) {
-                Utils.checkedWrite(value, Double.class, output::loadConstant);
+                Utils.checkedWrite(value, Double.class, d -> output.writer().u16(output.owner().constant(d) & 0xFFFF));
             }
     
             @Override
@@ -158,7 +165,7 @@ public enum Opcode {
         STRING(2, true) {
             @Override
             public void tryWrite(FunctionWriter output, Object value) {
-                Utils.checkedWrite(value, String.class, output::loadConstant);
+                Utils.checkedWrite(value, String.class, s -> output.writer().u16(output.owner().constant(s) & 0xFFFF));
             }
     
             @Override
@@ -0,0 +1,187 @@
+package com.github.natanbc.idk.bytecode;
+
+import com.github.natanbc.idk.bytecode.util.ByteWriter;
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.common.UnaryOperationType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//writes RegisterOpcode code. the function header is shared with stack code, so
+//this writes through a FunctionWriter, which never sees a stack instruction
+public class RegisterFunctionWriter {
+    private final Map<Label, List<Integer>> labelFixups = new HashMap<>();
+    
+    private final BytecodeWriter owner;
+    private final FunctionWriter function;
+    private final ByteWriter writer;
+    
+    RegisterFunctionWriter(BytecodeWriter owner, FunctionWriter function) {
+        this.owner = owner;
+        this.function = function;
+        this.writer = function.writer();
+    }
+    
+    //registers start with the locals of the function, new ones come after every existing one
+    public int newRegister() {
+        return function.newLocal();
+    }
+    
+    //offset of the next instruction written, relative to the start of the code
+    public int position() {
+        return function.position();
+    }
+    
+    public short id() {
+        return function.id();
+    }
+    
+    public void loadNil(int dst) {
+        op(RegisterOpcode.CONSTANT_NIL, dst);
+    }
+    
+    public void loadConstant(int dst, boolean b) {
+        op(RegisterOpcode.CONSTANT_BOOLEAN, dst);
+        writer.bool(b);
+    }
+    
+    public void loadConstant(int dst, long l) {
+        op(RegisterOpcode.CONSTANT_LONG, dst, owner.constant(l) & 0xFFFF);
+    }
+    
+    public void loadConstant(int dst, double d) {
+        op(RegisterOpcode.CONSTANT_DOUBLE, dst, owner.constant(d) & 0xFFFF);
+    }
+    
+    public void loadConstant(int dst, String s) {
+        op(RegisterOpcode.CONSTANT_STRING, dst, owner.constant(s) & 0xFFFF);
+    }
+    
+    public void arrayLiteral(int dst, int first, int count) {
+        op(RegisterOpcode.CREATE_ARRAY, dst, first, count);
+    }
+    
+    public void objectLiteral(int dst, int first, int count) {
+        op(RegisterOpcode.CREATE_OBJECT, dst, first, count);
+    }
+    
+    public void createRange(int dst, int from, int to) {
+        op(RegisterOpcode.CREATE_RANGE, dst, from, to);
+    }
+    
+    public void move(int dst, int src) {
+        op(RegisterOpcode.MOVE, dst, src);
+    }
+    
+    public void loadUpvalue(int dst, int idx) {
+        op(RegisterOpcode.LOAD_UPVALUE, dst, idx);
+    }
+    
+    public void storeUpvalue(int idx, int src) {
+        op(RegisterOpcode.STORE_UPVALUE, idx, src);
+    }
+    
+    public void loadGlobal(int dst, String name) {
+        op(RegisterOpcode.LOAD_GLOBAL, dst, owner.constant(name) & 0xFFFF);
+    }
+    
+    public void storeGlobal(String name, int src) {
+        op(RegisterOpcode.STORE_GLOBAL, owner.constant(name) & 0xFFFF, src);
+    }
+    
+    public void loadMember(int dst, int target, int key) {
+        op(RegisterOpcode.LOAD_MEMBER, dst, target, key);
+    }
+    
+    public void storeMember(int target, int key, int value) {
+        op(RegisterOpcode.STORE_MEMBER, target, key, value);
+    }
+    
+    public void call(int dst, int first, int argumentCount) {
+        op(RegisterOpcode.CALL, dst, first, argumentCount);
+    }
+    
+    public void ret(int src) {
+        op(RegisterOpcode.RETURN, src);
+    }
+    
+    public void binaryOperation(BinaryOperationType type, int dst, int lhs, int rhs) {
+        writer.u8(RegisterOpcode.BINARY_OPERATION.value);
+        writer.u8(BytecodeConstants.binaryOpNumber(type));
+        writer.u16(dst);
+        writer.u16(lhs);
+        writer.u16(rhs);
+    }
+    
+    public void unaryOperation(UnaryOperationType type, int dst, int src) {
+        writer.u8(RegisterOpcode.UNARY_OPERATION.value);
+        writer.u8(BytecodeConstants.unaryOpNumber(type));
+        writer.u16(dst);
+        writer.u16(src);
+    }
+    
+    public void jump(Label target) {
+        writer.u8(RegisterOpcode.JUMP.value);
+        jumpTarget(target);
+    }
+    
+    public void jumpIf(ConditionType type, int src, Label target) {
+        writer.u8(RegisterOpcode.JUMP_IF.value);
+        writer.u8(type.value);
+        writer.u16(src);
+        jumpTarget(target);
+    }
+    
+    public void loadFunction(int dst, short id) {
+        op(RegisterOpcode.LOAD_FUNCTION, dst, id & 0xFFFF);
+    }
+    
+    public void exthrow(int src) {
+        op(RegisterOpcode.THROW, src);
+    }
+    
+    public void testType(ValueType type, int dst, int src) {
+        writer.u8(RegisterOpcode.TEST_TYPE.value);
+        writer.u8(type.value);
+        writer.u16(dst);
+        writer.u16(src);
+    }
+    
+    public void bind(Label label) {
+        if(label.bound) {
+            throw new IllegalArgumentException("Label already bound");
+        }
+        label.bound = true;
+        label.position = function.position();
+    }
+    
+    public void end() {
+        labelFixups.forEach((label, positions) -> {
+            if(!label.bound) {
+                throw new IllegalStateException("Unbound labels remaining");
+            }
+            for(var pos : positions) {
+                writer.patchU16(pos, label.position);
+            }
+        });
+        function.end();
+    }
+    
+    private void jumpTarget(Label target) {
+        if(target.bound) {
+            writer.u16(target.position);
+        } else {
+            labelFixups.computeIfAbsent(target, __ -> new ArrayList<>(1)).add(writer.size());
+            writer.u16(0xFFFF);
+        }
+    }
+    
+    private void op(RegisterOpcode opcode, int... operands) {
+        writer.u8(opcode.value);
+        for(var operand : operands) {
+            writer.u16(operand);
+        }
+    }
+}
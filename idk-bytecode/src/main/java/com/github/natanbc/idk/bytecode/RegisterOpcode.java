@@ -0,0 +1,92 @@
+package com.github.natanbc.idk.bytecode;
+
+import com.github.natanbc.idk.bytecode.Opcode.ArgumentType;
+import com.github.natanbc.idk.bytecode.util.Utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//three address encoding, used by programs written with BytecodeWriter(true).
+//operands are registers, which are the locals of the function followed by
+//the temporaries allocated by the converter. r[x] is register x
+public enum RegisterOpcode {
+    //r[dst] = nil
+    CONSTANT_NIL(0, ArgumentType.SHORT /* dst */),
+    //r[dst] = value
+    CONSTANT_BOOLEAN(1, ArgumentType.SHORT /* dst */, ArgumentType.BOOLEAN /* value */),
+    //r[dst] = value
+    CONSTANT_LONG(2, ArgumentType.SHORT /* dst */, ArgumentType.LONG /* value */),
+    //r[dst] = value
+    CONSTANT_DOUBLE(3, ArgumentType.SHORT /* dst */, ArgumentType.DOUBLE /* value */),
+    //r[dst] = value
+    CONSTANT_STRING(4, ArgumentType.SHORT /* dst */, ArgumentType.STRING /* value */),
+    //r[dst] = [r[first], ..., r[first + count - 1]]
+    CREATE_ARRAY(5, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* first */, ArgumentType.SHORT /* count */),
+    //r[dst] = {r[first]: r[first + 1], ...}, count pairs
+    CREATE_OBJECT(6, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* first */, ArgumentType.SHORT /* count */),
+    //r[dst] = r[from]..r[to]
+    CREATE_RANGE(7, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* from */, ArgumentType.SHORT /* to */),
+    //r[dst] = r[src]
+    MOVE(8, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* src */),
+    //r[dst] = upvalue idx
+    LOAD_UPVALUE(9, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* idx */),
+    //upvalue idx = r[src]
+    STORE_UPVALUE(10, ArgumentType.SHORT /* idx */, ArgumentType.SHORT /* src */),
+    //r[dst] = global name
+    LOAD_GLOBAL(11, ArgumentType.SHORT /* dst */, ArgumentType.STRING /* name */),
+    //global name = r[src]
+    STORE_GLOBAL(12, ArgumentType.STRING /* name */, ArgumentType.SHORT /* src */),
+    //r[dst] = r[target][r[key]]
+    LOAD_MEMBER(13, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* target */, ArgumentType.SHORT /* key */),
+    //r[target][r[key]] = r[value]
+    STORE_MEMBER(14, ArgumentType.SHORT /* target */, ArgumentType.SHORT /* key */, ArgumentType.SHORT /* value */),
+    //r[dst] = r[first](r[first + 1], ..., r[first + count])
+    CALL(15, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* first */, ArgumentType.SHORT /* arg count */),
+    //returns r[src]
+    RETURN(16, ArgumentType.SHORT /* src */),
+    //r[dst] = r[lhs] <type> r[rhs]
+    BINARY_OPERATION(17, ArgumentType.BINARY_OPERATION /* type */, ArgumentType.SHORT /* dst */,
+            ArgumentType.SHORT /* lhs */, ArgumentType.SHORT /* rhs */),
+    //r[dst] = <type> r[src]
+    UNARY_OPERATION(18, ArgumentType.UNARY_OPERATION /* type */, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* src */),
+    //jumps to position
+    JUMP(19, ArgumentType.SHORT /* position */),
+    //jumps to position if r[src] matches the condition
+    JUMP_IF(20, ArgumentType.CONDITION_TYPE /* condition */, ArgumentType.SHORT /* src */, ArgumentType.SHORT /* position */),
+    //r[dst] = closure of the function
+    LOAD_FUNCTION(21, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* function number */),
+    //throws r[src]
+    THROW(22, ArgumentType.SHORT /* src */),
+    //r[dst] = r[src] is of the given type
+    TEST_TYPE(23, ArgumentType.VALUE_TYPE /* type */, ArgumentType.SHORT /* dst */, ArgumentType.SHORT /* src */);
+    
+    private static final Map<Integer, RegisterOpcode> MAP = Arrays.stream(values()).collect(
+            Collectors.toUnmodifiableMap(
+                    op -> op.value & 0xFF,
+                    Function.identity(),
+                    (a, b) -> { throw new IllegalStateException(
+                            String.format("Duplicate value (%d) between %s and %s",
+                                    a.value & 0xFF, a, b)
+                    ); }
+            )
+    );
+    public final byte value;
+    public final List<ArgumentType> argumentTypes;
+    
+    RegisterOpcode(int value, ArgumentType... args) {
+        Utils.validateU8(value, "Value cannot be encoded in a single byte");
+        this.value = (byte)value;
+        this.argumentTypes = List.of(args);
+    }
+    
+    public static RegisterOpcode fromValue(byte value) {
+        var v = MAP.get(value & 0xFF);
+        if(v == null) {
+            throw new IllegalStateException("Unknown operation 0x" + Integer.toHexString(value & 0xFF));
+        }
+        return v;
+    }
+}
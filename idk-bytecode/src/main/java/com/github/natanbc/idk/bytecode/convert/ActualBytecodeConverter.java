@@ -36,11 +36,13 @@ import com.github.natanbc.idk.ir.variable.IrUpvalue;
 class ActualBytecodeConverter implements IrVisitor<Boolean> {
     private final BytecodeWriter writer;
     private final FunctionWriter function;
+    private final IrMapping ir;
     private boolean resultUsed;
     
-    ActualBytecodeConverter(BytecodeWriter writer, FunctionWriter function) {
+    ActualBytecodeConverter(BytecodeWriter writer, FunctionWriter function, IrMapping ir) {
         this.writer = writer;
         this.function = function;
+        this.ir = ir;
     }
     
     @Override
@@ -148,7 +150,7 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
     
     @Override
     public Boolean visitUpvalue(IrUpvalue node) {
-        function.loadUpvalue(node.getLevel(), node.getIndex());
+        function.loadUpvalue(node.getIndex());
         return true;
     }
     
@@ -169,7 +171,7 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
             compile(node.getValue());
             var up = (IrUpvalue)target;
             if(resultUsed) function.dup();
-            function.storeUpvalue(up.getLevel(), up.getIndex());
+            function.storeUpvalue(up.getIndex());
         } else if(target instanceof IrGlobal) {
             compile(node.getValue());
             if(resultUsed) function.dup();
@@ -225,9 +227,12 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
                 node.getArgumentCount(),
                 node.getLocalsCount(),
                 node.isVarargs(),
-                node.getAnnotations()
+                node.getAnnotations(),
+                node.getCapturedLocals(),
+                node.getUpvalues()
         );
-        node.getBody().accept(new ActualBytecodeConverter(writer, fw));
+        ir.addFunction(fw.id() & 0xFFFF, node);
+        new ActualBytecodeConverter(writer, fw, ir).compile(node.getBody());
         fw.end();
         function.loadFunction(fw.id());
         //IR already folds Function("name", ...) into Assign("name", Function("name", ...))
@@ -265,6 +270,8 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
         var runElse = function.newLocal();
         function.loadConstant(true);
         function.storeLocal(runElse);
+        //holds the result of the last iteration if the rest of the loop runs elsewhere
+        var resultLocal = resultUsed ? function.newLocal() : -1;
         
         if(resultUsed) function.loadNil();
         function.bind(loopStart);
@@ -274,6 +281,7 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
         function.loadConstant(false);
         function.storeLocal(runElse);
         compile(node.getBody(), resultUsed);
+        var backEdge = function.position();
         function.jump(loopStart);
         
         function.bind(loopDone);
@@ -282,8 +290,14 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
         if(resultUsed) function.pop();
         compile(node.getElseBody(), resultUsed);
         function.bind(end);
+        //the body already ran at least once, so the else body can't run anymore
+        ir.addLoop(function.id() & 0xFFFF, new IrMapping.Loop(backEdge, function.position(), resultLocal, new IrWhile(
+                node.getCondition(),
+                node.getBody(),
+                resultLocal >= 0 ? new IrLocal(resultLocal) : new IrNil()
+        )));
         
-        return true;
+        return false;
     }
     
     @Override
@@ -405,8 +419,23 @@ class ActualBytecodeConverter implements IrVisitor<Boolean> {
             function.loadLocal(step);
             function.binaryOperation(BinaryOperationType.ADD);
             function.storeLocal(loopVar);
+            var backEdge = function.position();
             function.jump(loopStart);
             function.bind(loopEnd);
+            //for(var l = loopVar; l != end; l += step), as a range for unless it's done already
+            ir.addLoop(function.id() & 0xFFFF, new IrMapping.Loop(backEdge, function.position(), -1, new IrIf(
+                    new IrBinaryOperation(BinaryOperationType.NEQ, new IrLocal(loopVar), new IrLocal(end)),
+                    new IrFor(
+                            node.getVariableIndex(),
+                            new IrRange(
+                                    new IrLocal(loopVar),
+                                    new IrBinaryOperation(BinaryOperationType.SUB, new IrLocal(end), new IrLocal(step))
+                            ),
+                            node.getBody(),
+                            new IrNil()
+                    ),
+                    new IrNil()
+            )));
             if(resultUsed) function.loadNil();
         }
     }
@@ -0,0 +1,554 @@
+package com.github.natanbc.idk.bytecode.convert;
+
+import com.github.natanbc.idk.bytecode.BytecodeWriter;
+import com.github.natanbc.idk.bytecode.ConditionType;
+import com.github.natanbc.idk.bytecode.Label;
+import com.github.natanbc.idk.bytecode.RegisterFunctionWriter;
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.IrVisitor;
+import com.github.natanbc.idk.ir.misc.IrBody;
+import com.github.natanbc.idk.ir.misc.IrCall;
+import com.github.natanbc.idk.ir.misc.IrFor;
+import com.github.natanbc.idk.ir.misc.IrFunction;
+import com.github.natanbc.idk.ir.misc.IrIf;
+import com.github.natanbc.idk.ir.misc.IrRange;
+import com.github.natanbc.idk.ir.misc.IrReturn;
+import com.github.natanbc.idk.ir.misc.IrRoot;
+import com.github.natanbc.idk.ir.misc.IrThrow;
+import com.github.natanbc.idk.ir.misc.IrWhile;
+import com.github.natanbc.idk.ir.operation.IrBinaryOperation;
+import com.github.natanbc.idk.ir.operation.IrUnaryOperation;
+import com.github.natanbc.idk.ir.value.IrArrayLiteral;
+import com.github.natanbc.idk.ir.value.IrBoolean;
+import com.github.natanbc.idk.ir.value.IrDouble;
+import com.github.natanbc.idk.ir.value.IrLong;
+import com.github.natanbc.idk.ir.value.IrNil;
+import com.github.natanbc.idk.ir.value.IrObjectLiteral;
+import com.github.natanbc.idk.ir.value.IrString;
+import com.github.natanbc.idk.ir.variable.IrAssign;
+import com.github.natanbc.idk.ir.variable.IrGlobal;
+import com.github.natanbc.idk.ir.variable.IrLocal;
+import com.github.natanbc.idk.ir.variable.IrMember;
+import com.github.natanbc.idk.ir.variable.IrUpvalue;
+
+//visitors return the register holding the value of the node, or NONE if the
+//value isn't used. target is where the parent wants the value: a register, ANY
+//or NONE. locals are their own registers, so reading one costs nothing and
+//a = b + c is a single instruction
+class ActualRegisterConverter implements IrVisitor<Integer> {
+    private static final int ANY = -1;
+    private static final int NONE = -2;
+    
+    private final BytecodeWriter writer;
+    private final RegisterFunctionWriter function;
+    //registers from here on are temporaries, the ones before are locals
+    private final int firstTemporary;
+    //temporaries are allocated and released like a stack, so the ones allocated
+    //in a row are consecutive registers, as needed by calls and literals
+    private int temporaries;
+    private int allocatedTemporaries;
+    private int target = NONE;
+    
+    ActualRegisterConverter(BytecodeWriter writer, RegisterFunctionWriter function, int localsCount) {
+        this.writer = writer;
+        this.function = function;
+        this.firstTemporary = localsCount;
+    }
+    
+    @Override
+    public Integer visitRoot(IrRoot node) {
+        throw new UnsupportedOperationException("Multiple root nodes");
+    }
+    
+    @Override
+    public Integer visitBoolean(IrBoolean node) {
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadConstant(dst, node.getValue());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitDouble(IrDouble node) {
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadConstant(dst, node.getValue());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitLong(IrLong node) {
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadConstant(dst, node.getValue());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitNil(IrNil node) {
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadNil(dst);
+        return dst;
+    }
+    
+    @Override
+    public Integer visitString(IrString node) {
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadConstant(dst, node.getValue());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitArrayLiteral(IrArrayLiteral node) {
+        var mark = temporaries;
+        var values = node.getValues();
+        var first = temporaries(values.size());
+        for(var i = 0; i < values.size(); i++) {
+            valueInto(values.get(i), first + i);
+        }
+        temporaries = mark;
+        var dst = result();
+        function.arrayLiteral(dst, first, values.size());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitObjectLiteral(IrObjectLiteral node) {
+        var mark = temporaries;
+        var entries = node.getEntries();
+        var first = temporaries(entries.size() * 2);
+        for(var i = 0; i < entries.size(); i++) {
+            valueInto(entries.get(i).getKey(), first + i * 2);
+            valueInto(entries.get(i).getValue(), first + i * 2 + 1);
+        }
+        temporaries = mark;
+        var dst = result();
+        function.objectLiteral(dst, first, entries.size());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitUnaryOperation(IrUnaryOperation node) {
+        var mark = temporaries;
+        var src = value(node.getTarget());
+        temporaries = mark;
+        var dst = result();
+        function.unaryOperation(node.getType(), dst, src);
+        return dst;
+    }
+    
+    @Override
+    public Integer visitBinaryOperation(IrBinaryOperation node) {
+        switch(node.getType()) {
+            case OR, AND -> {
+                //the lhs is written before the rhs runs
+                var dst = temporaryResult();
+                var end = new Label();
+                valueInto(node.getLhs(), dst);
+                function.jumpIf(node.getType() == BinaryOperationType.AND ? ConditionType.IF_FALSE : ConditionType.IF_TRUE, dst, end);
+                valueInto(node.getRhs(), dst);
+                function.binaryOperation(node.getType(), dst, dst, dst);
+                function.bind(end);
+                return dst;
+            }
+            default -> {
+                var mark = temporaries;
+                var operands = operands(node.getLhs(), node.getRhs());
+                temporaries = mark;
+                var dst = result();
+                function.binaryOperation(node.getType(), dst, operands[0], operands[1]);
+                return dst;
+            }
+        }
+    }
+    
+    @Override
+    public Integer visitRange(IrRange node) {
+        var mark = temporaries;
+        var operands = operands(node.getFrom(), node.getTo());
+        temporaries = mark;
+        var dst = result();
+        function.createRange(dst, operands[0], operands[1]);
+        return dst;
+    }
+    
+    @Override
+    public Integer visitLocal(IrLocal node) {
+        return resultIn(node.getIndex());
+    }
+    
+    @Override
+    public Integer visitUpvalue(IrUpvalue node) {
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadUpvalue(dst, node.getIndex());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitGlobal(IrGlobal node) {
+        var dst = result();
+        function.loadGlobal(dst, node.getName());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitAssign(IrAssign node) {
+        var target = node.getTarget();
+        if(target instanceof IrLocal) {
+            var idx = ((IrLocal)target).getIndex();
+            valueInto(node.getValue(), idx);
+            return resultIn(idx);
+        } else if(target instanceof IrUpvalue) {
+            var src = value(node.getValue());
+            function.storeUpvalue(((IrUpvalue)target).getIndex(), src);
+            return resultIn(src);
+        } else if(target instanceof IrGlobal) {
+            var src = value(node.getValue());
+            function.storeGlobal(((IrGlobal)target).getName(), src);
+            return resultIn(src);
+        } else if(target instanceof IrMember) {
+            var m = (IrMember)target;
+            var operands = operands(m.getTarget(), m.getKey(), node.getValue());
+            function.storeMember(operands[0], operands[1], operands[2]);
+            return resultIn(operands[2]);
+        } else {
+            throw new IllegalArgumentException("Can't assign to " + target);
+        }
+    }
+    
+    @Override
+    public Integer visitMember(IrMember node) {
+        var mark = temporaries;
+        var operands = operands(node.getTarget(), node.getKey());
+        temporaries = mark;
+        var dst = result();
+        function.loadMember(dst, operands[0], operands[1]);
+        return dst;
+    }
+    
+    @Override
+    public Integer visitBody(IrBody node) {
+        var children = node.getChildren();
+        if(children.isEmpty()) {
+            if(target == NONE) return NONE;
+            var dst = result();
+            function.loadNil(dst);
+            return dst;
+        }
+        for(var i = 0; i < children.size() - 1; i++) {
+            discard(children.get(i));
+        }
+        return compile(children.get(children.size() - 1), target);
+    }
+    
+    @Override
+    public Integer visitCall(IrCall node) {
+        var mark = temporaries;
+        var arguments = node.getArguments();
+        var first = temporaries(arguments.size() + 1);
+        valueInto(node.getTarget(), first);
+        for(var i = 0; i < arguments.size(); i++) {
+            valueInto(arguments.get(i), first + 1 + i);
+        }
+        temporaries = mark;
+        var dst = result();
+        function.call(dst, first, arguments.size());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitFunction(IrFunction node) {
+        var fw = writer.createRegisterFunction(
+                node.getName(),
+                node.getArgumentCount(),
+                node.getLocalsCount(),
+                node.isVarargs(),
+                node.getAnnotations(),
+                node.getCapturedLocals(),
+                node.getUpvalues()
+        );
+        new ActualRegisterConverter(writer, fw, node.getLocalsCount()).compileBody(node.getBody());
+        fw.end();
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadFunction(dst, fw.id());
+        return dst;
+    }
+    
+    @Override
+    public Integer visitIf(IrIf node) {
+        var elseLabel = new Label();
+        var endLabel = new Label();
+        
+        var mark = temporaries;
+        var condition = value(node.getCondition());
+        temporaries = mark;
+        function.jumpIf(ConditionType.IF_FALSE, condition, elseLabel);
+        if(target == NONE) {
+            discard(node.getIfBody());
+            function.jump(endLabel);
+            function.bind(elseLabel);
+            discard(node.getElseBody());
+            function.bind(endLabel);
+            return NONE;
+        }
+        var dst = result();
+        mark = temporaries;
+        valueInto(node.getIfBody(), dst);
+        temporaries = mark;
+        function.jump(endLabel);
+        function.bind(elseLabel);
+        valueInto(node.getElseBody(), dst);
+        temporaries = mark;
+        function.bind(endLabel);
+        return dst;
+    }
+    
+    @Override
+    public Integer visitWhile(IrWhile node) {
+        var loopStart = new Label();
+        var loopDone = new Label();
+        var end = new Label();
+        
+        var runElse = temporary();
+        function.loadConstant(runElse, true);
+        //written by every iteration, while the body may still read the target
+        var dst = target == NONE ? NONE : temporaryResult();
+        if(dst != NONE) function.loadNil(dst);
+        var mark = temporaries;
+        
+        function.bind(loopStart);
+        var condition = value(node.getCondition());
+        temporaries = mark;
+        function.jumpIf(ConditionType.IF_FALSE, condition, loopDone);
+        function.loadConstant(runElse, false);
+        bodyInto(node.getBody(), dst);
+        function.jump(loopStart);
+        
+        function.bind(loopDone);
+        function.jumpIf(ConditionType.IF_FALSE, runElse, end);
+        bodyInto(node.getElseBody(), dst);
+        function.bind(end);
+        return dst;
+    }
+    
+    @Override
+    public Integer visitFor(IrFor node) {
+        var from = temporary();
+        var to = temporary();
+        //optimization for known types
+        if(node.getValue() instanceof IrRange) {
+            var range = (IrRange) node.getValue();
+            valueInto(range.getFrom(), from);
+            valueInto(range.getTo(), to);
+            return compileRangeFor(node, from, to);
+        }
+        var isRange = new Label();
+        var value = value(node.getValue());
+        var tmp = temporary();
+        function.testType(ValueType.RANGE, tmp, value);
+        function.jumpIf(ConditionType.IF_TRUE, tmp, isRange);
+        function.loadConstant(tmp, "For not implemented for value ");
+        function.binaryOperation(BinaryOperationType.ADD, tmp, tmp, value);
+        function.exthrow(tmp);
+        
+        function.bind(isRange);
+        function.loadConstant(tmp, "from");
+        function.loadMember(from, value, tmp);
+        function.loadConstant(tmp, "to");
+        function.loadMember(to, value, tmp);
+        return compileRangeFor(node, from, to);
+    }
+    
+    @Override
+    public Integer visitReturn(IrReturn node) {
+        function.ret(value(node.getValue()));
+        return unreachable();
+    }
+    
+    @Override
+    public Integer visitThrow(IrThrow node) {
+        function.exthrow(value(node.getValue()));
+        return unreachable();
+    }
+    
+    //from and to are temporaries holding the bounds, from is reused as the loop variable
+    private int compileRangeFor(IrFor node, int from, int to) {
+        var step = temporary();
+        var end = temporary();
+        var test = temporary();
+        {
+            /* var step = range.getFrom() > range.getTo() ? -1 : 1; */
+            var gt = new Label();
+            var cont = new Label();
+            function.binaryOperation(BinaryOperationType.GREATER, test, from, to);
+            function.jumpIf(ConditionType.IF_TRUE, test, gt);
+            function.loadConstant(step, 1L);
+            function.jump(cont);
+            
+            function.bind(gt);
+            function.loadConstant(step, -1L);
+            function.bind(cont);
+        }
+        /* var end = range.getTo() + step; */
+        function.binaryOperation(BinaryOperationType.ADD, end, to, step);
+        {
+            /* for(var l = range.getFrom(); l != end; l += step) */
+            var loopStart = new Label();
+            var loopEnd = new Label();
+            function.bind(loopStart);
+            function.binaryOperation(BinaryOperationType.NEQ, test, from, end);
+            function.jumpIf(ConditionType.IF_FALSE, test, loopEnd);
+            function.move(node.getVariableIndex(), from);
+            discard(node.getBody());
+            function.binaryOperation(BinaryOperationType.ADD, from, from, step);
+            function.jump(loopStart);
+            function.bind(loopEnd);
+        }
+        if(target == NONE) return NONE;
+        var dst = result();
+        function.loadNil(dst);
+        return dst;
+    }
+    
+    //compiles the body of a function, returning its value
+    void compileBody(IrNode node) {
+        function.ret(value(node));
+    }
+    
+    private int compile(IrNode node, int target) {
+        var old = this.target;
+        this.target = target;
+        try {
+            return node.accept(this);
+        } finally {
+            this.target = old;
+        }
+    }
+    
+    //register holding the value of the node, which is a local if the node is one
+    private int value(IrNode node) {
+        return compile(node, ANY);
+    }
+    
+    private void valueInto(IrNode node, int dst) {
+        var src = compile(node, dst);
+        if(src != dst) {
+            function.move(dst, src);
+        }
+    }
+    
+    //runs the node only for its side effects
+    private void discard(IrNode node) {
+        var mark = temporaries;
+        compile(node, NONE);
+        temporaries = mark;
+    }
+    
+    //loop bodies, into dst unless it's NONE. temporaries are released after it
+    private void bodyInto(IrNode node, int dst) {
+        if(dst == NONE) {
+            discard(node);
+        } else {
+            var mark = temporaries;
+            valueInto(node, dst);
+            temporaries = mark;
+        }
+    }
+    
+    //values of the nodes, evaluated in order. a local is used directly only if
+    //nothing after it could assign to it before the values are used
+    private int[] operands(IrNode... nodes) {
+        var registers = new int[nodes.length];
+        for(var i = 0; i < nodes.length; i++) {
+            var r = value(nodes[i]);
+            if(r < firstTemporary && !simple(nodes, i + 1)) {
+                var copy = temporary();
+                function.move(copy, r);
+                r = copy;
+            }
+            registers[i] = r;
+        }
+        return registers;
+    }
+    
+    //register for the result of the current node
+    private int result() {
+        return target >= 0 ? target : temporary();
+    }
+    
+    //like result, for nodes that write their result before they're done reading
+    //other registers. those can't write straight into a local
+    private int temporaryResult() {
+        return target >= firstTemporary ? target : temporary();
+    }
+    
+    //gives the parent the value held by register src
+    private int resultIn(int src) {
+        if(target < 0) {
+            return target == NONE ? NONE : src;
+        }
+        if(target != src) {
+            function.move(target, src);
+        }
+        return target;
+    }
+    
+    //result of a node after which nothing runs. the parent may still emit code
+    //using it, so it gets a register that's never written
+    private int unreachable() {
+        return target == NONE ? NONE : result();
+    }
+    
+    private int temporary() {
+        if(temporaries == allocatedTemporaries) {
+            var r = function.newRegister();
+            if(r != firstTemporary + allocatedTemporaries) {
+                throw new IllegalStateException("Registers allocated outside of the converter");
+            }
+            allocatedTemporaries++;
+        }
+        return firstTemporary + temporaries++;
+    }
+    
+    //first of count consecutive temporaries
+    private int temporaries(int count) {
+        var first = firstTemporary + temporaries;
+        for(var i = 0; i < count; i++) {
+            temporary();
+        }
+        return first;
+    }
+    
+    //whether the nodes from start on can't assign to locals or run other code
+    private static boolean simple(IrNode[] nodes, int start) {
+        for(var i = start; i < nodes.length; i++) {
+            if(!simple(nodes[i])) return false;
+        }
+        return true;
+    }
+    
+    private static boolean simple(IrNode node) {
+        if(node instanceof IrBoolean || node instanceof IrDouble || node instanceof IrLong || node instanceof IrNil
+                || node instanceof IrString || node instanceof IrLocal || node instanceof IrUpvalue || node instanceof IrGlobal) {
+            return true;
+        }
+        if(node instanceof IrUnaryOperation) {
+            return simple(((IrUnaryOperation)node).getTarget());
+        }
+        if(node instanceof IrBinaryOperation) {
+            var op = (IrBinaryOperation)node;
+            return simple(op.getLhs()) && simple(op.getRhs());
+        }
+        if(node instanceof IrMember) {
+            var m = (IrMember)node;
+            return simple(m.getTarget()) && simple(m.getKey());
+        }
+        return false;
+    }
+}
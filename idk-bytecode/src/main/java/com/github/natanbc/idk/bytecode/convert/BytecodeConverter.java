@@ -36,14 +36,24 @@ public class BytecodeConverter implements IrVisitor<byte[]> {
         return INSTANCE;
     }
     
-    @Override
-    public byte[] visitRoot(IrRoot node) {
+    //converts the given root, recording in ir the ir of the functions and loops written
+    public static byte[] convert(IrRoot node, IrMapping ir) {
         var writer = new BytecodeWriter();
-        var fw = writer.createFunction("$main", 0, node.getLocalsCount(), false, List.of());
-        new ActualBytecodeConverter(writer, fw).compile(node.getBody());
+        convert(node, ir, writer);
+        return writer.write();
+    }
+    
+    //writes the program into an empty stack code writer, without finishing it
+    public static void convert(IrRoot node, IrMapping ir, BytecodeWriter writer) {
+        var fw = writer.createFunction("$main", 0, node.getLocalsCount(), false, List.of(), node.getCapturedLocals(), new int[0]);
+        new ActualBytecodeConverter(writer, fw, ir).compile(node.getBody());
         fw.end();
         writer.setEntrypoint(fw.id());
-        return writer.write();
+    }
+    
+    @Override
+    public byte[] visitRoot(IrRoot node) {
+        return convert(node, new IrMapping());
     }
     
     @Override
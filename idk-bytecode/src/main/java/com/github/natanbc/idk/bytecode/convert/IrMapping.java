@@ -0,0 +1,76 @@
+package com.github.natanbc.idk.bytecode.convert;
+
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.misc.IrFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//ir behind converted bytecode, filled by BytecodeConverter.convert, for engines
+//that switch from running the bytecode to compiled code for the same ir
+public class IrMapping {
+    private final List<IrFunction> functions = new ArrayList<>();
+    private final Map<Integer, List<Loop>> loops = new HashMap<>();
+    
+    //ir of the function with the given id, null for the entrypoint
+    public IrFunction function(int id) {
+        return id < functions.size() ? functions.get(id) : null;
+    }
+    
+    //loops of the function with the given id
+    public List<Loop> loops(int id) {
+        return loops.getOrDefault(id, Collections.emptyList());
+    }
+    
+    void addFunction(int id, IrFunction function) {
+        while(functions.size() <= id) {
+            functions.add(null);
+        }
+        functions.set(id, function);
+    }
+    
+    void addLoop(int id, Loop loop) {
+        loops.computeIfAbsent(id, __ -> new ArrayList<>()).add(loop);
+    }
+    
+    //a loop which can be left while stopped at its backwards jump by running
+    //its continuation on the state of the call and resuming at the exit
+    public static class Loop {
+        private final int backEdge;
+        private final int exit;
+        private final int resultLocal;
+        private final IrNode continuation;
+        
+        Loop(int backEdge, int exit, int resultLocal, IrNode continuation) {
+            this.backEdge = backEdge;
+            this.exit = exit;
+            this.resultLocal = resultLocal;
+            this.continuation = continuation;
+        }
+        
+        //code offset of the jump back to the start of the loop
+        public int backEdge() {
+            return backEdge;
+        }
+        
+        //code offset to resume at after running the continuation
+        public int exit() {
+            return exit;
+        }
+        
+        //if >= 0, the loop's result is on top of the stack at the backwards jump.
+        //it must be popped into this local before running the continuation, and
+        //the continuation's result pushed before resuming
+        public int resultLocal() {
+            return resultLocal;
+        }
+        
+        //runs the remaining iterations of the loop, evaluating to its result
+        public IrNode continuation() {
+            return continuation;
+        }
+    }
+}
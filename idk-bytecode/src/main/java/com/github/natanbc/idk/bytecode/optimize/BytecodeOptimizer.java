@@ -0,0 +1,470 @@
+package com.github.natanbc.idk.bytecode.optimize;
+
+import com.github.natanbc.idk.bytecode.BytecodeReader;
+import com.github.natanbc.idk.bytecode.BytecodeWriter;
+import com.github.natanbc.idk.bytecode.ConditionType;
+import com.github.natanbc.idk.bytecode.FunctionReader;
+import com.github.natanbc.idk.bytecode.FunctionWriter;
+import com.github.natanbc.idk.bytecode.Label;
+import com.github.natanbc.idk.bytecode.Opcode;
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.common.UnaryOperationType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//bytecode to bytecode optimizer. removes dead code and dead stores, threads
+//jumps and fuses common sequences into superinstructions, so interpreters
+//dispatch fewer instructions. the result behaves exactly like the input, but
+//positions change, so it can't be used with an IrMapping of the input
+public class BytecodeOptimizer {
+    //passes are repeated while they change something, up to this many times
+    private static final int MAX_ROUNDS = 8;
+    
+    private final List<Insn> code;
+    private final Set<Integer> capturedLocals = new HashSet<>();
+    //jumps to each instruction that's a jump target. kept up to date by every
+    //change to the code, so passes never scan the code to find them
+    private final Map<Insn, List<Insn>> jumpsTo = new IdentityHashMap<>();
+    
+    private BytecodeOptimizer(List<Insn> code, int[] capturedLocals) {
+        this.code = code;
+        for(var local : capturedLocals) {
+            this.capturedLocals.add(local);
+        }
+        for(var insn : code) {
+            if(insn.target != null) {
+                jumpsTo.computeIfAbsent(insn.target, __ -> new ArrayList<>()).add(insn);
+            }
+        }
+    }
+    
+    public static byte[] optimize(byte[] code) {
+        return optimize(new BytecodeReader(code));
+    }
+    
+    public static byte[] optimize(ByteBuffer code) {
+        return optimize(new BytecodeReader(code));
+    }
+    
+    public static byte[] optimize(BytecodeReader reader) {
+        var writer = new BytecodeWriter();
+        optimize(reader, writer);
+        return writer.write();
+    }
+    
+    //writes the optimized program into an empty stack code writer, without finishing it
+    public static void optimize(BytecodeReader reader, BytecodeWriter writer) {
+        if(reader.registers()) {
+            throw new IllegalArgumentException("Register code can't be optimized");
+        }
+        //created in id order so every function keeps its id
+        for(var id = 0; id < reader.functionCount(); id++) {
+            var fr = reader.function(id);
+            var fw = writer.createFunction(fr.name(), fr.argumentCount(), fr.localsCount(), fr.varargs(),
+                    fr.annotations(), fr.capturedLocals(), fr.upvalues());
+            var optimizer = new BytecodeOptimizer(decode(fr), fr.capturedLocals());
+            optimizer.run();
+            optimizer.emit(fw);
+            fw.end();
+        }
+        writer.setEntrypoint(reader.entrypoint());
+    }
+    
+    private void run() {
+        for(var i = 0; i < MAX_ROUNDS; i++) {
+            var changed = removeUnreachable();
+            changed |= threadJumps();
+            changed |= threadLogical();
+            changed |= removeDeadStores();
+            changed |= forwardStores();
+            changed |= fuse();
+            if(!changed) break;
+        }
+    }
+    
+    //code that can't be reached from the start of the function
+    private boolean removeUnreachable() {
+        var reachable = Collections.newSetFromMap(new IdentityHashMap<Insn, Boolean>());
+        var index = new IdentityHashMap<Insn, Integer>();
+        for(var i = 0; i < code.size(); i++) {
+            index.put(code.get(i), i);
+        }
+        var pending = new ArrayDeque<Integer>();
+        pending.add(0);
+        while(!pending.isEmpty()) {
+            var i = pending.poll();
+            var insn = code.get(i);
+            if(!reachable.add(insn) || insn.op == null) continue;
+            if(insn.target != null) {
+                pending.add(index.get(insn.target));
+            }
+            if(insn.fallsThrough()) {
+                pending.add(i + 1);
+            }
+        }
+        var changed = false;
+        for(var i = 0; i < code.size() - 1; i++) {
+            if(!reachable.contains(code.get(i))) {
+                remove(i--);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+    
+    //jumps to unconditional jumps go straight to the final target, and jumps
+    //to the next instruction are removed. conditional ones also check that the
+    //condition is a boolean, so they're only removed if it's known to be one
+    private boolean threadJumps() {
+        var changed = false;
+        for(var i = 0; i < code.size() - 1; i++) {
+            var insn = code.get(i);
+            if(insn.target == null) continue;
+            var target = insn.target;
+            for(var steps = 0; target.op == Opcode.JUMP && target.target != target && steps < code.size(); steps++) {
+                target = target.target;
+            }
+            if(target != insn.target) {
+                setTarget(insn, target);
+                changed = true;
+            }
+            if(insn.target == code.get(i + 1)) {
+                if(insn.op == Opcode.JUMP) {
+                    remove(i--);
+                } else if(insn.op == Opcode.JUMP_IF && i > 0 && !isTarget(insn) && pushesBoolean(code.get(i - 1))) {
+                    //the condition is still evaluated, but its result isn't needed
+                    setTarget(insn, null);
+                    insn.op = Opcode.POP;
+                    insn.args = new Object[0];
+                } else {
+                    continue;
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+    
+    //short circuiting and/or used as a condition:
+    //  lhs; DUP; JUMP_IF c L; rhs; AND/OR; L: JUMP_IF c2 T
+    //jumps from the first JUMP_IF already know the outcome of the second one, and
+    //the second one tests the boolean value of rhs like AND/OR does, so this becomes
+    //  lhs; JUMP_IF c (c == c2 ? T : after L); rhs; L: JUMP_IF c2 T
+    private boolean threadLogical() {
+        var changed = false;
+        for(var i = 0; i < code.size() - 2; i++) {
+            var dup = code.get(i);
+            var jump = code.get(i + 1);
+            if(dup.op != Opcode.DUP || jump.op != Opcode.JUMP_IF || isTarget(jump) || jumpCount(jump.target) != 1) continue;
+            var l = code.indexOf(jump.target);
+            if(l <= i + 2 || code.get(l).op != Opcode.JUMP_IF) continue;
+            var logical = code.get(l - 1);
+            if(logical.op != Opcode.BINARY_OPERATION || isTarget(logical)) continue;
+            var type = (BinaryOperationType)logical.args[0];
+            if(type != BinaryOperationType.AND && type != BinaryOperationType.OR) continue;
+            var second = code.get(l);
+            setTarget(jump, jump.args[0] == second.args[0] ? second.target : code.get(l + 1));
+            remove(l - 1);
+            remove(i);
+            changed = true;
+        }
+        return changed;
+    }
+    
+    //stores to locals that are never read become pops, and pops of values
+    //with no side effects are removed with the instruction pushing them
+    private boolean removeDeadStores() {
+        var read = new HashSet<Integer>(capturedLocals);
+        for(var insn : code) {
+            if(insn.op == null) continue;
+            switch(insn.op) {
+                case LOAD_LOCAL -> read.add(local(insn, 0));
+                case ADD_LOCAL_LOCAL -> {
+                    read.add(local(insn, 0));
+                    read.add(local(insn, 1));
+                }
+                case INC_LOCAL -> read.add(local(insn, 0));
+                default -> {}
+            }
+        }
+        var changed = false;
+        for(var insn : code) {
+            if(insn.op == Opcode.STORE_LOCAL && !read.contains(local(insn, 0))) {
+                insn.op = Opcode.POP;
+                insn.args = new Object[0];
+                changed = true;
+            }
+        }
+        for(var i = 1; i < code.size() - 1; i++) {
+            var pop = code.get(i);
+            if(pop.op != Opcode.POP || isTarget(pop) || !code.get(i - 1).isPure()) continue;
+            remove(i);
+            remove(i - 1);
+            i -= 2;
+            changed = true;
+        }
+        return changed;
+    }
+    
+    //STORE_LOCAL n; LOAD_LOCAL n -> DUP; STORE_LOCAL n
+    private boolean forwardStores() {
+        var changed = false;
+        for(var i = 0; i < code.size() - 2; i++) {
+            var store = code.get(i);
+            var load = code.get(i + 1);
+            if(store.op != Opcode.STORE_LOCAL || load.op != Opcode.LOAD_LOCAL || isTarget(load)) continue;
+            if(local(store, 0) != local(load, 0)) continue;
+            load.op = Opcode.STORE_LOCAL;
+            store.op = Opcode.DUP;
+            store.args = new Object[0];
+            changed = true;
+        }
+        return changed;
+    }
+    
+    private boolean fuse() {
+        var changed = false;
+        for(var i = 0; i < code.size() - 1; i++) {
+            var insn = code.get(i);
+            //LOAD_LOCAL x; CONSTANT_LONG c; ADD; [DUP;] STORE_LOCAL x -> INC_LOCAL x c; [LOAD_LOCAL x]
+            if(insn.op == Opcode.LOAD_LOCAL && matches(i + 1, Opcode.CONSTANT_LONG) && isAdd(i + 2)) {
+                var dup = matches(i + 3, Opcode.DUP);
+                var store = dup ? i + 4 : i + 3;
+                if(matches(store, Opcode.STORE_LOCAL) && local(code.get(store), 0) == local(insn, 0)) {
+                    var inc = new Insn(Opcode.INC_LOCAL, new Object[] { insn.args[0], code.get(i + 1).args[0] });
+                    replace(i, store - i + 1, dup ? List.of(inc, new Insn(Opcode.LOAD_LOCAL, insn.args)) : List.of(inc));
+                    changed = true;
+                    continue;
+                }
+            }
+            //LOAD_LOCAL a; LOAD_LOCAL b; ADD -> ADD_LOCAL_LOCAL a b
+            if(insn.op == Opcode.LOAD_LOCAL && matches(i + 1, Opcode.LOAD_LOCAL) && isAdd(i + 2)) {
+                replace(i, 3, List.of(new Insn(Opcode.ADD_LOCAL_LOCAL, new Object[] { insn.args[0], code.get(i + 1).args[0] })));
+                changed = true;
+                continue;
+            }
+            //SMALLER; JUMP_IF c T -> JUMP_IF_LESS c T
+            if(insn.op == Opcode.BINARY_OPERATION && insn.args[0] == BinaryOperationType.SMALLER
+                    && matches(i + 1, Opcode.JUMP_IF)) {
+                var jump = code.get(i + 1);
+                var fused = new Insn(Opcode.JUMP_IF_LESS, jump.args);
+                fused.target = jump.target;
+                replace(i, 2, List.of(fused));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+    
+    //whether the instruction at i has the given opcode and isn't a jump target
+    private boolean matches(int i, Opcode op) {
+        return i < code.size() - 1 && code.get(i).op == op && !isTarget(code.get(i));
+    }
+    
+    private boolean isAdd(int i) {
+        return matches(i, Opcode.BINARY_OPERATION) && code.get(i).args[0] == BinaryOperationType.ADD;
+    }
+    
+    //replaces count instructions starting at i, redirecting jumps to the first one.
+    //targets of the replacement must not be registered yet
+    private void replace(int i, int count, List<Insn> replacement) {
+        var replaced = code.subList(i, i + count);
+        var first = replaced.get(0);
+        for(var insn : replaced) {
+            setTarget(insn, null);
+        }
+        replaced.clear();
+        code.addAll(i, replacement);
+        for(var insn : replacement) {
+            if(insn.target != null) {
+                jumpsTo.computeIfAbsent(insn.target, __ -> new ArrayList<>()).add(insn);
+            }
+        }
+        redirect(first, replacement.get(0));
+    }
+    
+    //removes the instruction at i, redirecting jumps to it to the next one
+    private void remove(int i) {
+        var removed = code.remove(i);
+        setTarget(removed, null);
+        redirect(removed, code.get(i));
+    }
+    
+    private void redirect(Insn from, Insn to) {
+        var jumps = jumpsTo.remove(from);
+        if(jumps == null) return;
+        for(var jump : jumps) {
+            jump.target = to;
+        }
+        jumpsTo.computeIfAbsent(to, __ -> new ArrayList<>()).addAll(jumps);
+    }
+    
+    private void setTarget(Insn jump, Insn target) {
+        if(jump.target != null) {
+            var jumps = jumpsTo.get(jump.target);
+            jumps.remove(jump);
+            if(jumps.isEmpty()) {
+                jumpsTo.remove(jump.target);
+            }
+        }
+        jump.target = target;
+        if(target != null) {
+            jumpsTo.computeIfAbsent(target, __ -> new ArrayList<>()).add(jump);
+        }
+    }
+    
+    private boolean isTarget(Insn insn) {
+        return jumpsTo.containsKey(insn);
+    }
+    
+    private int jumpCount(Insn insn) {
+        var jumps = jumpsTo.get(insn);
+        return jumps == null ? 0 : jumps.size();
+    }
+    
+    //whether the value pushed by the instruction is always a boolean
+    private static boolean pushesBoolean(Insn insn) {
+        if(insn.op == null) return false;
+        return switch(insn.op) {
+            case CONSTANT_BOOLEAN, TEST_TYPE -> true;
+            case UNARY_OPERATION -> insn.args[0] == UnaryOperationType.NEGATE;
+            case BINARY_OPERATION -> switch((BinaryOperationType)insn.args[0]) {
+                case EQ, NEQ, GREATER, GREATER_EQ, SMALLER, SMALLER_EQ, AND, OR -> true;
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+    
+    private static int local(Insn insn, int arg) {
+        return (Short)insn.args[arg] & 0xFFFF;
+    }
+    
+    private void emit(FunctionWriter fw) {
+        var labels = new IdentityHashMap<Insn, Label>();
+        for(var insn : code) {
+            if(insn.target != null) {
+                labels.computeIfAbsent(insn.target, __ -> new Label());
+            }
+        }
+        for(var insn : code) {
+            var label = labels.get(insn);
+            if(label != null) {
+                fw.bind(label);
+            }
+            if(insn.op == null) break;
+            var args = insn.args;
+            switch(insn.op) {
+                case CONSTANT_NIL -> fw.loadNil();
+                case CONSTANT_BOOLEAN -> fw.loadConstant((boolean)(Boolean)args[0]);
+                case CONSTANT_LONG -> fw.loadConstant((long)(Long)args[0]);
+                case CONSTANT_DOUBLE -> fw.loadConstant((double)(Double)args[0]);
+                case CONSTANT_STRING -> fw.loadConstant((String)args[0]);
+                case CREATE_ARRAY -> fw.arrayLiteral(local(insn, 0));
+                case CREATE_OBJECT -> fw.objectLiteral(local(insn, 0));
+                case CREATE_RANGE -> fw.createRange();
+                case LOAD_LOCAL -> fw.loadLocal(local(insn, 0));
+                case STORE_LOCAL -> fw.storeLocal(local(insn, 0));
+                case LOAD_UPVALUE -> fw.loadUpvalue(local(insn, 0));
+                case STORE_UPVALUE -> fw.storeUpvalue(local(insn, 0));
+                case LOAD_GLOBAL -> fw.loadGlobal((String)args[0]);
+                case STORE_GLOBAL -> fw.storeGlobal((String)args[0]);
+                case LOAD_MEMBER -> fw.loadMember();
+                case STORE_MEMBER -> fw.storeMember();
+                case CALL -> fw.call(local(insn, 0));
+                case RETURN -> fw.ret();
+                case BINARY_OPERATION -> fw.binaryOperation((BinaryOperationType)args[0]);
+                case UNARY_OPERATION -> fw.unaryOperation((UnaryOperationType)args[0]);
+                case JUMP -> fw.jump(labels.get(insn.target));
+                case JUMP_IF -> fw.jumpIf((ConditionType)args[0], labels.get(insn.target));
+                case LOAD_FUNCTION -> fw.loadFunction((Short)args[0]);
+                case POP -> fw.pop();
+                case DUP -> fw.dup();
+                case THROW -> fw.exthrow();
+                case TEST_TYPE -> fw.testType((ValueType)args[0]);
+                case SIZE -> fw.size();
+                case SWAP2 -> fw.swap2();
+                case ADD_LOCAL_LOCAL -> fw.addLocalLocal(local(insn, 0), local(insn, 1));
+                case INC_LOCAL -> fw.incrementLocal(local(insn, 0), (Long)args[1]);
+                case JUMP_IF_LESS -> fw.jumpIfLess((ConditionType)args[0], labels.get(insn.target));
+            }
+        }
+    }
+    
+    private static List<Insn> decode(FunctionReader function) {
+        var reader = function.reader();
+        var codeStart = reader.pos();
+        var code = new ArrayList<Insn>();
+        //byte offset -> instruction, null for offsets that don't start an instruction
+        var offsets = new Insn[reader.limit() + 1];
+        var jumps = new ArrayList<Insn>();
+        var positions = new ArrayList<Integer>();
+        while(true) {
+            var pos = reader.pos() - codeStart;
+            var operation = function.nextInstruction();
+            if(operation == null) break;
+            var insn = new Insn(operation.opcode(), operation.args());
+            offsets[pos] = insn;
+            code.add(insn);
+            switch(insn.op) {
+                case JUMP -> {
+                    jumps.add(insn);
+                    positions.add((Short)insn.args[0] & 0xFFFF);
+                }
+                case JUMP_IF, JUMP_IF_LESS -> {
+                    jumps.add(insn);
+                    positions.add((Short)insn.args[1] & 0xFFFF);
+                }
+                default -> {}
+            }
+        }
+        //marks the end of the code, jumps can target it
+        var end = new Insn(null, new Object[0]);
+        offsets[reader.pos() - codeStart] = end;
+        code.add(end);
+        for(var i = 0; i < jumps.size(); i++) {
+            var position = positions.get(i);
+            if(position >= offsets.length || offsets[position] == null) {
+                throw new IllegalStateException("Jump to invalid position " + position);
+            }
+            jumps.get(i).target = offsets[position];
+        }
+        return code;
+    }
+    
+    private static class Insn {
+        //null for the end of the code
+        private Opcode op;
+        //arguments as returned by FunctionReader, jump positions are replaced by target
+        private Object[] args;
+        private Insn target;
+        
+        Insn(Opcode op, Object[] args) {
+            this.op = op;
+            this.args = args;
+        }
+        
+        boolean fallsThrough() {
+            return op != Opcode.JUMP && op != Opcode.RETURN && op != Opcode.THROW;
+        }
+        
+        //pushes a value without any other effect
+        boolean isPure() {
+            if(op == null) return false;
+            return switch(op) {
+                case CONSTANT_NIL, CONSTANT_BOOLEAN, CONSTANT_LONG, CONSTANT_DOUBLE, CONSTANT_STRING,
+                        LOAD_LOCAL, LOAD_UPVALUE, LOAD_FUNCTION, DUP -> true;
+                default -> false;
+            };
+        }
+    }
+}
@@ -2,48 +2,63 @@ package com.github.natanbc.idk.bytecode.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 
+//reads directly from a buffer, which can be a heap buffer or a file mapped
+//with FileChannel.map. sub readers are views of the same memory, nothing is copied
 public class ByteReader {
-    private final ByteReader parent;
-    private final DataInputStream dis;
-    private final int readLimit;
-    private int read;
+    private final ByteBuffer buffer;
     
-    private ByteReader(ByteReader parent, DataInputStream dis, int limit) {
-        this.parent = parent;
-        this.dis = dis;
-        this.readLimit = limit;
+    //reads the bytes between the position and the limit of the given buffer,
+    //without changing them
+    public ByteReader(ByteBuffer buffer) {
+        //slices are always big endian, like the format
+        this.buffer = buffer.slice();
     }
     
     public ByteReader(byte[] array, int offset, int length) {
-        this(null, new DataInputStream(new ByteArrayInputStream(array, offset, length)), length);
+        this(ByteBuffer.wrap(array, offset, length));
     }
     
     public ByteReader(byte[] array) {
         this(array, 0, array.length);
     }
     
+    //reader for the next limit bytes, which this reader skips
     public ByteReader subReader(int limit) {
-        return new ByteReader(this, dis, limit);
+        var sub = new ByteReader(require(limit).slice().limit(limit));
+        buffer.position(buffer.position() + limit);
+        return sub;
     }
     
-    private void read(int n) {
-        read += n;
-        if(parent != null) parent.read(n);
+    //reader for length bytes starting at the given position, independent of
+    //the position of this reader
+    public ByteReader view(int offset, int length) {
+        if(offset < 0 || length < 0 || offset > buffer.limit() - length) {
+            throw new IllegalArgumentException("Range " + offset + "+" + length + " out of bounds for length " + buffer.limit());
+        }
+        return new ByteReader(buffer.duplicate().position(offset).limit(offset + length));
+    }
+    
+    //read only view of the remaining bytes
+    public final ByteBuffer remaining() {
+        return buffer.slice().asReadOnlyBuffer();
     }
     
+    //number of bytes left to read
     public final int limit() {
-        return readLimit > 0 ? readLimit - read : -1;
+        return buffer.remaining();
     }
     
     public final int pos() {
-        return read;
+        return buffer.position();
     }
     
     public final boolean canRead() {
-        return readLimit < 0 || read < readLimit;
+        return buffer.hasRemaining();
     }
     
     public final boolean bool() {
@@ -51,68 +66,49 @@ public class ByteReader {
     }
     
     public final byte u8() {
-        try {
-            read(1);
-            return dis.readByte();
-        } catch(IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return require(1).get();
     }
     
     public final short u16() {
-        try {
-            read(2);
-            return dis.readShort();
-        } catch(IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return require(2).getShort();
     }
     
     public final int u32() {
-        try {
-            read(4);
-            return dis.readInt();
-        } catch(IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return require(4).getInt();
     }
     
     public final long u64() {
-        try {
-            read(8);
-            return dis.readLong();
-        } catch(IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return require(8).getLong();
     }
     
     public final float f32() {
-        try {
-            read(4);
-            return dis.readFloat();
-        } catch(IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return require(4).getFloat();
     }
     
     public final double f64() {
-        try {
-            read(8);
-            return dis.readDouble();
-        } catch(IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return require(8).getDouble();
     }
     
     public final String utf() {
+        var length = u16() & 0xFFFF;
+        //decoded by DataInputStream, so the modified utf-8 rules match the writer's
+        var bytes = new byte[length + 2];
+        bytes[0] = (byte)(length >> 8);
+        bytes[1] = (byte)length;
+        require(length).get(bytes, 2, length);
         try {
-            var s = dis.readUTF();
-            read(Utils.utfLen(s) + 2);
-            return s;
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
         } catch(UTFDataFormatException e) {
             throw new IllegalArgumentException(e);
         } catch(IOException e) {
             throw new IllegalStateException(e);
         }
     }
+    
+    private ByteBuffer require(int n) {
+        if(buffer.remaining() < n) {
+            throw new IllegalStateException(new EOFException());
+        }
+        return buffer;
+    }
 }
@@ -1,5 +1,6 @@
 module idk.bytecode {
     exports com.github.natanbc.idk.bytecode.convert;
+    exports com.github.natanbc.idk.bytecode.optimize;
     exports com.github.natanbc.idk.bytecode.util;
     exports com.github.natanbc.idk.bytecode;
     
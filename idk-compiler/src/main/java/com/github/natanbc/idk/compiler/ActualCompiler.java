@@ -1,6 +1,7 @@
 package com.github.natanbc.idk.compiler;
 
 import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.common.UnaryOperationType;
 import com.github.natanbc.idk.ir.IrNode;
 import com.github.natanbc.idk.ir.IrVisitor;
 import com.github.natanbc.idk.ir.misc.*;
@@ -26,12 +27,27 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
     private static final MethodType EXTERNAL_TYPE = MethodType.methodType(Value.class, ExecutionContext.class);
     private static final MethodType BASE_TYPE = MethodType.methodType(Value.class, FunctionState.class);
     
-    private static final ActualCompiler INSTANCE = new ActualCompiler();
+    private static final ActualCompiler INSTANCE = new ActualCompiler(LocalTypes.none());
+    
+    //types of the locals of the function being compiled, a new compiler is
+    //used for every function body
+    private final LocalTypes types;
+    
+    private ActualCompiler(LocalTypes types) {
+        this.types = types;
+    }
     
     static ActualCompiler instance() {
         return INSTANCE;
     }
     
+    //(FunctionState)Value running the body of the function on a state created for a call to it
+    static MethodHandle functionBody(IrFunction node) {
+        return node.getBody().accept(new ActualCompiler(
+                LocalTypes.analyze(node.getBody(), node.getLocalsCount(), node.getArgumentCount(), node.getCapturedLocals())
+        ));
+    }
+    
     @Override
     public MethodHandle visitRoot(IrRoot node) {
         return Binder.from(EXTERNAL_TYPE)
@@ -39,7 +55,7 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 .fold(Intrinsics.GET_GLOBALS_MAP)
                 //-> [state, map, context]
                 .fold(Binder.from(methodType(FunctionState.class, Map.class))
-                        .insert(1, node.getLocalsCount())
+                        .insert(1, new Class<?>[]{int.class, int[].class}, node.getLocalsCount(), node.getCapturedLocals())
                         .invoke(Intrinsics.FUNCTION_STATE_FROM_MAP)
                 )
                 //-> [state]
@@ -47,7 +63,9 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 // catch(ReturnException e) { return e.getValue(); }
                 .catchException(ReturnException.class, Intrinsics.GET_RETURN_FROM_EXCEPTION)
                 //-> [result]
-                .invoke(node.getBody().accept(this));
+                .invoke(node.getBody().accept(new ActualCompiler(
+                        LocalTypes.analyze(node.getBody(), node.getLocalsCount(), 0, node.getCapturedLocals())
+                )));
     }
     
     @Override
@@ -128,7 +146,7 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                     .fold(v)
                     //-> [object, key, value, state]
                     .permute(2, 3, 0, 1)
-                    .foldVoid(Intrinsics.SET.asType(methodType(Value.class, ObjectValue.class, Value.class, Value.class)))
+                    .foldVoid(memberSet().asType(methodType(Value.class, ObjectValue.class, Value.class, Value.class)))
                     //-> [state, object]
                     .permute(3, 0);
         }
@@ -141,6 +159,9 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
     
     @Override
     public MethodHandle visitUnaryOperation(IrUnaryOperation node) {
+        if(types.typeOf(node).isNumeric()) {
+            return box(node);
+        }
         return base()
                 //-> [target, state]
                 .fold(node.getTarget().accept(this))
@@ -175,6 +196,15 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 );
             }
         }
+        if(types.typeOf(node).isNumeric()) {
+            return box(node);
+        }
+        if(isPrimitiveComparison(node)) {
+            return MethodHandles.filterReturnValue(
+                    condition(node),
+                    Intrinsics.NEW_BOOLEAN.asType(methodType(Value.class, boolean.class))
+            );
+        }
         return base()
                 //-> [lhs, state]
                 .fold(node.getLhs().accept(this))
@@ -185,7 +215,7 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 //-> [lhs, rhs]
                 .permute(2, 0)
                 //-> [result]
-                .invoke(Intrinsics.BINARY_OPERATIONS.get(node.getType()));
+                .invoke(new BinaryOperationSite(node.getType()).dynamicInvoker());
     }
     
     @Override
@@ -225,22 +255,28 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
     
     @Override
     public MethodHandle visitLocal(IrLocal node) {
+        if(types.typeOf(node).isNumeric()) {
+            return box(node);
+        }
         return base().insert(1, node.getIndex()).invoke(Intrinsics.GET_LOCAL);
     }
     
     @Override
     public MethodHandle visitUpvalue(IrUpvalue node) {
-        return base().insert(1, node.getLevel(), node.getIndex()).invoke(Intrinsics.GET_UPVALUE);
+        return base().insert(1, node.getIndex()).invoke(Intrinsics.GET_UPVALUE);
     }
     
     @Override
     public MethodHandle visitGlobal(IrGlobal node) {
-        return base().insert(1, node.getName()).invoke(Intrinsics.GET_GLOBAL);
+        return MethodHandles.insertArguments(Intrinsics.GLOBAL_SITE_GET, 0, new GlobalSite(node.getName()));
     }
     
     @Override
     public MethodHandle visitAssign(IrAssign node) {
         var target = node.getTarget();
+        if(types.typeOf(node).isNumeric()) {
+            return box(node);
+        }
         var value = node.getValue().accept(this);
         if(target instanceof IrLocal) {
             return base()
@@ -257,22 +293,20 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
             return base()
                     //-> [value, state]
                     .fold(value)
-                    //-> [level, index, value, state]
-                    .insert(0, up.getLevel(), up.getIndex())
-                    //-> [state, level, index, value]
-                    .permute(3, 0, 1, 2)
+                    //-> [index, value, state]
+                    .insert(0, up.getIndex())
+                    //-> [state, index, value]
+                    .permute(2, 0, 1)
                     //-> [value]
                     .invoke(Intrinsics.SET_UPVALUE);
         } else if(target instanceof IrGlobal) {
             return base()
                     //-> [value, state]
                     .fold(value)
-                    //-> [name, value, state]
-                    .insert(0, ((IrGlobal) target).getName())
-                    //-> [state, name, value]
-                    .permute(2, 0, 1)
+                    //-> [state, value]
+                    .permute(1, 0)
                     //-> [value]
-                    .invoke(Intrinsics.SET_GLOBAL);
+                    .invoke(MethodHandles.insertArguments(Intrinsics.GLOBAL_SITE_SET, 0, new GlobalSite(((IrGlobal) target).getName())));
         } else if(target instanceof IrMember) {
             var m = (IrMember)target;
             var t = m.getTarget().accept(this);
@@ -291,7 +325,7 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                     //-> [target, key, value]
                     .permute(2, 3, 0)
                     //-> [value]
-                    .invoke(Intrinsics.SET);
+                    .invoke(memberSet());
         } else {
             return doThrow(TypeError.class, "Can't assign to " + target);
         }
@@ -309,18 +343,29 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 //-> [target, key]
                 .permute(2, 0)
                 //-> [value]
-                .invoke(Intrinsics.GET);
+                .invoke(memberGet());
     }
     
     @Override
     public MethodHandle visitBody(IrBody node) {
+        if(exits(node)) {
+            return exitingBody(node.getChildren());
+        }
         var b = base()
                 //-> [nil, state]
                 .fold(constant(NilValue.instance()));
-        for(var c : node.getChildren()) {
-            //-> [value of c, state]
-            //    replaces last value
-            b = b.drop(0).fold(c.accept(this));
+        var children = node.getChildren();
+        for(var i = 0; i < children.size(); i++) {
+            var c = children.get(i);
+            if(i < children.size() - 1) {
+                //-> [last value, state]
+                //    only the last child's value is used
+                b = b.foldVoid(MethodHandles.dropArguments(statement(c), 0, Value.class));
+            } else {
+                //-> [value of c, state]
+                //    replaces last value
+                b = b.drop(0).fold(c.accept(this));
+            }
         }
         return b
                 //-> [value]
@@ -349,36 +394,17 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                         .insert(0, arguments)
                         .invoker()
                 )
-                //-> [function, state, args]
-                .permute(2, 1, 0)
-                .cast(methodType(Value.class, Function.class, ExecutionContext.class, Value[].class))
+                //-> [function, args]
+                .permute(2, 0)
+                .cast(methodType(Value.class, Function.class, Value[].class))
                 //-> [result]
                 .invoke(Intrinsics.FUNCTION_CALL);
     }
     
     @Override
     public MethodHandle visitFunction(IrFunction node) {
-        var code = Binder.from(methodType(Value.class, FunctionState.class, Value[].class))
-                //-> [state, parent, args]
-                .fold(Binder.from(FunctionState.class, FunctionState.class)
-                        //-> [parent, locals count]
-                        .append(node.getLocalsCount())
-                        //-> [state, parent, locals count]
-                        .fold(Intrinsics.FUNCTION_STATE_FROM_PARENT)
-                        //-> [state]
-                        .drop(1, 2)
-                        .identity()
-                )
-                //-> [state, args]
-                .drop(1)
-                //-> [state, args]
-                .foldVoid(MethodHandles.insertArguments(
-                        Intrinsics.FILL_LOCALS_FROM_ARGS,
-                        2, node.getArgumentCount(), node.isVarargs()
-                ))
-                //-> [state]
-                .drop(1)
-                .invoke(node.getBody().accept(this));
+        //FunctionImpl creates the state, with the cells captured when the function was created
+        var code = functionBody(node);
     
         List<StringValue> annotationList = new ArrayList<>();
         for(String annotation : node.getAnnotations()) {
@@ -386,20 +412,18 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
         }
         
         return base()
-                //-> [state, name]
-                .append(String.class, node.getName()) //name may be null so getting the type fails
-                //-> [state, name, annotations, code]
-                .append(annotationList, code)
-                //-> [name, annotations, code, state]
+                //-> [state, node, annotations, code]
+                .append(node, annotationList, code)
+                //-> [node, annotations, code, state]
                 .permute(1, 2, 3, 0)
-                .cast(methodType(Value.class, String.class, List.class, MethodHandle.class, FunctionState.class))
+                .cast(methodType(Value.class, IrFunction.class, List.class, MethodHandle.class, FunctionState.class))
                 .invoke(Intrinsics.NEW_FUNCTION);
     }
     
     @Override
     public MethodHandle visitIf(IrIf node) {
         return MethodHandles.guardWithTest(
-                makePredicate(node.getCondition().accept(this)),
+                condition(node.getCondition()),
                 node.getIfBody().accept(this),
                 node.getElseBody().accept(this)
         );
@@ -407,35 +431,270 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
     
     @Override
     public MethodHandle visitWhile(IrWhile node) {
-        var cond = makePredicate(node.getCondition().accept(this));
-        var body = node.getBody().accept(this);
-        var elseBody = node.getElseBody().accept(this);
+        return whileLoop(node, node.getBody().accept(this), node.getElseBody().accept(this));
+    }
+    
+    @Override
+    public MethodHandle visitFor(IrFor node) {
+        return forLoop(node, node.getBody().accept(this), node.getElseBody().accept(this));
+    }
+    
+    @Override
+    public MethodHandle visitReturn(IrReturn node) {
+        if(node.isStructured()) {
+            //unwound by the enclosing bodies and loops, see exits
+            return base()
+                    //-> [value, state]
+                    .fold(node.getValue().accept(this))
+                    //-> [state, value]
+                    .permute(1, 0)
+                    //-> [value]
+                    .invoke(Intrinsics.RETURN_VALUE);
+        }
+        return base()
+                //-> [value, state]
+                .fold(node.getValue().accept(this))
+                //-> [return, value, state]
+                .fold(Intrinsics.NEW_RETURN_EXCEPTION)
+                //-> [return]
+                .drop(1, 2)
+                .invoke(MethodHandles.throwException(Value.class, ReturnException.class));
+    }
+    
+    @Override
+    public MethodHandle visitThrow(IrThrow node) {
+        return base()
+                //-> [value, state]
+                .fold(node.getValue().accept(this))
+                //-> [error, value, state]
+                .fold(Intrinsics.NEW_THROWN_ERROR)
+                //-> [error]
+                .drop(1, 2)
+                .invoke(MethodHandles.throwException(Value.class, ThrownError.class));
+    }
+    
+    //compiles a node whose value isn't used, returns (FunctionState)void.
+    //avoids boxing the results of numeric assignments and loop bodies.
+    //the node must not contain structured returns, since nothing checks
+    //whether the function is returning after it runs
+    private MethodHandle statement(IrNode node) {
+        if(node instanceof IrBody) {
+            MethodHandle result = MethodHandles.empty(methodType(void.class, FunctionState.class));
+            for(var c : ((IrBody) node).getChildren()) {
+                result = MethodHandles.foldArguments(statement(c), result);
+            }
+            return result;
+        } else if(node instanceof IrAssign && types.typeOf(node).isNumeric()) {
+            return dropReturn(types.typeOf(node) == LocalTypes.Type.LONG ? compileLong(node) : compileDouble(node));
+        } else if(node instanceof IrIf) {
+            var i = (IrIf)node;
+            return MethodHandles.guardWithTest(
+                    condition(i.getCondition()),
+                    statement(i.getIfBody()),
+                    statement(i.getElseBody())
+            );
+        } else if(node instanceof IrWhile) {
+            var w = (IrWhile)node;
+            return dropReturn(whileLoop(w, nilAfter(statement(w.getBody())), nilAfter(statement(w.getElseBody()))));
+        } else if(node instanceof IrFor) {
+            var f = (IrFor)node;
+            return dropReturn(forLoop(f, nilAfter(statement(f.getBody())), nilAfter(statement(f.getElseBody()))));
+        }
+        return dropReturn(node.accept(this));
+    }
+    
+    //(FunctionState)long for nodes whose type is LONG
+    private MethodHandle compileLong(IrNode node) {
+        if(node instanceof IrLong) {
+            return MethodHandles.dropArguments(
+                    MethodHandles.constant(long.class, ((IrLong) node).getValue()),
+                    0, FunctionState.class
+            );
+        } else if(node instanceof IrLocal) {
+            return MethodHandles.insertArguments(Intrinsics.GET_LONG_LOCAL, 1, ((IrLocal) node).getIndex());
+        } else if(node instanceof IrAssign) {
+            return storePrimitive((IrAssign)node, long.class, compileLong(((IrAssign) node).getValue()), Intrinsics.SET_LONG_LOCAL);
+        } else if(node instanceof IrUnaryOperation) {
+            var u = (IrUnaryOperation)node;
+            return MethodHandles.filterReturnValue(compileLong(u.getTarget()), PrimitiveOperations.find(u.getType(), long.class));
+        } else if(node instanceof IrBinaryOperation) {
+            var b = (IrBinaryOperation)node;
+            return combine(long.class, compileLong(b.getLhs()), compileLong(b.getRhs()), PrimitiveOperations.find(b.getType(), long.class));
+        }
+        throw new IllegalStateException("Not a long node: " + node);
+    }
+    
+    //(FunctionState)double for nodes whose type is DOUBLE or LONG
+    private MethodHandle compileDouble(IrNode node) {
+        if(types.typeOf(node) == LocalTypes.Type.LONG) {
+            return compileLong(node).asType(methodType(double.class, FunctionState.class));
+        }
+        if(node instanceof IrDouble) {
+            return MethodHandles.dropArguments(
+                    MethodHandles.constant(double.class, ((IrDouble) node).getValue()),
+                    0, FunctionState.class
+            );
+        } else if(node instanceof IrLocal) {
+            return MethodHandles.insertArguments(Intrinsics.GET_DOUBLE_LOCAL, 1, ((IrLocal) node).getIndex());
+        } else if(node instanceof IrAssign) {
+            return storePrimitive((IrAssign)node, double.class, compileDouble(((IrAssign) node).getValue()), Intrinsics.SET_DOUBLE_LOCAL);
+        } else if(node instanceof IrUnaryOperation) {
+            var u = (IrUnaryOperation)node;
+            return MethodHandles.filterReturnValue(compileDouble(u.getTarget()), PrimitiveOperations.find(u.getType(), double.class));
+        } else if(node instanceof IrBinaryOperation) {
+            var b = (IrBinaryOperation)node;
+            return combine(double.class, compileDouble(b.getLhs()), compileDouble(b.getRhs()), PrimitiveOperations.find(b.getType(), double.class));
+        }
+        throw new IllegalStateException("Not a double node: " + node);
+    }
+    
+    //(FunctionState)boolean
+    private MethodHandle condition(IrNode node) {
+        if(node instanceof IrBoolean) {
+            return MethodHandles.dropArguments(
+                    MethodHandles.constant(boolean.class, ((IrBoolean) node).getValue()),
+                    0, FunctionState.class
+            );
+        }
+        if(isPrimitiveComparison(node)) {
+            var b = (IrBinaryOperation)node;
+            if(types.typeOf(b.getLhs()) == LocalTypes.Type.LONG && types.typeOf(b.getRhs()) == LocalTypes.Type.LONG) {
+                return combine(boolean.class, compileLong(b.getLhs()), compileLong(b.getRhs()), PrimitiveOperations.find(b.getType(), long.class));
+            }
+            //mixed comparisons are done as doubles, like LongValue does
+            return combine(boolean.class, compileDouble(b.getLhs()), compileDouble(b.getRhs()), PrimitiveOperations.find(b.getType(), double.class));
+        }
+        return makePredicate(node.accept(this));
+    }
+    
+    private boolean isPrimitiveComparison(IrNode node) {
+        if(!(node instanceof IrBinaryOperation)) {
+            return false;
+        }
+        var b = (IrBinaryOperation)node;
+        return PrimitiveOperations.isComparison(b.getType())
+                && types.typeOf(b.getLhs()).isNumeric()
+                && types.typeOf(b.getRhs()).isNumeric();
+    }
+    
+    //boxes the result of a node with a numeric type
+    private MethodHandle box(IrNode node) {
+        if(types.typeOf(node) == LocalTypes.Type.LONG) {
+            return MethodHandles.filterReturnValue(compileLong(node), Intrinsics.NEW_LONG.asType(methodType(Value.class, long.class)));
+        } else {
+            return MethodHandles.filterReturnValue(compileDouble(node), Intrinsics.NEW_DOUBLE.asType(methodType(Value.class, double.class)));
+        }
+    }
+    
+    private static MethodHandle storePrimitive(IrAssign node, Class<?> type, MethodHandle value, MethodHandle setter) {
+        return Binder.from(methodType(type, FunctionState.class))
+                //-> [value, state]
+                .fold(value)
+                //-> [index, value, state]
+                .insert(0, ((IrLocal) node.getTarget()).getIndex())
+                //-> [state, index, value]
+                .permute(2, 0, 1)
+                //-> [value]
+                .invoke(setter);
+    }
+    
+    //evaluates lhs then rhs and applies operation to the results
+    private static MethodHandle combine(Class<?> result, MethodHandle lhs, MethodHandle rhs, MethodHandle operation) {
+        return Binder.from(methodType(result, FunctionState.class))
+                //-> [lhs, state]
+                .fold(lhs)
+                //-> [state, lhs]
+                .permute(1, 0)
+                //-> [rhs, state, lhs]
+                .fold(rhs)
+                //-> [lhs, rhs]
+                .permute(2, 0)
+                //-> [result]
+                .invoke(operation);
+    }
+    
+    private static MethodHandle dropReturn(MethodHandle handle) {
+        return handle.asType(handle.type().changeReturnType(void.class));
+    }
+    
+    //(FunctionState)void -> (FunctionState)Value returning nil
+    private static MethodHandle nilAfter(MethodHandle statement) {
+        return MethodHandles.filterReturnValue(statement, MethodHandles.constant(Value.class, NilValue.instance()));
+    }
+    
+    //whether the node has structured returns unwinding through it. those can only be
+    //nested in bodies, if branches and loop bodies
+    private static boolean exits(IrNode node) {
+        if(node instanceof IrReturn) {
+            return ((IrReturn) node).isStructured();
+        } else if(node instanceof IrBody) {
+            return ((IrBody) node).getChildren().stream().anyMatch(ActualCompiler::exits);
+        } else if(node instanceof IrIf) {
+            return exits(((IrIf) node).getIfBody()) || exits(((IrIf) node).getElseBody());
+        } else if(node instanceof IrWhile) {
+            return exits(((IrWhile) node).getBody()) || exits(((IrWhile) node).getElseBody());
+        } else if(node instanceof IrFor) {
+            return exits(((IrFor) node).getBody()) || exits(((IrFor) node).getElseBody());
+        }
+        return false;
+    }
+    
+    //body with structured returns, skips the remaining children once one of them returned
+    private MethodHandle exitingBody(List<IrNode> children) {
+        var last = children.size() - 1;
+        var rest = children.get(last).accept(this);
+        for(var i = last - 1; i >= 0; i--) {
+            var c = children.get(i);
+            if(exits(c)) {
+                rest = base()
+                        //-> [value of c, state]
+                        .fold(c.accept(this))
+                        //-> [value of c or rest]
+                        .invoke(MethodHandles.guardWithTest(
+                                MethodHandles.dropArguments(Intrinsics.IS_RETURNING, 0, Value.class),
+                                MethodHandles.dropArguments(MethodHandles.identity(Value.class), 1, FunctionState.class),
+                                MethodHandles.dropArguments(rest, 0, Value.class)
+                        ));
+            } else {
+                rest = MethodHandles.foldArguments(rest, statement(c));
+            }
+        }
+        return rest;
+    }
+    
+    private MethodHandle whileLoop(IrWhile node, MethodHandle body, MethodHandle elseBody) {
+        var cond = condition(node.getCondition());
+        var again = cond;
+        if(exits(node.getBody())) {
+            again = MethodHandles.guardWithTest(
+                    Intrinsics.IS_RETURNING,
+                    MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, FunctionState.class),
+                    cond
+            );
+        }
         return MethodHandles.guardWithTest(
                 cond,
                 MethodHandles.doWhileLoop(
                         constant(NilValue.instance()),
                         MethodHandles.dropArguments(body, 0, Value.class),
-                        MethodHandles.dropArguments(cond, 0, Value.class)
+                        MethodHandles.dropArguments(again, 0, Value.class)
                 ),
                 elseBody
         );
     }
     
-    @Override
-    public MethodHandle visitFor(IrFor node) {
+    private MethodHandle forLoop(IrFor node, MethodHandle body, MethodHandle elseBody) {
         var value = node.getValue().accept(this);
-        var body = node.getBody().accept(this);
-        var elseBody = node.getElseBody().accept(this);
         return base()
                 .fold(value)
                 .invoke(
                         MethodHandles.guardWithTest(
                                 Intrinsics.IS_RANGE,
                                 //ranges are always closed on both ends so the else body never runs
-                                forRange(node.getVariableIndex(), body),
+                                forRange(node.getVariableIndex(), types.localType(node.getVariableIndex()) == LocalTypes.Type.LONG, body, exits(node.getBody())),
                                 MethodHandles.guardWithTest(
                                         Intrinsics.IS_ARRAY,
-                                        forArray(node.getVariableIndex(), body, elseBody),
+                                        forArray(node.getVariableIndex(), body, elseBody, exits(node.getBody())),
                                         Binder.from(methodType(Value.class, Value.class, FunctionState.class))
                                                 //-> [type, value, state]
                                                 .fold(Intrinsics.TYPE)
@@ -457,31 +716,26 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 );
     }
     
-    @Override
-    public MethodHandle visitReturn(IrReturn node) {
-        return base()
-                //-> [value, state]
-                .fold(node.getValue().accept(this))
-                //-> [return, value, state]
-                .fold(Intrinsics.NEW_RETURN_EXCEPTION)
-                //-> [return]
-                .drop(1, 2)
-                .invoke(MethodHandles.throwException(Value.class, ReturnException.class));
-    }
-    
-    @Override
-    public MethodHandle visitThrow(IrThrow node) {
-        return base()
-                //-> [value, state]
-                .fold(node.getValue().accept(this))
-                //-> [error, value, state]
-                .fold(Intrinsics.NEW_THROWN_ERROR)
-                //-> [error]
-                .drop(1, 2)
-                .invoke(MethodHandles.throwException(Value.class, ThrownError.class));
-    }
-    
-    private static MethodHandle forRange(int localIdx, MethodHandle body) {
+    //exits: whether the body has structured returns, which stop the loop
+    private static MethodHandle forRange(int localIdx, boolean unboxed, MethodHandle body, boolean exits) {
+        var store = unboxed
+                ? Binder.from(long.class, long.class, FunctionState.class)
+                        //-> [state, i]
+                        .permute(1, 0)
+                        //-> [state, i, localIdx]
+                        .append(localIdx)
+                        //-> [state, idx, i]
+                        .permute(0, 2, 1)
+                        .invoke(Intrinsics.SET_LONG_LOCAL)
+                : Binder.from(Value.class, long.class, FunctionState.class)
+                        //-> [long, i, state]
+                        .fold(Intrinsics.NEW_LONG)
+                        //-> [long, i, state, localIdx]
+                        .append(localIdx)
+                        //-> [state, idx, long]
+                        .permute(2, 3, 0)
+                        .cast(methodType(Value.class, FunctionState.class, int.class, Value.class))
+                        .invoke(Intrinsics.SET_LOCAL);
         var loop = MethodHandles.loop(
                 new MethodHandle[] {
                         Binder.from(methodType(long.class, RangeValue.class, FunctionState.class))
@@ -514,19 +768,18 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                         Binder.from(methodType(Value.class, long.class, Value.class, long.class, RangeValue.class, FunctionState.class))
                                 //-> [i, state]
                                 .permute(2, 4)
-                                .foldVoid(Binder.from(Value.class, long.class, FunctionState.class)
-                                        //-> [long, i, state]
-                                        .fold(Intrinsics.NEW_LONG)
-                                        //-> [long, i, state, localIdx]
-                                        .append(localIdx)
-                                        //-> [state, idx, long]
-                                        .permute(2, 3, 0)
-                                        .cast(methodType(Value.class, FunctionState.class, int.class, Value.class))
-                                        .invoke(Intrinsics.SET_LOCAL)
-                                )
+                                .foldVoid(store)
                                 .drop(0)
                                 //-> [value]
-                                .invoke(body)
+                                .invoke(body),
+                        !exits ? null : Binder.from(methodType(boolean.class, long.class, Value.class, long.class, RangeValue.class, FunctionState.class))
+                                //-> [state]
+                                .permute(4)
+                                .invoke(Intrinsics.NOT_RETURNING),
+                        !exits ? null : Binder.from(methodType(Value.class, long.class, Value.class, long.class, RangeValue.class, FunctionState.class))
+                                //-> [value]
+                                .permute(1)
+                                .identity()
                 },
                 new MethodHandle[] {
                         Binder.from(methodType(long.class, RangeValue.class, FunctionState.class))
@@ -553,35 +806,62 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 .invoke(loop);
     }
     
-    private static MethodHandle forArray(int localIdx, MethodHandle body, MethodHandle elseBody) {
-        var loop = MethodHandles.countedLoop(
-                Binder.from(methodType(int.class, long.class, ArrayValue.class, FunctionState.class))
-                        //-> [size]
-                        .drop(1, 2)
-                        .cast(methodType(int.class, long.class))
-                        .identity(),
-                Binder.from(methodType(Value.class, long.class, ArrayValue.class, FunctionState.class))
-                        .dropAll()
-                        .constant(NilValue.instance()),
-                Binder.from(methodType(Value.class, Value.class, int.class, long.class, ArrayValue.class, FunctionState.class))
-                        //-> [array, index, state]
-                        .permute(3, 1, 4)
-                        //-> [value, array, index, state]
-                        .fold(Intrinsics.ARRAY_RAW_GET)
-                        //-> [state, value]
-                        .permute(3, 0)
-                        .foldVoid(Binder.from(methodType(Value.class, FunctionState.class, Value.class))
-                                //-> [state, value, index]
-                                .append(localIdx)
-                                //-> [state, index, value]
-                                .permute(0, 2, 1)
+    //exits: whether the body has structured returns, which stop the loop
+    private static MethodHandle forArray(int localIdx, MethodHandle body, MethodHandle elseBody, boolean exits) {
+        //-> [index, last value] (size, array, state)
+        var loop = MethodHandles.loop(
+                new MethodHandle[] {
+                        //starts before the first element, incremented before every iteration
+                        Binder.from(methodType(int.class, long.class, ArrayValue.class, FunctionState.class))
+                                .dropAll()
+                                .constant(-1),
+                        Binder.from(methodType(int.class, int.class, Value.class, long.class, ArrayValue.class, FunctionState.class))
+                                //-> [index]
+                                .permute(0)
+                                //-> [index + 1]
+                                .invoke(Intrinsics.INCREMENT_INT),
+                        Binder.from(methodType(boolean.class, int.class, Value.class, long.class, ArrayValue.class, FunctionState.class))
+                                //-> [index, size]
+                                .permute(0, 2)
+                                .cast(methodType(boolean.class, long.class, long.class))
+                                .invoke(Intrinsics.LONGS_DIFFER),
+                        Binder.from(methodType(Value.class, int.class, Value.class, long.class, ArrayValue.class, FunctionState.class))
                                 //-> [value]
-                                .invoke(Intrinsics.SET_LOCAL)
-                        )
-                        //-> [state]
-                        .drop(1)
-                        //-> [value]
-                        .invoke(body)
+                                .permute(1)
+                                .identity()
+                },
+                new MethodHandle[] {
+                        Binder.from(methodType(Value.class, long.class, ArrayValue.class, FunctionState.class))
+                                .dropAll()
+                                .constant(NilValue.instance()),
+                        Binder.from(methodType(Value.class, int.class, Value.class, long.class, ArrayValue.class, FunctionState.class))
+                                //-> [array, index, state]
+                                .permute(3, 0, 4)
+                                //-> [value, array, index, state]
+                                .fold(Intrinsics.ARRAY_RAW_GET)
+                                //-> [state, value]
+                                .permute(3, 0)
+                                .foldVoid(Binder.from(methodType(Value.class, FunctionState.class, Value.class))
+                                        //-> [state, value, index]
+                                        .append(localIdx)
+                                        //-> [state, index, value]
+                                        .permute(0, 2, 1)
+                                        //-> [value]
+                                        .invoke(Intrinsics.SET_LOCAL)
+                                )
+                                //-> [state]
+                                .drop(1)
+                                //-> [value]
+                                .invoke(body),
+                        !exits ? null : Binder.from(methodType(boolean.class, int.class, Value.class, long.class, ArrayValue.class, FunctionState.class))
+                                //-> [state]
+                                .permute(4)
+                                .invoke(Intrinsics.NOT_RETURNING),
+                        !exits ? null : Binder.from(methodType(Value.class, int.class, Value.class, long.class, ArrayValue.class, FunctionState.class))
+                                //-> [value]
+                                .permute(1)
+                                .identity()
+                }
         );
         
         return Binder.from(methodType(Value.class, Value.class, FunctionState.class))
@@ -647,6 +927,16 @@ class ActualCompiler implements IrVisitor<MethodHandle> {
                 .identity();
     }
     
+    //(target, key)value with a new inline cache for the site
+    private static MethodHandle memberGet() {
+        return MethodHandles.insertArguments(Intrinsics.MEMBER_CACHE_GET, 0, new MemberCache());
+    }
+    
+    //(target, key, value)value with a new inline cache for the site
+    private static MethodHandle memberSet() {
+        return MethodHandles.insertArguments(Intrinsics.MEMBER_CACHE_SET, 0, new MemberCache());
+    }
+    
     private static MethodHandle constant(Value value) {
         return base().drop(0).invoke(MethodHandles.constant(Value.class, value));
     }
@@ -0,0 +1,104 @@
+package com.github.natanbc.idk.compiler;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.Value;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+import static java.lang.invoke.MethodType.methodType;
+
+//call site for a single binary operation. the first call links a fast path
+//for the operand types seen (long x long or double x double), working on
+//primitives and guarded by a type check. any guard failure, or other types
+//on the first call, relinks the site to the generic Value method for good.
+class BinaryOperationSite extends MutableCallSite {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType TYPE = methodType(Value.class, Value.class, Value.class);
+    
+    private static final MethodHandle INITIALIZE = find("initialize");
+    private static final MethodHandle MISS = find("miss");
+    
+    private static final MethodHandle BOTH_LONGS = findStatic("bothLongs", methodType(boolean.class, Value.class, Value.class));
+    private static final MethodHandle BOTH_DOUBLES = findStatic("bothDoubles", methodType(boolean.class, Value.class, Value.class));
+    
+    private static final MethodHandle UNBOX_LONG = Intrinsics.LONG_VALUE.asType(methodType(long.class, Value.class));
+    private static final MethodHandle UNBOX_DOUBLE = Intrinsics.DOUBLE_VALUE.asType(methodType(double.class, Value.class));
+    private static final MethodHandle BOX_LONG = Intrinsics.NEW_LONG.asType(methodType(Value.class, long.class));
+    private static final MethodHandle BOX_DOUBLE = Intrinsics.NEW_DOUBLE.asType(methodType(Value.class, double.class));
+    private static final MethodHandle BOX_BOOLEAN = Intrinsics.NEW_BOOLEAN.asType(methodType(Value.class, boolean.class));
+    
+    private final BinaryOperationType type;
+    private final MethodHandle generic;
+    
+    BinaryOperationSite(BinaryOperationType type) {
+        super(TYPE);
+        this.type = type;
+        this.generic = Intrinsics.BINARY_OPERATIONS.get(type);
+        if(generic == null) {
+            throw new IllegalArgumentException("No generic implementation for " + type);
+        }
+        setTarget(INITIALIZE.bindTo(this));
+    }
+    
+    private Value initialize(Value lhs, Value rhs) throws Throwable {
+        MethodHandle fast = null;
+        MethodHandle test = null;
+        if(bothLongs(lhs, rhs)) {
+            fast = specialize(long.class, UNBOX_LONG, BOX_LONG);
+            test = BOTH_LONGS;
+        } else if(bothDoubles(lhs, rhs)) {
+            fast = specialize(double.class, UNBOX_DOUBLE, BOX_DOUBLE);
+            test = BOTH_DOUBLES;
+        }
+        if(fast == null) {
+            setTarget(generic);
+        } else {
+            setTarget(MethodHandles.guardWithTest(test, fast, MISS.bindTo(this)));
+        }
+        return (Value)getTarget().invokeExact(lhs, rhs);
+    }
+    
+    private Value miss(Value lhs, Value rhs) throws Throwable {
+        setTarget(generic);
+        return (Value)generic.invokeExact(lhs, rhs);
+    }
+    
+    private MethodHandle specialize(Class<?> primitive, MethodHandle unbox, MethodHandle box) {
+        if(!PrimitiveOperations.isArithmetic(type) && !PrimitiveOperations.isComparison(type)) {
+            return null;
+        }
+        return MethodHandles.filterReturnValue(
+                MethodHandles.filterArguments(PrimitiveOperations.find(type, primitive), 0, unbox, unbox),
+                PrimitiveOperations.isComparison(type) ? BOX_BOOLEAN : box
+        );
+    }
+    
+    private static boolean bothLongs(Value lhs, Value rhs) {
+        return lhs instanceof LongValue && rhs instanceof LongValue;
+    }
+    
+    private static boolean bothDoubles(Value lhs, Value rhs) {
+        return lhs instanceof DoubleValue && rhs instanceof DoubleValue;
+    }
+    
+    private static MethodHandle find(String name) {
+        try {
+            return LOOKUP.findVirtual(BinaryOperationSite.class, name, TYPE);
+        } catch(Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    private static MethodHandle findStatic(String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(BinaryOperationSite.class, name, type);
+        } catch(Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.natanbc.idk.compiler;
 
+import com.github.natanbc.idk.ir.IrNode;
 import com.github.natanbc.idk.ir.IrVisitor;
 import com.github.natanbc.idk.ir.misc.*;
 import com.github.natanbc.idk.ir.operation.IrBinaryOperation;
@@ -16,6 +17,20 @@ public class Compiler implements IrVisitor<MethodHandle> {
         return INSTANCE;
     }
     
+    //compiles only the body of a function, for engines creating the function
+    //state themselves. the handle takes the state of the call (with the
+    //arguments already stored) and might throw a ReturnException
+    public MethodHandle compileBody(IrFunction node) {
+        return ActualCompiler.functionBody(node);
+    }
+    
+    //compiles part of a function body, to run on the state of a call that's
+    //already running. locals are always kept boxed, since their values are
+    //already in the state and whatever runs next expects them there
+    public MethodHandle compileContinuation(IrNode node) {
+        return node.accept(ActualCompiler.instance());
+    }
+    
     @Override
     public MethodHandle visitRoot(IrRoot node) {
         return node.accept(ActualCompiler.instance());
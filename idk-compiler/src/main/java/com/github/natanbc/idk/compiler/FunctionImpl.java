@@ -1,9 +1,11 @@
 package com.github.natanbc.idk.compiler;
 
-import com.github.natanbc.idk.runtime.ExecutionContext;
+import com.github.natanbc.idk.ir.misc.IrFunction;
 import com.github.natanbc.idk.runtime.Function;
+import com.github.natanbc.idk.runtime.GlobalTable;
 import com.github.natanbc.idk.runtime.StringValue;
 import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.Cell;
 import com.github.natanbc.idk.runtime.internal.FunctionState;
 import com.github.natanbc.idk.runtime.internal.ReturnException;
 
@@ -11,19 +13,25 @@ import java.lang.invoke.MethodHandle;
 import java.util.List;
 
 class FunctionImpl extends Function {
+    private final IrFunction node;
     private final MethodHandle target;
-    private final FunctionState state;
+    private final GlobalTable globals;
+    private final Cell[] upvalues;
     
-    FunctionImpl(String name, List<StringValue> annotationList, MethodHandle target, FunctionState state) {
-        super(name, annotationList);
+    FunctionImpl(IrFunction node, List<StringValue> annotationList, MethodHandle target, FunctionState creator) {
+        super(node.getName(), annotationList);
+        this.node = node;
         this.target = target;
-        this.state = state;
+        this.globals = creator.getGlobals();
+        this.upvalues = creator.closure(node.getUpvalues());
     }
     
     @Override
     public Value call(Value[] args) {
+        var state = new FunctionState(globals, node.getLocalsCount(), node.getCapturedLocals(), upvalues);
+        state.fillFromArgs(args, node.getArgumentCount(), node.isVarargs());
         try {
-            return (Value)target.invoke(state, args);
+            return (Value)target.invokeExact(state);
         } catch(ReturnException e) {
             return e.getValue();
         } catch(Throwable t) {
@@ -0,0 +1,45 @@
+package com.github.natanbc.idk.compiler;
+
+import com.github.natanbc.idk.runtime.GlobalTable;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//access to a global from compiled code. compiled code isn't tied to a context,
+//so the name is resolved against the table of the state running it, and only
+//resolved again when it runs with another table.
+class GlobalSite {
+    private final String name;
+    private Link link;
+    
+    GlobalSite(String name) {
+        this.name = name;
+    }
+    
+    Value get(FunctionState state) {
+        return state.getGlobal(slot(state));
+    }
+    
+    Value set(FunctionState state, Value value) {
+        return state.setGlobal(slot(state), value);
+    }
+    
+    private int slot(FunctionState state) {
+        var globals = state.getGlobals();
+        var link = this.link;
+        if(link == null || link.globals != globals) {
+            link = this.link = new Link(globals, globals.slot(name));
+        }
+        return link.slot;
+    }
+    
+    //replaced as a whole, so a thread never sees a slot paired with the wrong table
+    private static class Link {
+        private final GlobalTable globals;
+        private final int slot;
+        
+        Link(GlobalTable globals, int slot) {
+            this.globals = globals;
+            this.slot = slot;
+        }
+    }
+}
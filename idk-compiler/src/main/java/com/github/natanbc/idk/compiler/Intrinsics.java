@@ -2,6 +2,7 @@ package com.github.natanbc.idk.compiler;
 
 import com.github.natanbc.idk.common.BinaryOperationType;
 import com.github.natanbc.idk.common.UnaryOperationType;
+import com.github.natanbc.idk.ir.misc.IrFunction;
 import com.github.natanbc.idk.runtime.*;
 import com.github.natanbc.idk.runtime.internal.FunctionState;
 import com.github.natanbc.idk.runtime.internal.ReturnException;
@@ -21,23 +22,29 @@ public class Intrinsics {
     public static final MethodHandle GET_GLOBALS_MAP = find(ExecutionContext.class, "getGlobals", methodType(Map.class));
     
     //not public because FunctionState is an internal class
-    static final MethodHandle FUNCTION_STATE_FROM_MAP = findFunctionStateConstructor(methodType(Map.class, int.class));
-    static final MethodHandle FUNCTION_STATE_FROM_PARENT = findFunctionStateConstructor(methodType(FunctionState.class, int.class));
-    static final MethodHandle FILL_LOCALS_FROM_ARGS = find(FunctionState.class, "fillFromArgs", methodType(void.class, Value[].class, int.class, boolean.class));
+    static final MethodHandle FUNCTION_STATE_FROM_MAP = findFunctionStateConstructor(methodType(Map.class, int.class, int[].class));
     
     static final MethodHandle GET_LOCAL = find(FunctionState.class, "getLocal", methodType(Value.class, int.class));
     static final MethodHandle SET_LOCAL = find(FunctionState.class, "setLocal", methodType(Value.class, int.class, Value.class));
     
-    static final MethodHandle GET_UPVALUE = find(FunctionState.class, "getUpvalue", methodType(Value.class, int.class, int.class));
-    static final MethodHandle SET_UPVALUE = find(FunctionState.class, "setUpvalue", methodType(Value.class, int.class, int.class, Value.class));
+    static final MethodHandle GET_LONG_LOCAL = find(FunctionState.class, "getLongLocal", methodType(long.class, int.class));
+    static final MethodHandle SET_LONG_LOCAL = find(FunctionState.class, "setLongLocal", methodType(long.class, int.class, long.class));
+    static final MethodHandle GET_DOUBLE_LOCAL = find(FunctionState.class, "getDoubleLocal", methodType(double.class, int.class));
+    static final MethodHandle SET_DOUBLE_LOCAL = find(FunctionState.class, "setDoubleLocal", methodType(double.class, int.class, double.class));
     
-    static final MethodHandle GET_GLOBAL = find(FunctionState.class, "getGlobal", methodType(Value.class, String.class));
-    static final MethodHandle SET_GLOBAL = find(FunctionState.class, "setGlobal", methodType(Value.class, String.class, Value.class));
+    static final MethodHandle GET_UPVALUE = find(FunctionState.class, "getUpvalue", methodType(Value.class, int.class));
+    static final MethodHandle SET_UPVALUE = find(FunctionState.class, "setUpvalue", methodType(Value.class, int.class, Value.class));
+    
+    static final MethodHandle GLOBAL_SITE_GET = find(GlobalSite.class, "get", methodType(Value.class, FunctionState.class));
+    static final MethodHandle GLOBAL_SITE_SET = find(GlobalSite.class, "set", methodType(Value.class, FunctionState.class, Value.class));
     
     static final MethodHandle NEW_RETURN_EXCEPTION = findConstructor(ReturnException.class, methodType(Value.class));
     static final MethodHandle GET_RETURN_FROM_EXCEPTION = find(ReturnException.class, "getValue", methodType(Value.class));
+    static final MethodHandle RETURN_VALUE = find(FunctionState.class, "returnValue", methodType(Value.class, Value.class));
+    static final MethodHandle IS_RETURNING = find(FunctionState.class, "isReturning", methodType(boolean.class));
+    static final MethodHandle NOT_RETURNING = findStatic(Intrinsics.class, "notReturning", methodType(boolean.class, FunctionState.class));
     
-    static final MethodHandle NEW_FUNCTION = findConstructor(FunctionImpl.class, methodType(String.class, List.class, MethodHandle.class, FunctionState.class));
+    static final MethodHandle NEW_FUNCTION = findConstructor(FunctionImpl.class, methodType(IrFunction.class, List.class, MethodHandle.class, FunctionState.class));
     
     public static final MethodHandle TYPE = valueMethod("type", methodType(String.class));
     
@@ -62,6 +69,9 @@ public class Intrinsics {
     public static final MethodHandle SIZE = valueMethod("size", methodType(long.class));
     public static final MethodHandle KEYS = valueMethod("keys", methodType(ArrayValue.class));
     
+    public static final MethodHandle MEMBER_CACHE_GET = find(MemberCache.class, "get", methodType(Value.class, Value.class, Value.class));
+    public static final MethodHandle MEMBER_CACHE_SET = find(MemberCache.class, "set", methodType(Value.class, Value.class, Value.class, Value.class));
+    
     public static final MethodHandle IS_ARRAY = typeCheck("Array");
     public static final MethodHandle AS_ARRAY = typeConversion(ArrayValue.class, "Array");
     public static final MethodHandle NEW_ARRAY_FROM_VALUES = findConstructor(ArrayValue.class, methodType(Value[].class));
@@ -72,14 +82,16 @@ public class Intrinsics {
     public static final MethodHandle IS_BOOLEAN = typeCheck("Boolean");
     public static final MethodHandle AS_BOOLEAN = typeConversion(BooleanValue.class, "Boolean");
     public static final MethodHandle BOOLEAN_VALUE = valueGetter(BooleanValue.class, boolean.class);
+    public static final MethodHandle NEW_BOOLEAN = findStatic(BooleanValue.class, "of", methodType(BooleanValue.class, boolean.class));
     
     public static final MethodHandle IS_DOUBLE = typeCheck("Double");
     public static final MethodHandle AS_DOUBLE = typeConversion(DoubleValue.class, "Double");
     public static final MethodHandle DOUBLE_VALUE = valueGetter(DoubleValue.class, double.class);
+    public static final MethodHandle NEW_DOUBLE = findStatic(DoubleValue.class, "of", methodType(DoubleValue.class, double.class));
     
     public static final MethodHandle IS_FUNCTION = typeCheck("Function");
     public static final MethodHandle AS_FUNCTION = typeConversion(Function.class, "Function");
-    public static final MethodHandle FUNCTION_CALL = find(Function.class, "call", methodType(Value.class, ExecutionContext.class, Value[].class));
+    public static final MethodHandle FUNCTION_CALL = find(Function.class, "call", methodType(Value.class, Value[].class));
     
     public static final MethodHandle IS_LONG = typeCheck("Long");
     public static final MethodHandle AS_LONG = typeConversion(LongValue.class, "Long");
@@ -109,6 +121,7 @@ public class Intrinsics {
     public static final MethodHandle LONGS_DIFFER = findStatic(Intrinsics.class, "longsDiffer", methodType(boolean.class, long.class, long.class));
     public static final MethodHandle RANGE_ITERATION_END = findStatic(Intrinsics.class, "end", methodType(long.class, long.class, long.class));
     public static final MethodHandle ADD_LONGS = findStatic(Intrinsics.class, "add", methodType(long.class, long.class, long.class));
+    public static final MethodHandle INCREMENT_INT = findStatic(Intrinsics.class, "increment", methodType(int.class, int.class));
     
     public static final MethodHandle STRING_CONCAT = find(String.class, "concat", methodType(String.class, String.class));
     
@@ -211,4 +224,12 @@ public class Intrinsics {
     private static long add(long a, long b) {
         return a + b;
     }
+    
+    private static int increment(int i) {
+        return i + 1;
+    }
+    
+    private static boolean notReturning(FunctionState state) {
+        return !state.isReturning();
+    }
 }
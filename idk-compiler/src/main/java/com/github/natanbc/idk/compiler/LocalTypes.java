@@ -0,0 +1,347 @@
+package com.github.natanbc.idk.compiler;
+
+import com.github.natanbc.idk.common.UnaryOperationType;
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.IrVisitor;
+import com.github.natanbc.idk.ir.misc.*;
+import com.github.natanbc.idk.ir.operation.IrBinaryOperation;
+import com.github.natanbc.idk.ir.operation.IrUnaryOperation;
+import com.github.natanbc.idk.ir.value.*;
+import com.github.natanbc.idk.ir.variable.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//infers which locals of a function only ever hold longs or only ever hold doubles,
+//so the compiler can keep them unboxed.
+//
+//a local is only considered if
+// - it isn't an argument
+// - it isn't accessed by inner functions
+// - its first use is an assignment (or range for) that runs before anything else
+//   that touches it, so it's never read as the initial nil
+class LocalTypes {
+    private static final LocalTypes NONE = new LocalTypes(new Type[0]);
+    
+    private final Type[] types;
+    
+    private LocalTypes(Type[] types) {
+        this.types = types;
+    }
+    
+    static LocalTypes none() {
+        return NONE;
+    }
+    
+    static LocalTypes analyze(IrNode body, int localsCount, int argumentCount, int[] capturedLocals) {
+        var scanner = new Scanner(localsCount);
+        for(var i : capturedLocals) {
+            scanner.captured[i] = true;
+        }
+        scanner.statement(body);
+        
+        var types = new Type[localsCount];
+        for(var i = 0; i < localsCount; i++) {
+            var eligible = i >= argumentCount && scanner.state[i] == Scanner.DEFINITE && !scanner.captured[i];
+            types[i] = eligible ? Type.UNKNOWN : Type.ANY;
+        }
+        var result = new LocalTypes(types);
+        boolean changed;
+        do {
+            changed = false;
+            for(var a : scanner.assignments) {
+                var old = types[a.local];
+                var t = old.join(a.value == null ? Type.LONG : result.typeOf(a.value));
+                if(t != old) {
+                    types[a.local] = t;
+                    changed = true;
+                }
+            }
+        } while(changed);
+        for(var i = 0; i < localsCount; i++) {
+            if(types[i] == Type.UNKNOWN) {
+                types[i] = Type.ANY;
+            }
+        }
+        return result;
+    }
+    
+    Type localType(int index) {
+        return index < types.length ? types[index] : Type.ANY;
+    }
+    
+    Type typeOf(IrNode node) {
+        if(node instanceof IrLong) {
+            return Type.LONG;
+        } else if(node instanceof IrDouble) {
+            return Type.DOUBLE;
+        } else if(node instanceof IrLocal) {
+            return localType(((IrLocal) node).getIndex());
+        } else if(node instanceof IrAssign) {
+            //typed locals only get values of their type assigned
+            var target = ((IrAssign) node).getTarget();
+            return target instanceof IrLocal ? localType(((IrLocal) target).getIndex()) : Type.ANY;
+        } else if(node instanceof IrUnaryOperation) {
+            var u = (IrUnaryOperation)node;
+            return u.getType() == UnaryOperationType.NEG ? typeOf(u.getTarget()).arithmetic(Type.LONG) : Type.ANY;
+        } else if(node instanceof IrBinaryOperation) {
+            var b = (IrBinaryOperation)node;
+            if(!PrimitiveOperations.isArithmetic(b.getType())) {
+                return Type.ANY;
+            }
+            return typeOf(b.getLhs()).arithmetic(typeOf(b.getRhs()));
+        }
+        return Type.ANY;
+    }
+    
+    enum Type {
+        //no assignment seen yet
+        UNKNOWN,
+        LONG,
+        DOUBLE,
+        ANY;
+        
+        boolean isNumeric() {
+            return this == LONG || this == DOUBLE;
+        }
+        
+        Type join(Type other) {
+            if(this == UNKNOWN) return other;
+            if(other == UNKNOWN || other == this) return this;
+            return ANY;
+        }
+        
+        //result of an arithmetic operation with these operand types
+        Type arithmetic(Type other) {
+            if(this == ANY || other == ANY) return ANY;
+            if(this == UNKNOWN || other == UNKNOWN) return UNKNOWN;
+            if(this == LONG && other == LONG) return LONG;
+            return DOUBLE;
+        }
+    }
+    
+    private static class Assignment {
+        final int local;
+        //null for range for loop variables
+        final IrNode value;
+        
+        Assignment(int local, IrNode value) {
+            this.local = local;
+            this.value = value;
+        }
+    }
+    
+    private static class Scanner implements IrVisitor<Void> {
+        static final int UNUSED = 0;
+        static final int DEFINITE = 1;
+        static final int MAYBE_NIL = 2;
+        
+        final int[] state;
+        final boolean[] captured;
+        final List<Assignment> assignments = new ArrayList<>();
+        
+        Scanner(int localsCount) {
+            state = new int[localsCount];
+            captured = new boolean[localsCount];
+        }
+        
+        //visits a node that always runs, in order, before the nodes visited after it
+        void statement(IrNode node) {
+            if(node instanceof IrBody) {
+                ((IrBody) node).getChildren().forEach(this::statement);
+            } else if(node instanceof IrAssign && ((IrAssign) node).getTarget() instanceof IrLocal) {
+                var a = (IrAssign)node;
+                a.getValue().accept(this);
+                var idx = ((IrLocal) a.getTarget()).getIndex();
+                if(state[idx] == UNUSED) {
+                    state[idx] = DEFINITE;
+                }
+                assignments.add(new Assignment(idx, a.getValue()));
+            } else if(node instanceof IrFor && ((IrFor) node).getValue() instanceof IrRange) {
+                //ranges are closed on both ends, so the body always runs at least once
+                var f = (IrFor)node;
+                f.getValue().accept(this);
+                if(state[f.getVariableIndex()] == UNUSED) {
+                    state[f.getVariableIndex()] = DEFINITE;
+                }
+                assignments.add(new Assignment(f.getVariableIndex(), null));
+                f.getBody().accept(this);
+                f.getElseBody().accept(this);
+            } else {
+                node.accept(this);
+            }
+        }
+        
+        private void use(int idx) {
+            if(state[idx] == UNUSED) {
+                state[idx] = MAYBE_NIL;
+            }
+        }
+        
+        @Override
+        public Void visitRoot(IrRoot node) {
+            throw new UnsupportedOperationException("Multiple root nodes");
+        }
+        
+        @Override
+        public Void visitBoolean(IrBoolean node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitDouble(IrDouble node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitLong(IrLong node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitNil(IrNil node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitString(IrString node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitArrayLiteral(IrArrayLiteral node) {
+            node.getValues().forEach(n -> n.accept(this));
+            return null;
+        }
+        
+        @Override
+        public Void visitObjectLiteral(IrObjectLiteral node) {
+            node.getEntries().forEach(e -> {
+                e.getKey().accept(this);
+                e.getValue().accept(this);
+            });
+            return null;
+        }
+        
+        @Override
+        public Void visitUnaryOperation(IrUnaryOperation node) {
+            node.getTarget().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitBinaryOperation(IrBinaryOperation node) {
+            node.getLhs().accept(this);
+            node.getRhs().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitRange(IrRange node) {
+            node.getFrom().accept(this);
+            node.getTo().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitLocal(IrLocal node) {
+            use(node.getIndex());
+            return null;
+        }
+        
+        @Override
+        public Void visitUpvalue(IrUpvalue node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitGlobal(IrGlobal node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitAssign(IrAssign node) {
+            node.getValue().accept(this);
+            if(node.getTarget() instanceof IrMember) {
+                node.getTarget().accept(this);
+            } else if(node.getTarget() instanceof IrLocal) {
+                var idx = ((IrLocal) node.getTarget()).getIndex();
+                use(idx);
+                assignments.add(new Assignment(idx, node.getValue()));
+            } else {
+                node.getTarget().accept(this);
+            }
+            return null;
+        }
+        
+        @Override
+        public Void visitMember(IrMember node) {
+            node.getTarget().accept(this);
+            node.getKey().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitBody(IrBody node) {
+            node.getChildren().forEach(n -> n.accept(this));
+            return null;
+        }
+        
+        @Override
+        public Void visitCall(IrCall node) {
+            node.getTarget().accept(this);
+            node.getArguments().forEach(n -> n.accept(this));
+            return null;
+        }
+        
+        //nested functions only reach locals of this one through cells, and
+        //captured locals are never unboxed
+        @Override
+        public Void visitFunction(IrFunction node) {
+            return null;
+        }
+        
+        @Override
+        public Void visitIf(IrIf node) {
+            node.getCondition().accept(this);
+            node.getIfBody().accept(this);
+            node.getElseBody().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitWhile(IrWhile node) {
+            node.getCondition().accept(this);
+            node.getBody().accept(this);
+            node.getElseBody().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitFor(IrFor node) {
+            node.getValue().accept(this);
+            use(node.getVariableIndex());
+            //only range loops are compiled with an unboxed counter
+            if(node.getValue() instanceof IrRange) {
+                assignments.add(new Assignment(node.getVariableIndex(), null));
+            } else {
+                assignments.add(new Assignment(node.getVariableIndex(), new IrNil()));
+            }
+            node.getBody().accept(this);
+            node.getElseBody().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitReturn(IrReturn node) {
+            node.getValue().accept(this);
+            return null;
+        }
+        
+        @Override
+        public Void visitThrow(IrThrow node) {
+            node.getValue().accept(this);
+            return null;
+        }
+    }
+}
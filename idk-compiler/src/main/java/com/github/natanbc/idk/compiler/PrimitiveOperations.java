@@ -0,0 +1,173 @@
+package com.github.natanbc.idk.compiler;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.common.UnaryOperationType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static java.lang.invoke.MethodType.methodType;
+
+//operations on unboxed longs and doubles, used when the operand types are known
+final class PrimitiveOperations {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    
+    private PrimitiveOperations() {}
+    
+    static boolean isArithmetic(BinaryOperationType type) {
+        return switch(type) {
+            case ADD, SUB, MUL, DIV, MOD, POW -> true;
+            default -> false;
+        };
+    }
+    
+    static boolean isComparison(BinaryOperationType type) {
+        return switch(type) {
+            case EQ, NEQ, GREATER, GREATER_EQ, SMALLER, SMALLER_EQ -> true;
+            default -> false;
+        };
+    }
+    
+    //(primitive, primitive)primitive for arithmetic, (primitive, primitive)boolean for comparisons
+    static MethodHandle find(BinaryOperationType type, Class<?> primitive) {
+        var name = switch(type) {
+            case ADD -> "add";
+            case SUB -> "sub";
+            case MUL -> "mul";
+            case DIV -> "div";
+            case MOD -> "mod";
+            case POW -> "pow";
+            case EQ -> "eq";
+            case NEQ -> "neq";
+            case GREATER -> "greater";
+            case GREATER_EQ -> "greaterEq";
+            case SMALLER -> "smaller";
+            case SMALLER_EQ -> "smallerEq";
+            default -> throw new IllegalArgumentException("No primitive implementation for " + type);
+        };
+        var result = isComparison(type) ? boolean.class : primitive;
+        return findStatic(name, methodType(result, primitive, primitive));
+    }
+    
+    //(primitive)primitive
+    static MethodHandle find(UnaryOperationType type, Class<?> primitive) {
+        if(type != UnaryOperationType.NEG) {
+            throw new IllegalArgumentException("No primitive implementation for " + type);
+        }
+        return findStatic("neg", methodType(primitive, primitive));
+    }
+    
+    //these must match the semantics of LongValue and DoubleValue
+    static long add(long a, long b) {
+        return a + b;
+    }
+    
+    static long sub(long a, long b) {
+        return a - b;
+    }
+    
+    static long mul(long a, long b) {
+        return a * b;
+    }
+    
+    static long div(long a, long b) {
+        return a / b;
+    }
+    
+    static long mod(long a, long b) {
+        return a % b;
+    }
+    
+    static long pow(long a, long b) {
+        return (long)Math.pow(a, b);
+    }
+    
+    static boolean eq(long a, long b) {
+        return a == b;
+    }
+    
+    static boolean neq(long a, long b) {
+        return a != b;
+    }
+    
+    static boolean greater(long a, long b) {
+        return a > b;
+    }
+    
+    static boolean greaterEq(long a, long b) {
+        return a >= b;
+    }
+    
+    static boolean smaller(long a, long b) {
+        return a < b;
+    }
+    
+    static boolean smallerEq(long a, long b) {
+        return a <= b;
+    }
+    
+    static double add(double a, double b) {
+        return a + b;
+    }
+    
+    static double sub(double a, double b) {
+        return a - b;
+    }
+    
+    static double mul(double a, double b) {
+        return a * b;
+    }
+    
+    static double div(double a, double b) {
+        return a / b;
+    }
+    
+    static double mod(double a, double b) {
+        return a % b;
+    }
+    
+    static double pow(double a, double b) {
+        return Math.pow(a, b);
+    }
+    
+    static boolean eq(double a, double b) {
+        return a == b;
+    }
+    
+    static boolean neq(double a, double b) {
+        return a != b;
+    }
+    
+    static boolean greater(double a, double b) {
+        return a > b;
+    }
+    
+    static boolean greaterEq(double a, double b) {
+        return a >= b;
+    }
+    
+    static boolean smaller(double a, double b) {
+        return a < b;
+    }
+    
+    static boolean smallerEq(double a, double b) {
+        return a <= b;
+    }
+    
+    static long neg(long a) {
+        return -a;
+    }
+    
+    static double neg(double a) {
+        return -a;
+    }
+    
+    private static MethodHandle findStatic(String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(PrimitiveOperations.class, name, type);
+        } catch(Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -1,278 +1,807 @@
 package com.github.natanbc.idk.interpreter;
 
-import com.github.natanbc.idk.bytecode.BytecodeConstants;
 import com.github.natanbc.idk.bytecode.BytecodeReader;
-import com.github.natanbc.idk.bytecode.ConditionType;
 import com.github.natanbc.idk.bytecode.FunctionReader;
-import com.github.natanbc.idk.bytecode.Opcode;
 import com.github.natanbc.idk.bytecode.ValueType;
-import com.github.natanbc.idk.common.BinaryOperationType;
-import com.github.natanbc.idk.common.UnaryOperationType;
+import com.github.natanbc.idk.bytecode.convert.IrMapping;
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.misc.IrFunction;
 import com.github.natanbc.idk.runtime.ArrayValue;
 import com.github.natanbc.idk.runtime.BooleanValue;
 import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.GlobalTable;
 import com.github.natanbc.idk.runtime.ExecutionContext;
 import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.MemberCache;
 import com.github.natanbc.idk.runtime.NilValue;
 import com.github.natanbc.idk.runtime.ObjectValue;
 import com.github.natanbc.idk.runtime.RangeValue;
 import com.github.natanbc.idk.runtime.StringValue;
+import com.github.natanbc.idk.runtime.ThrownError;
 import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.Cell;
 import com.github.natanbc.idk.runtime.internal.FunctionState;
+import com.github.natanbc.idk.runtime.internal.ReturnException;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.function.BinaryOperator;
-import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import static com.github.natanbc.idk.interpreter.Instructions.*;
+
 public class BytecodeInterpreter {
-    private static final Map<UnaryOperationType, UnaryOperator<Value>> UNARY_OPERATORS = Map.of(
-            UnaryOperationType.NEG, Value::neg,
-            UnaryOperationType.NEGATE, Value::negate
-    );
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+    //calls of a function before it gets compiled, if the ir is available
+    private static final int CALL_THRESHOLD = 500;
+    //backwards jumps taken inside a function before it gets compiled
+    private static final int BACK_EDGE_THRESHOLD = 20000;
+    //iterations of a loop before the running call switches to compiled code for it
+    private static final int LOOP_THRESHOLD = 5000;
+    private static final MethodHandle INTERPRET;
     
-    private static final Map<BinaryOperationType, BinaryOperator<Value>> BINARY_OPERATORS = Map.ofEntries(
-            Map.entry(BinaryOperationType.ADD, Value::add),
-            Map.entry(BinaryOperationType.SUB, Value::sub),
-            Map.entry(BinaryOperationType.MUL, Value::mul),
-            Map.entry(BinaryOperationType.DIV, Value::div),
-            Map.entry(BinaryOperationType.MOD, Value::mod),
-            Map.entry(BinaryOperationType.POW, Value::pow),
-            Map.entry(BinaryOperationType.EQ, Value::eq),
-            Map.entry(BinaryOperationType.NEQ, Value::neq),
-            Map.entry(BinaryOperationType.GREATER, Value::greater),
-            Map.entry(BinaryOperationType.GREATER_EQ, Value::greaterEq),
-            Map.entry(BinaryOperationType.SMALLER, Value::smaller),
-            Map.entry(BinaryOperationType.SMALLER_EQ, Value::smallerEq)
-    );
+    static {
+        try {
+            INTERPRET = MethodHandles.lookup().findStatic(BytecodeInterpreter.class, "interpret",
+                    MethodType.methodType(Value.class, BytecodeInterpreter.class, Function.class, FunctionState.class));
+        } catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
     
     private final BytecodeReader reader;
-    private final Map<String, Value> globals;
+    private final Value[] constants;
+    private final GlobalTable globals;
     private final Function[] functions;
     private final Function entrypoint;
+    //ir the code was converted from, null if it's always interpreted
+    private final IrMapping ir;
+    //compiles hot code, null if it's always interpreted
+    private final HotCodeCompiler compiler;
     
     public BytecodeInterpreter(byte[] code, Map<String, Value> globals) {
+        this(ByteBuffer.wrap(code), globals);
+    }
+    
+    //the buffer is read in place, and may be a mapped file
+    public BytecodeInterpreter(ByteBuffer code, Map<String, Value> globals) {
+        this(code, globals, null, null);
+    }
+    
+    BytecodeInterpreter(ByteBuffer code, Map<String, Value> globals, IrMapping ir, HotCodeCompiler compiler) {
+        this.ir = ir;
+        this.compiler = compiler;
         this.reader = new BytecodeReader(code);
-        this.globals = globals;
-        this.functions = new Function[reader.functionCount()];
-        for(var i = 0; i < functions.length; i++) {
-            var fn = new Function(reader.readFunction());
-            functions[fn.metadata.id() & 0xFFFF] = fn;
+        if(reader.registers()) {
+            throw new IllegalArgumentException("Register code, use RegisterInterpreter");
         }
-        this.entrypoint = functions[reader.entrypoint() & 0xFFFF];
+        this.constants = new Value[reader.constantCount()];
+        for(var i = 0; i < constants.length; i++) {
+            var c = reader.constant((short)i);
+            if(c instanceof Long) {
+                constants[i] = LongValue.of((Long)c);
+            } else if(c instanceof Double) {
+                constants[i] = DoubleValue.of((Double)c);
+            } else {
+                constants[i] = StringValue.of((String)c);
+            }
+        }
+        this.globals = GlobalTable.of(globals);
+        this.functions = new Function[reader.functionCount()];
+        this.entrypoint = function(reader.entrypoint() & 0xFFFF);
     }
     
     public Value run() {
-        var f = new FunctionInterpreter(this, entrypoint, new FunctionState(globals, entrypoint.metadata.localsCount()));
-        while(!f.isDone()) {
-            f.step();
-        }
-        if(f.stack.isEmpty()) {
-            return NilValue.instance();
-        } else {
-            return f.stack.pop();
-        }
+        return new FunctionInterpreter(this, entrypoint, new FunctionState(globals, entrypoint.metadata.localsCount(), entrypoint.capturedLocals)).execute();
+    }
+    
+    //handle running a function of the code, taking the state of the call (with
+    //the arguments already stored). used by engines that can't run some
+    //functions themselves
+    public MethodHandle functionBody(int id) {
+        return MethodHandles.insertArguments(INTERPRET, 0, this, function(id));
+    }
+    
+    private static Value interpret(BytecodeInterpreter interpreter, Function function, FunctionState state) {
+        return new FunctionInterpreter(interpreter, function, state).execute();
     }
     
     private static class FunctionInterpreter {
-        private final ArrayDeque<Value> stack = new ArrayDeque<>();
         private final BytecodeInterpreter interpreter;
         private final Function function;
         private final FunctionState state;
-        private int ip = 0;
         
-        FunctionInterpreter(BytecodeInterpreter interpreter, Function function, FunctionState parent) {
+        FunctionInterpreter(BytecodeInterpreter interpreter, Function function, FunctionState state) {
             this.interpreter = interpreter;
             this.function = function;
-            this.state = new FunctionState(parent, function.metadata.localsCount());
+            this.state = state;
         }
         
-        boolean isDone() {
-            return ip >= function.code.capacity();
+        Value execute() {
+            var valueStack = ValueStack.current();
+            var mark = valueStack.mark();
+            try {
+                return execute(valueStack);
+            } finally {
+                valueStack.exit(mark);
+            }
         }
         
-        void step() {
-            if(isDone()) {
-                throw new IllegalStateException("Out of bounds execution");
-            }
-            var startIP = ip;
-            var op = Opcode.fromValue(u8());
-            switch(op) {
-                case CONSTANT_NIL -> stack.push(NilValue.instance());
-                case CONSTANT_BOOLEAN -> stack.push(BooleanValue.of(u8() != 0));
-                case CONSTANT_LONG -> stack.push(LongValue.of(
-                        interpreter.reader.constantLong(s16())
-                ));
-                case CONSTANT_DOUBLE -> stack.push(DoubleValue.of(
-                        interpreter.reader.constantDouble(s16())
-                ));
-                case CONSTANT_STRING -> stack.push(StringValue.of(
-                        interpreter.reader.constantString(s16())
-                ));
-                case CREATE_ARRAY -> {
-                    var arr = new Value[u16()];
-                    for(var idx = arr.length - 1; idx >= 0; idx--) {
-                        arr[idx] = stack.pop();
-                    }
-                    stack.push(new ArrayValue(arr));
-                }
-                case CREATE_OBJECT -> {
-                    var obj = new ObjectValue();
-                    var n = u16();
-                    for(var i = 0; i < n; i++) {
-                        var v = stack.pop();
-                        var k = stack.pop();
-                        obj.set(k, v);
-                    }
-                    stack.push(obj);
-                }
-                case CREATE_RANGE -> {
-                    var to = stack.pop();
-                    var from = stack.pop();
-                    stack.push(RangeValue.of(from.asLong().getValue(), to.asLong().getValue()));
-                }
-                case LOAD_LOCAL -> stack.push(state.getLocal(u16()));
-                case STORE_LOCAL -> state.setLocal(u16(), stack.pop());
-                case LOAD_UPVALUE -> stack.push(state.getUpvalue(u16(), u16()));
-                case STORE_UPVALUE -> state.setUpvalue(u16(), u16(), stack.pop());
-                case LOAD_GLOBAL -> stack.push(state.getGlobal(
-                        interpreter.reader.constantString(s16())
-                ));
-                case STORE_GLOBAL -> state.setGlobal(
-                        interpreter.reader.constantString(s16()),
-                        stack.pop()
-                );
-                case LOAD_MEMBER -> {
-                    var k = stack.pop();
-                    var m = stack.pop();
-                    stack.push(m.get(k));
-                }
-                case STORE_MEMBER -> {
-                    var v = stack.pop();
-                    var k = stack.pop();
-                    var m = stack.pop();
-                    m.set(k, v);
-                }
-                case CALL -> {
-                    var argc = u16();
-                    var args = new Value[argc];
-                    for(var i = argc - 1; i >= 0; i--) {
-                        args[i] = stack.pop();
-                    }
-                    stack.push(stack.pop().asFunction().call(args));
-                }
-                case RETURN -> ip = function.code.capacity();
-                case BINARY_OPERATION -> {
-                    /* short circuiting operators are handled by the compiler */
-                    var type = BytecodeConstants.binaryOp(u8());
-                    var rhs = stack.pop();
-                    var lhs = stack.pop();
-                    var operator = BINARY_OPERATORS.get(type);
-                    if(operator != null) {
-                        stack.push(operator.apply(lhs, rhs));
-                        return;
-                    }
-                    throw new UnsupportedOperationException("Unimplemented operator " + type);
-                }
-                case UNARY_OPERATION -> {
-                    var type = BytecodeConstants.unaryOp(u8());
-                    var v = stack.pop();
-                    var operator = UNARY_OPERATORS.get(type);
-                    if(operator != null) {
-                        stack.push(operator.apply(v));
-                        return;
-                    }
-                    throw new UnsupportedOperationException("Unimplemented operator " + type);
-                }
-                case JUMP -> ip = u16();
-                case JUMP_IF -> {
-                    var cond = ConditionType.type(u8());
-                    var pos = u16();
-                    var v = stack.pop().asBoolean().getValue();
-                    if(v == (cond == ConditionType.IF_TRUE)) {
-                        ip = pos;
-                    }
-                }
-                case LOAD_FUNCTION -> {
-                    var m = interpreter.functions[u16()];
-                    var annotations = m.metadata.annotations()
-                            .stream().map(StringValue::of).collect(Collectors.toList());
-                    var fn = new com.github.natanbc.idk.runtime.Function(m.metadata.name(), annotations) {
-                        @Override
-                        public Value call(Value[] args) {
-                            var fnInt = new FunctionInterpreter(interpreter, m, state);
-                            fnInt.state.fillFromArgs(args, m.metadata.argumentCount(), m.metadata.varargs());
-                            while(!fnInt.isDone()) {
-                                fnInt.step();
+        //calls of functions of the same interpreter push a frame and continue in
+        //this loop instead of recursing, so script recursion depth isn't limited
+        //by the java stack. the variables below belong to the running frame
+        private Value execute(ValueStack valueStack) {
+            var interpreter = this.interpreter;
+            var constants = interpreter.constants;
+            var function = this.function;
+            var code = function.code;
+            var memberCaches = function.memberCaches;
+            var state = this.state;
+            var base = valueStack.enter(function.metadata.maxStackSize());
+            var stack = valueStack.values();
+            var sp = base;
+            var ip = 0;
+            //callers of the running frame, frames[depth - 1] being the innermost one
+            var frames = new Frame[8];
+            var depth = 0;
+            while(true) {
+                Value result = null;
+                dispatch:
+                while(ip < code.length) {
+                    switch(code[ip++]) {
+                        case CONSTANT_NIL -> stack[sp++] = NilValue.instance();
+                        case CONSTANT_TRUE -> stack[sp++] = BooleanValue.of(true);
+                        case CONSTANT_FALSE -> stack[sp++] = BooleanValue.of(false);
+                        case CONSTANT -> stack[sp++] = constants[code[ip++]];
+                        case CREATE_ARRAY -> {
+                            var arr = new Value[code[ip++]];
+                            for(var idx = arr.length - 1; idx >= 0; idx--) {
+                                arr[idx] = stack[--sp];
                             }
-                            if(fnInt.stack.isEmpty()) {
-                                return NilValue.instance();
+                            stack[sp++] = new ArrayValue(arr);
+                        }
+                        case CREATE_OBJECT -> {
+                            var obj = new ObjectValue();
+                            //insert in source order, so literals get the same shape as in other engines
+                            var start = sp - 2 * code[ip++];
+                            for(var i = start; i < sp; i += 2) {
+                                obj.set(stack[i], stack[i + 1]);
+                            }
+                            sp = start;
+                            stack[sp++] = obj;
+                        }
+                        case CREATE_RANGE -> {
+                            var to = stack[--sp];
+                            var from = stack[--sp];
+                            stack[sp++] = RangeValue.of(from.asLong().getValue(), to.asLong().getValue());
+                        }
+                        case LOAD_LOCAL -> stack[sp++] = state.getLocal(code[ip++]);
+                        case STORE_LOCAL -> state.setLocal(code[ip++], stack[--sp]);
+                        case LOAD_UPVALUE -> stack[sp++] = state.getUpvalue(code[ip++]);
+                        case STORE_UPVALUE -> state.setUpvalue(code[ip++], stack[--sp]);
+                        case LOAD_GLOBAL -> stack[sp++] = state.getGlobal(code[ip++]);
+                        case STORE_GLOBAL -> state.setGlobal(code[ip++], stack[--sp]);
+                        case LOAD_MEMBER -> {
+                            var k = stack[--sp];
+                            var m = stack[--sp];
+                            stack[sp++] = memberCaches[code[ip++]].get(m, k);
+                        }
+                        case STORE_MEMBER -> {
+                            var v = stack[--sp];
+                            var k = stack[--sp];
+                            var m = stack[--sp];
+                            memberCaches[code[ip++]].set(m, k, v);
+                        }
+                        case CALL -> {
+                            var argc = code[ip++];
+                            var args = new Value[argc];
+                            for(var i = argc - 1; i >= 0; i--) {
+                                args[i] = stack[--sp];
+                            }
+                            var target = stack[sp - 1];
+                            if(!(target instanceof Closure) || ((Closure)target).interpreter != interpreter) {
+                                stack[sp - 1] = target.asFunction().call(args);
+                                continue;
+                            }
+                            var closure = (Closure)target;
+                            var callee = closure.function;
+                            var calleeState = closure.state(args);
+                            var compiled = callee.compiled();
+                            if(compiled != null) {
+                                stack[sp - 1] = invokeCompiled(compiled, calleeState);
+                                continue;
+                            }
+                            if(depth == frames.length) {
+                                frames = Arrays.copyOf(frames, depth * 2);
+                            }
+                            var frame = frames[depth];
+                            if(frame == null) {
+                                frame = frames[depth] = new Frame();
+                            }
+                            depth++;
+                            //the result replaces the target at stack[sp - 1] when the callee returns
+                            frame.save(function, state, stack, base, sp, ip, valueStack.mark());
+                            function = callee;
+                            code = callee.code;
+                            memberCaches = callee.memberCaches;
+                            state = calleeState;
+                            base = valueStack.enter(callee.metadata.maxStackSize());
+                            stack = valueStack.values();
+                            sp = base;
+                            ip = 0;
+                        }
+                        case RETURN -> ip = code.length;
+                        case ADD -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(ADD, lhs, rhs);
+                            stack[sp - 1] = lhs.add(rhs);
+                        }
+                        case SUB -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(SUB, lhs, rhs);
+                            stack[sp - 1] = lhs.sub(rhs);
+                        }
+                        case MUL -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(MUL, lhs, rhs);
+                            stack[sp - 1] = lhs.mul(rhs);
+                        }
+                        case DIV -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(DIV, lhs, rhs);
+                            stack[sp - 1] = lhs.div(rhs);
+                        }
+                        case MOD -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(MOD, lhs, rhs);
+                            stack[sp - 1] = lhs.mod(rhs);
+                        }
+                        case POW -> {
+                            var rhs = stack[--sp];
+                            stack[sp - 1] = stack[sp - 1].pow(rhs);
+                        }
+                        case EQ -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(EQ, lhs, rhs);
+                            stack[sp - 1] = lhs.eq(rhs);
+                        }
+                        case NEQ -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(NEQ, lhs, rhs);
+                            stack[sp - 1] = lhs.neq(rhs);
+                        }
+                        case GREATER -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(GREATER, lhs, rhs);
+                            stack[sp - 1] = lhs.greater(rhs);
+                        }
+                        case GREATER_EQ -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(GREATER_EQ, lhs, rhs);
+                            stack[sp - 1] = lhs.greaterEq(rhs);
+                        }
+                        case SMALLER -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(SMALLER, lhs, rhs);
+                            stack[sp - 1] = lhs.smaller(rhs);
+                        }
+                        case SMALLER_EQ -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            code[ip - 1] = quicken(SMALLER_EQ, lhs, rhs);
+                            stack[sp - 1] = lhs.smallerEq(rhs);
+                        }
+                        /* the compiler only reaches these after short circuiting failed */
+                        case AND, OR -> {
+                            var rhs = stack[--sp];
+                            stack[sp - 1] = rhs.asBoolean();
+                        }
+                        case NEG -> stack[sp - 1] = stack[sp - 1].neg();
+                        case NEGATE -> stack[sp - 1] = stack[sp - 1].negate();
+                        case JUMP -> {
+                            var target = code[ip];
+                            if(target < ip) {
+                                function.backEdges++;
+                                var loop = function.loops == null ? null : function.loops[ip - 1];
+                                var compiled = loop == null ? null : loop.compiled();
+                                if(compiled != null) {
+                                    //on stack replacement: run the rest of the loop compiled, on this
+                                    //call's state, then continue interpreting after the loop
+                                    if(loop.resultLocal >= 0) {
+                                        state.setLocal(loop.resultLocal, stack[--sp]);
+                                    }
+                                    Value value;
+                                    try {
+                                        value = (Value)compiled.invokeExact(state);
+                                    } catch(ReturnException e) {
+                                        result = e.getValue();
+                                        break dispatch;
+                                    } catch(Throwable t) {
+                                        throw throwUnchecked(t);
+                                    }
+                                    if(state.isReturning()) {
+                                        result = value;
+                                        break dispatch;
+                                    }
+                                    if(loop.resultLocal >= 0) {
+                                        stack[sp++] = value;
+                                    }
+                                    ip = loop.exit;
+                                    continue;
+                                }
+                            }
+                            ip = target;
+                        }
+                        case JUMP_IF_TRUE -> {
+                            if(stack[--sp].asBoolean().getValue()) {
+                                ip = code[ip];
+                            } else {
+                                ip++;
+                            }
+                        }
+                        case JUMP_IF_FALSE -> {
+                            if(stack[--sp].asBoolean().getValue()) {
+                                ip++;
                             } else {
-                                return fnInt.stack.pop();
+                                ip = code[ip];
                             }
                         }
-                    };
-                    stack.push(fn);
+                        case LOAD_FUNCTION -> {
+                            var m = interpreter.function(code[ip++]);
+                            var annotations = m.metadata.annotations()
+                                    .stream().map(StringValue::of).collect(Collectors.toList());
+                            stack[sp++] = new Closure(interpreter, m, annotations, state.closure(m.upvalues));
+                        }
+                        case POP -> sp--;
+                        case DUP -> {
+                            stack[sp] = stack[sp - 1];
+                            sp++;
+                        }
+                        case THROW -> throw new ThrownError(stack[--sp]);
+                        case TEST_TYPE -> {
+                            var v = stack[sp - 1];
+                            stack[sp - 1] = BooleanValue.of(switch(VALUE_TYPES[code[ip++]]) {
+                                case NIL -> v.isNil();
+                                case BOOLEAN -> v.isBoolean();
+                                case LONG -> v.isLong();
+                                case DOUBLE -> v.isDouble();
+                                case STRING -> v.isString();
+                                case ARRAY -> v.isArray();
+                                case OBJECT -> v.isObject();
+                                case RANGE -> v.isRange();
+                            });
+                        }
+                        case SIZE -> stack[sp - 1] = LongValue.of(stack[sp - 1].size());
+                        case SWAP2 -> {
+                            var v = stack[sp - 1];
+                            stack[sp - 1] = stack[sp - 2];
+                            stack[sp - 2] = v;
+                        }
+                        case ADD_LOCAL_LOCAL -> {
+                            var lhs = state.getLocal(code[ip]);
+                            var rhs = state.getLocal(code[ip + 1]);
+                            code[ip - 1] = quicken(ADD_LOCAL_LOCAL, lhs, rhs);
+                            stack[sp++] = lhs.add(rhs);
+                            ip += 2;
+                        }
+                        case INC_LOCAL -> {
+                            var idx = code[ip];
+                            var lhs = state.getLocal(idx);
+                            var rhs = constants[code[ip + 1]];
+                            code[ip - 1] = quicken(INC_LOCAL, lhs, rhs);
+                            state.setLocal(idx, lhs.add(rhs));
+                            ip += 2;
+                        }
+                        case JUMP_IF_LESS -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[--sp];
+                            code[ip - 1] = quicken(JUMP_IF_LESS, lhs, rhs);
+                            ip = lhs.smaller(rhs).asBoolean().getValue() ? code[ip] : ip + 1;
+                        }
+                        case JUMP_IF_NOT_LESS -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[--sp];
+                            code[ip - 1] = quicken(JUMP_IF_NOT_LESS, lhs, rhs);
+                            ip = lhs.smaller(rhs).asBoolean().getValue() ? ip + 1 : code[ip];
+                        }
+                        case ADD_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? LongValue.of(((LongValue)lhs).getValue() + ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, ADD, lhs, rhs);
+                        }
+                        case SUB_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? LongValue.of(((LongValue)lhs).getValue() - ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, SUB, lhs, rhs);
+                        }
+                        case MUL_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? LongValue.of(((LongValue)lhs).getValue() * ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, MUL, lhs, rhs);
+                        }
+                        case MOD_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? LongValue.of(((LongValue)lhs).getValue() % ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, MOD, lhs, rhs);
+                        }
+                        case EQ_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? BooleanValue.of(((LongValue)lhs).getValue() == ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, EQ, lhs, rhs);
+                        }
+                        case NEQ_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? BooleanValue.of(((LongValue)lhs).getValue() != ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, NEQ, lhs, rhs);
+                        }
+                        case GREATER_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? BooleanValue.of(((LongValue)lhs).getValue() > ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, GREATER, lhs, rhs);
+                        }
+                        case GREATER_EQ_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? BooleanValue.of(((LongValue)lhs).getValue() >= ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, GREATER_EQ, lhs, rhs);
+                        }
+                        case SMALLER_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? BooleanValue.of(((LongValue)lhs).getValue() < ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, SMALLER, lhs, rhs);
+                        }
+                        case SMALLER_EQ_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? BooleanValue.of(((LongValue)lhs).getValue() <= ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, SMALLER_EQ, lhs, rhs);
+                        }
+                        case ADD_DOUBLE_DOUBLE -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof DoubleValue && rhs instanceof DoubleValue
+                                    ? DoubleValue.of(((DoubleValue)lhs).getValue() + ((DoubleValue)rhs).getValue())
+                                    : revert(code, ip - 1, ADD, lhs, rhs);
+                        }
+                        case SUB_DOUBLE_DOUBLE -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof DoubleValue && rhs instanceof DoubleValue
+                                    ? DoubleValue.of(((DoubleValue)lhs).getValue() - ((DoubleValue)rhs).getValue())
+                                    : revert(code, ip - 1, SUB, lhs, rhs);
+                        }
+                        case MUL_DOUBLE_DOUBLE -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof DoubleValue && rhs instanceof DoubleValue
+                                    ? DoubleValue.of(((DoubleValue)lhs).getValue() * ((DoubleValue)rhs).getValue())
+                                    : revert(code, ip - 1, MUL, lhs, rhs);
+                        }
+                        case DIV_DOUBLE_DOUBLE -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[sp - 1];
+                            stack[sp - 1] = lhs instanceof DoubleValue && rhs instanceof DoubleValue
+                                    ? DoubleValue.of(((DoubleValue)lhs).getValue() / ((DoubleValue)rhs).getValue())
+                                    : revert(code, ip - 1, DIV, lhs, rhs);
+                        }
+                        case ADD_LOCAL_LOCAL_LONG -> {
+                            var lhs = state.getLocal(code[ip]);
+                            var rhs = state.getLocal(code[ip + 1]);
+                            stack[sp++] = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? LongValue.of(((LongValue)lhs).getValue() + ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, ADD_LOCAL_LOCAL, lhs, rhs);
+                            ip += 2;
+                        }
+                        case INC_LOCAL_LONG -> {
+                            var idx = code[ip];
+                            var lhs = state.getLocal(idx);
+                            var rhs = constants[code[ip + 1]];
+                            state.setLocal(idx, lhs instanceof LongValue
+                                    ? LongValue.of(((LongValue)lhs).getValue() + ((LongValue)rhs).getValue())
+                                    : revert(code, ip - 1, INC_LOCAL, lhs, rhs));
+                            ip += 2;
+                        }
+                        case JUMP_IF_LESS_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[--sp];
+                            var less = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? ((LongValue)lhs).getValue() < ((LongValue)rhs).getValue()
+                                    : revert(code, ip - 1, JUMP_IF_LESS, lhs, rhs).asBoolean().getValue();
+                            ip = less ? code[ip] : ip + 1;
+                        }
+                        case JUMP_IF_NOT_LESS_LONG_LONG -> {
+                            var rhs = stack[--sp];
+                            var lhs = stack[--sp];
+                            var less = lhs instanceof LongValue && rhs instanceof LongValue
+                                    ? ((LongValue)lhs).getValue() < ((LongValue)rhs).getValue()
+                                    : revert(code, ip - 1, JUMP_IF_NOT_LESS, lhs, rhs).asBoolean().getValue();
+                            ip = less ? ip + 1 : code[ip];
+                        }
+                        default -> throw new IllegalStateException("Unknown instruction " + code[ip - 1]);
+                    }
                 }
-                case POP -> stack.pop();
-                case DUP -> stack.push(stack.peek());
-                case THROW -> throw new UnsupportedOperationException("throw");
-                case TEST_TYPE -> {
-                    var t = ValueType.type(u8());
-                    var v = stack.pop();
-                    stack.push(BooleanValue.of(switch(t) {
-                        case NIL -> v.isNil();
-                        case BOOLEAN -> v.isBoolean();
-                        case LONG -> v.isLong();
-                        case DOUBLE -> v.isDouble();
-                        case STRING -> v.isString();
-                        case ARRAY -> v.isArray();
-                        case OBJECT -> v.isObject();
-                        case RANGE -> v.isRange();
-                    }));
+                if(result == null) {
+                    result = sp == base ? NilValue.instance() : stack[sp - 1];
                 }
-                case SIZE -> stack.push(LongValue.of(stack.pop().size()));
-                case SWAP2 -> {
-                    var v1 = stack.pop();
-                    var v2 = stack.pop();
-                    stack.push(v1);
-                    stack.push(v2);
+                if(depth == 0) {
+                    return result;
                 }
+                var frame = frames[--depth];
+                valueStack.exit(frame.mark);
+                function = frame.function;
+                code = function.code;
+                memberCaches = function.memberCaches;
+                state = frame.state;
+                stack = frame.stack;
+                base = frame.base;
+                sp = frame.sp;
+                ip = frame.ip;
+                frame.clear();
+                stack[sp - 1] = result;
             }
         }
+    }
     
-        private byte u8() {
-            return function.code.get(advanceIP(1));
+    //caller saved when a call pushes a frame, reused by later calls at the same depth
+    private static class Frame {
+        private Function function;
+        private FunctionState state;
+        private Value[] stack;
+        private int base;
+        private int sp;
+        private int ip;
+        //value stack mark from before the callee reserved its slots
+        private long mark;
+        
+        void save(Function function, FunctionState state, Value[] stack, int base, int sp, int ip, long mark) {
+            this.function = function;
+            this.state = state;
+            this.stack = stack;
+            this.base = base;
+            this.sp = sp;
+            this.ip = ip;
+            this.mark = mark;
         }
-    
-        private short s16() {
-            return function.code.getShort(advanceIP(2));
+        
+        //drops references so returned frames don't keep values alive
+        void clear() {
+            this.function = null;
+            this.state = null;
+            this.stack = null;
         }
+    }
     
-        private int u16() {
-            return s16() & 0xFFFF;
+    //function created by LOAD_FUNCTION. CALL checks for this type to run calls
+    //of functions of the same interpreter without recursing
+    private static class Closure extends com.github.natanbc.idk.runtime.Function {
+        private final BytecodeInterpreter interpreter;
+        private final Function function;
+        private final Cell[] upvalues;
+        
+        Closure(BytecodeInterpreter interpreter, Function function, List<StringValue> annotations, Cell[] upvalues) {
+            super(function.metadata.name(), annotations);
+            this.interpreter = interpreter;
+            this.function = function;
+            this.upvalues = upvalues;
+        }
+        
+        FunctionState state(Value[] args) {
+            var s = new FunctionState(interpreter.globals, function.metadata.localsCount(), function.capturedLocals, upvalues);
+            s.fillFromArgs(args, function.metadata.argumentCount(), function.metadata.varargs());
+            return s;
         }
         
-        private int advanceIP(int n) {
-            int i = ip;
-            ip += n;
-            return i;
+        //called from native code, so a new dispatch loop has to be started
+        @Override
+        public Value call(Value[] args) {
+            var s = state(args);
+            var compiled = function.compiled();
+            if(compiled != null) {
+                return invokeCompiled(compiled, s);
+            }
+            return new FunctionInterpreter(interpreter, function, s).execute();
+        }
+    }
+    
+    //functions are only decoded when first loaded, so startup time doesn't
+    //depend on code that never runs
+    private Function function(int id) {
+        var fn = functions[id];
+        return fn != null ? fn : load(id);
+    }
+    
+    private synchronized Function load(int id) {
+        var fn = functions[id];
+        if(fn == null) {
+            fn = functions[id] = new Function(reader.function(id), globals, ir, compiler);
         }
+        return fn;
+    }
+    
+    //quickened variant of a generic instruction for the given operands, or the
+    //instruction itself if there's none. code is shared by every call of a function
+    //and rewritten without synchronization, which is fine since every variant
+    //gives the same result for any operands
+    private static int quicken(int op, Value lhs, Value rhs) {
+        if(lhs instanceof LongValue && rhs instanceof LongValue) {
+            return switch(op) {
+                case ADD -> ADD_LONG_LONG;
+                case SUB -> SUB_LONG_LONG;
+                case MUL -> MUL_LONG_LONG;
+                case MOD -> MOD_LONG_LONG;
+                case EQ -> EQ_LONG_LONG;
+                case NEQ -> NEQ_LONG_LONG;
+                case GREATER -> GREATER_LONG_LONG;
+                case GREATER_EQ -> GREATER_EQ_LONG_LONG;
+                case SMALLER -> SMALLER_LONG_LONG;
+                case SMALLER_EQ -> SMALLER_EQ_LONG_LONG;
+                case ADD_LOCAL_LOCAL -> ADD_LOCAL_LOCAL_LONG;
+                case INC_LOCAL -> INC_LOCAL_LONG;
+                case JUMP_IF_LESS -> JUMP_IF_LESS_LONG_LONG;
+                case JUMP_IF_NOT_LESS -> JUMP_IF_NOT_LESS_LONG_LONG;
+                default -> op;
+            };
+        }
+        if(lhs instanceof DoubleValue && rhs instanceof DoubleValue) {
+            return switch(op) {
+                case ADD -> ADD_DOUBLE_DOUBLE;
+                case SUB -> SUB_DOUBLE_DOUBLE;
+                case MUL -> MUL_DOUBLE_DOUBLE;
+                case DIV -> DIV_DOUBLE_DOUBLE;
+                default -> op;
+            };
+        }
+        return op;
+    }
+    
+    //a quickened instruction got operands it doesn't handle: goes back to the
+    //generic instruction at pos, which may quicken again later, and runs it
+    private static Value revert(int[] code, int pos, int op, Value lhs, Value rhs) {
+        code[pos] = op;
+        return switch(op) {
+            case ADD, ADD_LOCAL_LOCAL, INC_LOCAL -> lhs.add(rhs);
+            case SUB -> lhs.sub(rhs);
+            case MUL -> lhs.mul(rhs);
+            case DIV -> lhs.div(rhs);
+            case MOD -> lhs.mod(rhs);
+            case EQ -> lhs.eq(rhs);
+            case NEQ -> lhs.neq(rhs);
+            case GREATER -> lhs.greater(rhs);
+            case GREATER_EQ -> lhs.greaterEq(rhs);
+            case SMALLER, JUMP_IF_LESS, JUMP_IF_NOT_LESS -> lhs.smaller(rhs);
+            case SMALLER_EQ -> lhs.smallerEq(rhs);
+            default -> throw new IllegalArgumentException("Not a binary instruction: " + op);
+        };
+    }
+    
+    private static Value invokeCompiled(MethodHandle compiled, FunctionState state) {
+        try {
+            return (Value)compiled.invokeExact(state);
+        } catch(ReturnException e) {
+            return e.getValue();
+        } catch(Throwable t) {
+            throw throwUnchecked(t);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> Error throwUnchecked(Throwable exception) throws T {
+        throw (T)exception;
     }
     
     private static class Function {
         private final FunctionReader metadata;
-        private final ByteBuffer code;
+        private final int[] code;
+        private final MemberCache[] memberCaches;
+        private final int[] capturedLocals;
+        private final int[] upvalues;
+        //counters used to decide when to compile the function. updated without
+        //synchronization, so concurrent calls might lose some increments
+        private int calls;
+        private int backEdges;
+        private volatile MethodHandle compiled;
+        //null if the function can't be compiled
+        private final IrFunction ir;
+        private final HotCodeCompiler compiler;
+        //loops indexed by the position of their backwards jump instruction,
+        //null if there's no ir to compile them from
+        private final Loop[] loops;
         
-        Function(FunctionReader reader) {
+        Function(FunctionReader reader, GlobalTable globals, IrMapping mapping, HotCodeCompiler compiler) {
             this.metadata = reader;
-            var r = reader.reader();
-            this.code = ByteBuffer.allocate(r.limit());
-            for(var i = 0; i < code.capacity(); i++) {
-                code.put(i, r.u8());
+            this.capturedLocals = reader.capturedLocals();
+            this.upvalues = reader.upvalues();
+            var decoded = FunctionDecoder.decode(reader, globals);
+            this.code = decoded.code;
+            this.memberCaches = new MemberCache[decoded.memberSites];
+            for(var i = 0; i < memberCaches.length; i++) {
+                memberCaches[i] = new MemberCache();
+            }
+            var id = reader.id() & 0xFFFF;
+            this.ir = mapping == null ? null : mapping.function(id);
+            this.compiler = compiler;
+            if(mapping == null) {
+                this.loops = null;
+            } else {
+                this.loops = new Loop[code.length];
+                for(var loop : mapping.loops(id)) {
+                    loops[decoded.offsets[loop.backEdge()]] = new Loop(
+                            decoded.offsets[loop.exit()], loop.resultLocal(), loop.continuation(), compiler);
+                }
+            }
+        }
+        
+        //(FunctionState)Value handle to run instead of interpreting the function,
+        //compiling it if it just got hot. counts a call of the function
+        MethodHandle compiled() {
+            var c = compiled;
+            if(c != null || ir == null) {
+                return c;
+            }
+            if(++calls < CALL_THRESHOLD && backEdges < BACK_EDGE_THRESHOLD) {
+                return null;
+            }
+            return compiled = compiler.compileBody(ir);
+        }
+    }
+    
+    private static class Loop {
+        //where to continue interpreting after the loop, in the decoded code
+        private final int exit;
+        private final int resultLocal;
+        private final IrNode continuation;
+        private final HotCodeCompiler compiler;
+        //same as Function.calls
+        private int iterations;
+        private volatile MethodHandle compiled;
+        
+        Loop(int exit, int resultLocal, IrNode continuation, HotCodeCompiler compiler) {
+            this.exit = exit;
+            this.resultLocal = resultLocal;
+            this.continuation = continuation;
+            this.compiler = compiler;
+        }
+        
+        //(FunctionState)Value handle running the rest of the loop, compiling it if
+        //it just got hot. counts an iteration of the loop
+        MethodHandle compiled() {
+            var c = compiled;
+            if(c != null || ++iterations < LOOP_THRESHOLD) {
+                return c;
             }
+            return compiled = compiler.compileContinuation(continuation);
         }
     }
 }
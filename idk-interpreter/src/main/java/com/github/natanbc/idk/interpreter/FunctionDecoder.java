@@ -0,0 +1,165 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.bytecode.BytecodeConstants;
+import com.github.natanbc.idk.bytecode.ConditionType;
+import com.github.natanbc.idk.bytecode.FunctionReader;
+import com.github.natanbc.idk.bytecode.Opcode;
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.runtime.GlobalTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.github.natanbc.idk.interpreter.Instructions.*;
+
+class FunctionDecoder {
+    static Decoded decode(FunctionReader function, GlobalTable globals) {
+        var reader = function.reader();
+        var owner = function.owner();
+        var codeStart = reader.pos();
+        var opcodes = new ArrayList<Opcode>();
+        var operands = new ArrayList<int[]>();
+        //byte offset -> decoded index, -1 for offsets that don't start an instruction
+        var offsets = new int[reader.limit() + 1];
+        Arrays.fill(offsets, -1);
+        var size = 0;
+        while(reader.canRead()) {
+            offsets[reader.pos() - codeStart] = size;
+            var op = Opcode.fromValue(reader.u8());
+            var args = new int[op.argumentTypes.size()];
+            for(var i = 0; i < args.length; i++) {
+                args[i] = switch(op.argumentTypes.get(i).byteSize) {
+                    case 1 -> reader.u8() & 0xFF;
+                    case 2 -> reader.u16() & 0xFFFF;
+                    default -> throw new IllegalStateException("Unsupported argument size");
+                };
+            }
+            opcodes.add(op);
+            operands.add(args);
+            size += decodedSize(op);
+        }
+        offsets[reader.pos() - codeStart] = size;
+        
+        var code = new int[size];
+        var idx = 0;
+        var memberSites = 0;
+        for(var i = 0; i < opcodes.size(); i++) {
+            var op = opcodes.get(i);
+            var args = operands.get(i);
+            switch(op) {
+                case CONSTANT_NIL -> code[idx++] = CONSTANT_NIL;
+                case CONSTANT_BOOLEAN -> code[idx++] = args[0] != 0 ? CONSTANT_TRUE : CONSTANT_FALSE;
+                //type checked here so the interpreter can load any constant the same way
+                case CONSTANT_LONG -> {
+                    owner.constantLong((short)args[0]);
+                    idx = emit(code, idx, CONSTANT, args[0]);
+                }
+                case CONSTANT_DOUBLE -> {
+                    owner.constantDouble((short)args[0]);
+                    idx = emit(code, idx, CONSTANT, args[0]);
+                }
+                case CONSTANT_STRING -> {
+                    owner.constantString((short)args[0]);
+                    idx = emit(code, idx, CONSTANT, args[0]);
+                }
+                case CREATE_ARRAY -> idx = emit(code, idx, CREATE_ARRAY, args[0]);
+                case CREATE_OBJECT -> idx = emit(code, idx, CREATE_OBJECT, args[0]);
+                case CREATE_RANGE -> code[idx++] = CREATE_RANGE;
+                case LOAD_LOCAL -> idx = emit(code, idx, LOAD_LOCAL, args[0]);
+                case STORE_LOCAL -> idx = emit(code, idx, STORE_LOCAL, args[0]);
+                case LOAD_UPVALUE -> idx = emit(code, idx, LOAD_UPVALUE, args[0]);
+                case STORE_UPVALUE -> idx = emit(code, idx, STORE_UPVALUE, args[0]);
+                case LOAD_GLOBAL -> idx = emit(code, idx, LOAD_GLOBAL, globals.slot(owner.constantString((short)args[0])));
+                case STORE_GLOBAL -> idx = emit(code, idx, STORE_GLOBAL, globals.slot(owner.constantString((short)args[0])));
+                case LOAD_MEMBER -> idx = emit(code, idx, LOAD_MEMBER, memberSites++);
+                case STORE_MEMBER -> idx = emit(code, idx, STORE_MEMBER, memberSites++);
+                case CALL -> idx = emit(code, idx, CALL, args[0]);
+                case RETURN -> code[idx++] = RETURN;
+                case BINARY_OPERATION -> code[idx++] = switch(BytecodeConstants.binaryOp((byte)args[0])) {
+                    case ADD -> ADD;
+                    case SUB -> SUB;
+                    case MUL -> MUL;
+                    case DIV -> DIV;
+                    case MOD -> MOD;
+                    case POW -> POW;
+                    case EQ -> EQ;
+                    case NEQ -> NEQ;
+                    case GREATER -> GREATER;
+                    case GREATER_EQ -> GREATER_EQ;
+                    case SMALLER -> SMALLER;
+                    case SMALLER_EQ -> SMALLER_EQ;
+                    case AND -> AND;
+                    case OR -> OR;
+                };
+                case UNARY_OPERATION -> code[idx++] = switch(BytecodeConstants.unaryOp((byte)args[0])) {
+                    case NEG -> NEG;
+                    case NEGATE -> NEGATE;
+                };
+                case JUMP -> idx = emit(code, idx, JUMP, target(offsets, args[0]));
+                case JUMP_IF -> idx = emit(code, idx,
+                        ConditionType.type((byte)args[0]) == ConditionType.IF_TRUE ? JUMP_IF_TRUE : JUMP_IF_FALSE,
+                        target(offsets, args[1]));
+                case LOAD_FUNCTION -> idx = emit(code, idx, LOAD_FUNCTION, args[0]);
+                case POP -> code[idx++] = POP;
+                case DUP -> code[idx++] = DUP;
+                case THROW -> code[idx++] = THROW;
+                case TEST_TYPE -> idx = emit(code, idx, TEST_TYPE, ValueType.type((byte)args[0]).ordinal());
+                case SIZE -> code[idx++] = SIZE;
+                case SWAP2 -> code[idx++] = SWAP2;
+                case ADD_LOCAL_LOCAL -> idx = emit(code, idx, ADD_LOCAL_LOCAL, args[0], args[1]);
+                case INC_LOCAL -> {
+                    owner.constantLong((short)args[1]);
+                    idx = emit(code, idx, INC_LOCAL, args[0], args[1]);
+                }
+                case JUMP_IF_LESS -> idx = emit(code, idx,
+                        ConditionType.type((byte)args[0]) == ConditionType.IF_TRUE ? JUMP_IF_LESS : JUMP_IF_NOT_LESS,
+                        target(offsets, args[1]));
+            }
+        }
+        return new Decoded(code, memberSites, offsets);
+    }
+    
+    private static int decodedSize(Opcode op) {
+        return switch(op) {
+            //the first argument is folded into the opcode
+            case CONSTANT_BOOLEAN, BINARY_OPERATION, UNARY_OPERATION, JUMP_IF, JUMP_IF_LESS -> op.argumentTypes.size();
+            //the member cache index is added
+            case LOAD_MEMBER, STORE_MEMBER -> 2;
+            default -> 1 + op.argumentTypes.size();
+        };
+    }
+    
+    private static int target(int[] offsets, int position) {
+        if(position >= offsets.length || offsets[position] < 0) {
+            throw new IllegalStateException("Jump to invalid position " + position);
+        }
+        return offsets[position];
+    }
+    
+    private static int emit(int[] code, int idx, int op, int arg) {
+        code[idx] = op;
+        code[idx + 1] = arg;
+        return idx + 2;
+    }
+    
+    private static int emit(int[] code, int idx, int op, int arg1, int arg2) {
+        code[idx] = op;
+        code[idx + 1] = arg1;
+        code[idx + 2] = arg2;
+        return idx + 3;
+    }
+    
+    static class Decoded {
+        final int[] code;
+        //number of member access instructions, each has its own cache
+        final int memberSites;
+        //byte offset -> decoded index, -1 for offsets that don't start an instruction
+        final int[] offsets;
+        
+        Decoded(int[] code, int memberSites, int[] offsets) {
+            this.code = code;
+            this.memberSites = memberSites;
+            this.offsets = offsets;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.misc.IrFunction;
+
+import java.lang.invoke.MethodHandle;
+
+//compiles code TieredInterpreter found to be hot. provided by whoever creates
+//the interpreter, so this module doesn't depend on a compiler
+public interface HotCodeCompiler {
+    //(FunctionState)Value handle running the body of the function on the state
+    //of a call, with the arguments already stored. might throw a ReturnException
+    MethodHandle compileBody(IrFunction function);
+    
+    //(FunctionState)Value handle running the rest of a loop on the state of a
+    //call that's already running
+    MethodHandle compileContinuation(IrNode continuation);
+}
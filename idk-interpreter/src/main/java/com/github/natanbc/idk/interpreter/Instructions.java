@@ -0,0 +1,110 @@
+package com.github.natanbc.idk.interpreter;
+
+//instructions are stored as the opcode followed by the operands, one int each.
+//jump targets are indices into the decoded stream instead of byte offsets.
+final class Instructions {
+    //[]
+    static final int CONSTANT_NIL = 0;
+    //[]
+    static final int CONSTANT_TRUE = 1;
+    //[]
+    static final int CONSTANT_FALSE = 2;
+    //[constant pool index]
+    static final int CONSTANT = 3;
+    //[count]
+    static final int CREATE_ARRAY = 4;
+    //[count]
+    static final int CREATE_OBJECT = 5;
+    //[]
+    static final int CREATE_RANGE = 6;
+    //[idx]
+    static final int LOAD_LOCAL = 7;
+    //[idx]
+    static final int STORE_LOCAL = 8;
+    //[upvalue idx]
+    static final int LOAD_UPVALUE = 9;
+    //[upvalue idx]
+    static final int STORE_UPVALUE = 10;
+    //[global slot]
+    static final int LOAD_GLOBAL = 11;
+    //[global slot]
+    static final int STORE_GLOBAL = 12;
+    //[member cache index]
+    static final int LOAD_MEMBER = 13;
+    //[member cache index]
+    static final int STORE_MEMBER = 14;
+    //[arg count]
+    static final int CALL = 15;
+    //[]
+    static final int RETURN = 16;
+    //[]
+    static final int ADD = 17;
+    static final int SUB = 18;
+    static final int MUL = 19;
+    static final int DIV = 20;
+    static final int MOD = 21;
+    static final int POW = 22;
+    static final int EQ = 23;
+    static final int NEQ = 24;
+    static final int GREATER = 25;
+    static final int GREATER_EQ = 26;
+    static final int SMALLER = 27;
+    static final int SMALLER_EQ = 28;
+    static final int AND = 29;
+    static final int OR = 30;
+    //[]
+    static final int NEG = 31;
+    static final int NEGATE = 32;
+    //[target]
+    static final int JUMP = 33;
+    //[target]
+    static final int JUMP_IF_TRUE = 34;
+    //[target]
+    static final int JUMP_IF_FALSE = 35;
+    //[function number]
+    static final int LOAD_FUNCTION = 36;
+    //[]
+    static final int POP = 37;
+    //[]
+    static final int DUP = 38;
+    //[]
+    static final int THROW = 39;
+    //[value type ordinal]
+    static final int TEST_TYPE = 40;
+    //[]
+    static final int SIZE = 41;
+    //[]
+    static final int SWAP2 = 42;
+    //[a, b]
+    static final int ADD_LOCAL_LOCAL = 43;
+    //[idx, constant pool index]
+    static final int INC_LOCAL = 44;
+    //[target]
+    static final int JUMP_IF_LESS = 45;
+    //[target]
+    static final int JUMP_IF_NOT_LESS = 46;
+    
+    //quickened instructions. the interpreter rewrites a generic instruction into
+    //one of these after seeing the operand types, and back if they change. same
+    //operands as the generic instruction
+    static final int ADD_LONG_LONG = 47;
+    static final int SUB_LONG_LONG = 48;
+    static final int MUL_LONG_LONG = 49;
+    static final int MOD_LONG_LONG = 50;
+    static final int EQ_LONG_LONG = 51;
+    static final int NEQ_LONG_LONG = 52;
+    static final int GREATER_LONG_LONG = 53;
+    static final int GREATER_EQ_LONG_LONG = 54;
+    static final int SMALLER_LONG_LONG = 55;
+    static final int SMALLER_EQ_LONG_LONG = 56;
+    static final int ADD_DOUBLE_DOUBLE = 57;
+    static final int SUB_DOUBLE_DOUBLE = 58;
+    static final int MUL_DOUBLE_DOUBLE = 59;
+    static final int DIV_DOUBLE_DOUBLE = 60;
+    static final int ADD_LOCAL_LOCAL_LONG = 61;
+    static final int INC_LOCAL_LONG = 62;
+    static final int JUMP_IF_LESS_LONG_LONG = 63;
+    static final int JUMP_IF_NOT_LESS_LONG_LONG = 64;
+    
+    private Instructions() {}
+}
@@ -14,9 +14,7 @@ import com.github.natanbc.idk.runtime.internal.FunctionState;
 import com.github.natanbc.idk.runtime.internal.ReturnException;
 
 import java.util.*;
-import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
-import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 public class Interpreter implements IrVisitor<Value> {
@@ -40,35 +38,36 @@ public class Interpreter implements IrVisitor<Value> {
             Map.entry(BinaryOperationType.SMALLER_EQ, Value::smallerEq)
     );
     
-    private static final Map<BinaryOperationType, BiFunction<Value, Supplier<Value>, Value>> SHORT_CIRCUITING_OPERATORS = Map.of(
-            BinaryOperationType.AND, (lhs, rhs) -> BooleanValue.of(lhs.asBoolean().getValue() && rhs.get().asBoolean().getValue()),
-            BinaryOperationType.OR, (lhs, rhs) -> BooleanValue.of(lhs.asBoolean().getValue() || rhs.get().asBoolean().getValue())
-    );
-    
     private final ArrayDeque<FunctionState> states = new ArrayDeque<>();
     private final List<InterpreterHooks> hooks = new ArrayList<>();
-    private final Map<String, Value> globals;
+    //hooks handling each node type, filled as node types are executed
+    private final Map<Class<? extends IrNode>, InterpreterHooks[]> hooksByType = new HashMap<>();
+    //inline cache of each member access site, filled as sites are executed.
+    //keyed by identity since equal nodes are still different sites
+    private final Map<IrMember, MemberCache> memberCaches = new IdentityHashMap<>();
+    private final GlobalTable globals;
     
     public Interpreter(ExecutionContext context) {
         this(context.getGlobals());
     }
     
     public Interpreter(Map<String, Value> globals) {
-        this.globals = globals;
+        this.globals = GlobalTable.of(globals);
     }
     
     public Interpreter addHook(InterpreterHooks hook) {
         hooks.add(Objects.requireNonNull(hook));
+        hooksByType.clear();
         return this;
     }
     
     @Override
     public Value visitRoot(IrRoot node) {
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
-        var state = new FunctionState(globals, node.getLocalsCount());
+        var state = new FunctionState(globals, node.getLocalsCount(), node.getCapturedLocals());
         states.push(state);
         try {
             return filterValue(node, node.getBody().accept(this));
@@ -86,43 +85,58 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitBoolean(IrBoolean node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, BooleanValue.of(node.getValue())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, BooleanValue.of(node.getValue()));
     }
     
     @Override
     public Value visitDouble(IrDouble node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, DoubleValue.of(node.getValue())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, DoubleValue.of(node.getValue()));
     }
     
     @Override
     public Value visitLong(IrLong node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, LongValue.of(node.getValue())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, LongValue.of(node.getValue()));
     }
     
     @Override
     public Value visitNil(IrNil node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, NilValue.instance()));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, NilValue.instance());
     }
     
     @Override
     public Value visitString(IrString node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, StringValue.of(node.getValue())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, StringValue.of(node.getValue()));
     }
     
     @Override
     public Value visitArrayLiteral(IrArrayLiteral node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
         var array = new ArrayValue();
         var i = 0;
@@ -137,8 +151,8 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitObjectLiteral(IrObjectLiteral node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
         var object = new ObjectValue();
         for(Map.Entry<IrNode, IrNode> entry : node.getEntries()) {
@@ -151,29 +165,30 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitUnaryOperation(IrUnaryOperation node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, UNARY_OPERATORS.get(node.getType()).apply(node.getTarget().accept(this))));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, UNARY_OPERATORS.get(node.getType()).apply(node.getTarget().accept(this)));
     }
     
     @Override
     public Value visitBinaryOperation(IrBinaryOperation node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> {
-            var binary = BINARY_OPERATORS.get(node.getType());
-            if(binary != null) {
-                return filterValue(node, binary.apply(
-                        node.getLhs().accept(this),
-                        node.getRhs().accept(this)
-                ));
-            }
-            var shortCircuiting = SHORT_CIRCUITING_OPERATORS.get(node.getType());
-            if(shortCircuiting != null) {
-                return filterValue(node, shortCircuiting.apply(
-                        node.getLhs().accept(this),
-                        () -> node.getRhs().accept(this)
-                ));
-            }
-            throw new UnsupportedOperationException("Unimplemented operator " + node.getType());
+        if(replaced != null) {
+            return replaced;
+        }
+        var binary = BINARY_OPERATORS.get(node.getType());
+        if(binary != null) {
+            return filterValue(node, binary.apply(
+                    node.getLhs().accept(this),
+                    node.getRhs().accept(this)
+            ));
+        }
+        return filterValue(node, switch(node.getType()) {
+            case AND -> BooleanValue.of(node.getLhs().accept(this).asBoolean().getValue() && node.getRhs().accept(this).asBoolean().getValue());
+            case OR -> BooleanValue.of(node.getLhs().accept(this).asBoolean().getValue() || node.getRhs().accept(this).asBoolean().getValue());
+            default -> throw new UnsupportedOperationException("Unimplemented operator " + node.getType());
         });
     }
     
@@ -181,51 +196,63 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitRange(IrRange node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, RangeValue.of(
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, RangeValue.of(
                 node.getFrom().accept(this).asLong().getValue(),
                 node.getTo().accept(this).asLong().getValue()
-        )));
+        ));
     }
     
     @Override
     public Value visitLocal(IrLocal node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, state().getLocal(node.getIndex())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, state().getLocal(node.getIndex()));
     }
     
     @Override
     public Value visitUpvalue(IrUpvalue node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, state().getUpvalue(node.getLevel(), node.getIndex())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, state().getUpvalue(node.getIndex()));
     }
     
     @Override
     public Value visitGlobal(IrGlobal node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, state().getGlobal(node.getName())));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, state().getGlobal(slot(node)));
     }
     
     @Override
     public Value visitAssign(IrAssign node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
         var target = node.getTarget();
         if(target instanceof IrLocal) {
             return filterValue(node, state().setLocal(((IrLocal) target).getIndex(), node.getValue().accept(this)));
         } else if(target instanceof IrUpvalue) {
             var up = (IrUpvalue)target;
-            return filterValue(node, state().setUpvalue(up.getLevel(), up.getIndex(), node.getValue().accept(this)));
+            return filterValue(node, state().setUpvalue(up.getIndex(), node.getValue().accept(this)));
         } else if(target instanceof IrGlobal) {
-            return state().setGlobal(((IrGlobal) target).getName(), node.getValue().accept(this));
+            return state().setGlobal(slot((IrGlobal) target), node.getValue().accept(this));
         } else if(target instanceof IrMember) {
             var m = (IrMember)target;
-            return filterValue(node, m.getTarget().accept(this).set(m.getKey().accept(this), node.getValue().accept(this)));
+            return filterValue(node, memberCache(m).set(m.getTarget().accept(this), m.getKey().accept(this), node.getValue().accept(this)));
         } else {
             throw new TypeError("Can't assign to " + target);
         }
@@ -235,19 +262,26 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitMember(IrMember node) {
         checkValid();
         var replaced = findReplacement(node);
-        return replaced.orElseGet(() -> filterValue(node, node.getTarget().accept(this).get(node.getKey().accept(this))));
+        if(replaced != null) {
+            return replaced;
+        }
+        return filterValue(node, memberCache(node).get(node.getTarget().accept(this), node.getKey().accept(this)));
     }
     
     @Override
     public Value visitBody(IrBody node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
+        var state = state();
         Value ret = NilValue.instance();
         for(var n : node.getChildren()) {
             ret = n.accept(this);
+            if(state.isReturning()) {
+                return ret;
+            }
         }
         return filterValue(node, ret);
     }
@@ -256,8 +290,8 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitCall(IrCall node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
         var target = node.getTarget().accept(this);
         var args = new Value[node.getArguments().size()];
@@ -272,20 +306,20 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitFunction(IrFunction node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
         var annotationList = new ArrayList<StringValue>();
         for(String annotation : node.getAnnotations()) {
             annotationList.add(StringValue.of(annotation));
         }
-        //store current state instead of getting whatever's stored when the function is called,
-        //which will most likely be a wrong state
-        var state = state();
+        //capture the cells of the current state instead of getting whatever's stored when
+        //the function is called, which will most likely be a wrong state
+        var upvalues = state().closure(node.getUpvalues());
         var fn = new Function(node.getName(), annotationList) {
             @Override
             public Value call(Value[] args) {
-                var s = new FunctionState(state, node.getLocalsCount());
+                var s = new FunctionState(globals, node.getLocalsCount(), node.getCapturedLocals(), upvalues);
                 s.fillFromArgs(args, node.getArgumentCount(), node.isVarargs());
                 states.push(s);
                 try {
@@ -307,42 +341,46 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitIf(IrIf node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
-        }
-        if(node.getCondition().accept(this).asBoolean().getValue()) {
-            return filterValue(node, node.getIfBody().accept(this));
-        } else {
-            return filterValue(node, node.getElseBody().accept(this));
+        if(replaced != null) {
+            return replaced;
         }
+        var ret = node.getCondition().accept(this).asBoolean().getValue()
+                ? node.getIfBody().accept(this)
+                : node.getElseBody().accept(this);
+        return state().isReturning() ? ret : filterValue(node, ret);
     }
     
     @Override
     public Value visitWhile(IrWhile node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
+        var state = state();
         Value ret = NilValue.instance();
         var executed = false;
         while(node.getCondition().accept(this).asBoolean().getValue()) {
             executed = true;
             ret = node.getBody().accept(this);
+            if(state.isReturning()) {
+                return ret;
+            }
         }
         if(!executed) {
-            return filterValue(node, node.getElseBody().accept(this));
+            ret = node.getElseBody().accept(this);
         }
-        return filterValue(node, ret);
+        return state.isReturning() ? ret : filterValue(node, ret);
     }
     
     @Override
     public Value visitFor(IrFor node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
+        var state = state();
         var value = node.getValue().accept(this);
         //ranges are always closed on both ends so the else body never runs
         if(value.isRange()) {
@@ -351,20 +389,27 @@ public class Interpreter implements IrVisitor<Value> {
             Value ret = NilValue.instance();
             var end = range.getTo() + step;
             for(var l = range.getFrom(); l != end; l += step) {
-                state().setLocal(node.getVariableIndex(), LongValue.of(l));
+                state.setLocal(node.getVariableIndex(), LongValue.of(l));
                 ret = node.getBody().accept(this);
+                if(state.isReturning()) {
+                    return ret;
+                }
             }
             return filterValue(node, ret);
         }
         if(value.isArray()) {
             var array = value.asArray();
             if(array.size() == 0) {
-                return filterValue(node, node.getElseBody().accept(this));
+                var ret = node.getElseBody().accept(this);
+                return state.isReturning() ? ret : filterValue(node, ret);
             }
             Value ret = NilValue.instance();
             for(var i = 0; i < array.size(); i++) {
-                state().setLocal(node.getVariableIndex(), array.rawGet(i));
+                state.setLocal(node.getVariableIndex(), array.rawGet(i));
                 ret = node.getBody().accept(this);
+                if(state.isReturning()) {
+                    return ret;
+                }
             }
             return filterValue(node, ret);
         }
@@ -375,26 +420,26 @@ public class Interpreter implements IrVisitor<Value> {
     public Value visitReturn(IrReturn node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
+        }
+        var value = node.getValue().accept(this);
+        //structured returns unwind by returning the value, every node between
+        //this one and the function stops once it sees the state is returning
+        if(node.isStructured()) {
+            return state().returnValue(value);
         }
-        throw new ReturnException(
-                findReplacement(node)
-                        .orElseGet(() -> node.getValue().accept(this))
-        );
+        throw new ReturnException(value);
     }
     
     @Override
     public Value visitThrow(IrThrow node) {
         checkValid();
         var replaced = findReplacement(node);
-        if(replaced.isPresent()) {
-            return replaced.get();
+        if(replaced != null) {
+            return replaced;
         }
-        throw new ThrownError(
-                findReplacement(node)
-                        .orElseGet(() -> node.getValue().accept(this))
-        );
+        throw new ThrownError(node.getValue().accept(this));
     }
 
 //    @Override
@@ -403,23 +448,49 @@ public class Interpreter implements IrVisitor<Value> {
 //        return target.asArray().get(new LongValue(0));
 //    }
     
-    private Optional<Value> findReplacement(IrNode node) {
-        for(var hook : hooks) {
+    //null if no hook replaced the execution of the node
+    private Value findReplacement(IrNode node) {
+        if(hooks.isEmpty()) {
+            return null;
+        }
+        for(var hook : hooksFor(node)) {
             var r = hook.replaceExecution(this, state(), node);
             if(r.isPresent()) {
-                return r;
+                return r.get();
             }
         }
-        return Optional.empty();
+        return null;
     }
     
     private Value filterValue(IrNode node, Value result) {
-        for(var hook : hooks) {
+        if(hooks.isEmpty()) {
+            return result;
+        }
+        for(var hook : hooksFor(node)) {
             result = hook.filterResult(this, state(), node, result);
         }
         return result;
     }
     
+    private InterpreterHooks[] hooksFor(IrNode node) {
+        var type = node.getClass();
+        var r = hooksByType.get(type);
+        if(r == null) {
+            r = hooks.stream().filter(h -> h.handles(type)).toArray(InterpreterHooks[]::new);
+            hooksByType.put(type, r);
+        }
+        return r;
+    }
+    
+    private MemberCache memberCache(IrMember node) {
+        return memberCaches.computeIfAbsent(node, __ -> new MemberCache());
+    }
+    
+    //the ir isn't linked before running, so names are resolved on every access
+    private int slot(IrGlobal node) {
+        return globals.slot(node.getName());
+    }
+    
     private FunctionState state() {
         return states.peek();
     }
@@ -8,6 +8,13 @@ import com.github.natanbc.idk.runtime.Value;
 import java.util.Optional;
 
 public interface InterpreterHooks {
+    //whether the hook wants to see nodes of the given type. hooks are only
+    //called for the node types they handle, so narrowing this keeps every
+    //other node on the hook free path
+    default boolean handles(Class<? extends IrNode> nodeType) {
+        return true;
+    }
+    
     default Optional<Value> replaceExecution(IrVisitor<Value> interpreter, ExecutionContext context, IrNode node) {
         return Optional.empty();
     }
@@ -0,0 +1,159 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.bytecode.BytecodeConstants;
+import com.github.natanbc.idk.bytecode.ConditionType;
+import com.github.natanbc.idk.bytecode.FunctionReader;
+import com.github.natanbc.idk.bytecode.RegisterOpcode;
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.runtime.GlobalTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.github.natanbc.idk.interpreter.RegisterInstructions.*;
+
+//FunctionDecoder for register code
+class RegisterDecoder {
+    static FunctionDecoder.Decoded decode(FunctionReader function, GlobalTable globals) {
+        var reader = function.reader();
+        var owner = function.owner();
+        var registers = function.localsCount();
+        var codeStart = reader.pos();
+        var opcodes = new ArrayList<RegisterOpcode>();
+        var operands = new ArrayList<int[]>();
+        //byte offset -> decoded index, -1 for offsets that don't start an instruction
+        var offsets = new int[reader.limit() + 1];
+        Arrays.fill(offsets, -1);
+        var size = 0;
+        while(reader.canRead()) {
+            offsets[reader.pos() - codeStart] = size;
+            var op = RegisterOpcode.fromValue(reader.u8());
+            var args = new int[op.argumentTypes.size()];
+            for(var i = 0; i < args.length; i++) {
+                args[i] = switch(op.argumentTypes.get(i).byteSize) {
+                    case 1 -> reader.u8() & 0xFF;
+                    case 2 -> reader.u16() & 0xFFFF;
+                    default -> throw new IllegalStateException("Unsupported argument size");
+                };
+            }
+            opcodes.add(op);
+            operands.add(args);
+            size += decodedSize(op);
+        }
+        offsets[reader.pos() - codeStart] = size;
+        
+        var code = new int[size];
+        var idx = 0;
+        var memberSites = 0;
+        for(var i = 0; i < opcodes.size(); i++) {
+            var op = opcodes.get(i);
+            var args = operands.get(i);
+            switch(op) {
+                case CONSTANT_NIL -> idx = emit(code, idx, CONSTANT_NIL, register(registers, args[0]));
+                case CONSTANT_BOOLEAN -> idx = emit(code, idx, args[1] != 0 ? CONSTANT_TRUE : CONSTANT_FALSE, register(registers, args[0]));
+                //type checked here so the interpreter can load any constant the same way
+                case CONSTANT_LONG -> {
+                    owner.constantLong((short)args[1]);
+                    idx = emit(code, idx, CONSTANT, register(registers, args[0]), args[1]);
+                }
+                case CONSTANT_DOUBLE -> {
+                    owner.constantDouble((short)args[1]);
+                    idx = emit(code, idx, CONSTANT, register(registers, args[0]), args[1]);
+                }
+                case CONSTANT_STRING -> {
+                    owner.constantString((short)args[1]);
+                    idx = emit(code, idx, CONSTANT, register(registers, args[0]), args[1]);
+                }
+                case CREATE_ARRAY -> idx = emit(code, idx, CREATE_ARRAY, register(registers, args[0]),
+                        range(registers, args[1], args[2]), args[2]);
+                case CREATE_OBJECT -> idx = emit(code, idx, CREATE_OBJECT, register(registers, args[0]),
+                        range(registers, args[1], args[2] * 2), args[2]);
+                case CREATE_RANGE -> idx = emit(code, idx, CREATE_RANGE, register(registers, args[0]),
+                        register(registers, args[1]), register(registers, args[2]));
+                case MOVE -> idx = emit(code, idx, MOVE, register(registers, args[0]), register(registers, args[1]));
+                case LOAD_UPVALUE -> idx = emit(code, idx, LOAD_UPVALUE, register(registers, args[0]), args[1]);
+                case STORE_UPVALUE -> idx = emit(code, idx, STORE_UPVALUE, args[0], register(registers, args[1]));
+                case LOAD_GLOBAL -> idx = emit(code, idx, LOAD_GLOBAL, register(registers, args[0]),
+                        globals.slot(owner.constantString((short)args[1])));
+                case STORE_GLOBAL -> idx = emit(code, idx, STORE_GLOBAL,
+                        globals.slot(owner.constantString((short)args[0])), register(registers, args[1]));
+                case LOAD_MEMBER -> idx = emit(code, idx, LOAD_MEMBER, register(registers, args[0]),
+                        register(registers, args[1]), register(registers, args[2]), memberSites++);
+                case STORE_MEMBER -> idx = emit(code, idx, STORE_MEMBER, register(registers, args[0]),
+                        register(registers, args[1]), register(registers, args[2]), memberSites++);
+                case CALL -> idx = emit(code, idx, CALL, register(registers, args[0]),
+                        range(registers, args[1], args[2] + 1), args[2]);
+                case RETURN -> idx = emit(code, idx, RETURN, register(registers, args[0]));
+                case BINARY_OPERATION -> idx = emit(code, idx, switch(BytecodeConstants.binaryOp((byte)args[0])) {
+                    case ADD -> ADD;
+                    case SUB -> SUB;
+                    case MUL -> MUL;
+                    case DIV -> DIV;
+                    case MOD -> MOD;
+                    case POW -> POW;
+                    case EQ -> EQ;
+                    case NEQ -> NEQ;
+                    case GREATER -> GREATER;
+                    case GREATER_EQ -> GREATER_EQ;
+                    case SMALLER -> SMALLER;
+                    case SMALLER_EQ -> SMALLER_EQ;
+                    case AND -> AND;
+                    case OR -> OR;
+                }, register(registers, args[1]), register(registers, args[2]), register(registers, args[3]));
+                case UNARY_OPERATION -> idx = emit(code, idx, switch(BytecodeConstants.unaryOp((byte)args[0])) {
+                    case NEG -> NEG;
+                    case NEGATE -> NEGATE;
+                }, register(registers, args[1]), register(registers, args[2]));
+                case JUMP -> idx = emit(code, idx, JUMP, target(offsets, args[0]));
+                case JUMP_IF -> idx = emit(code, idx,
+                        ConditionType.type((byte)args[0]) == ConditionType.IF_TRUE ? JUMP_IF_TRUE : JUMP_IF_FALSE,
+                        register(registers, args[1]), target(offsets, args[2]));
+                case LOAD_FUNCTION -> idx = emit(code, idx, LOAD_FUNCTION, register(registers, args[0]), args[1]);
+                case THROW -> idx = emit(code, idx, THROW, register(registers, args[0]));
+                case TEST_TYPE -> idx = emit(code, idx, TEST_TYPE, register(registers, args[1]),
+                        register(registers, args[2]), ValueType.type((byte)args[0]).ordinal());
+            }
+        }
+        return new FunctionDecoder.Decoded(code, memberSites, offsets);
+    }
+    
+    private static int decodedSize(RegisterOpcode op) {
+        return switch(op) {
+            //the first argument is folded into the opcode
+            case CONSTANT_BOOLEAN, BINARY_OPERATION, UNARY_OPERATION, JUMP_IF -> op.argumentTypes.size();
+            //the member cache index is added
+            case LOAD_MEMBER, STORE_MEMBER -> 2 + op.argumentTypes.size();
+            default -> 1 + op.argumentTypes.size();
+        };
+    }
+    
+    //registers are checked once here instead of on every access
+    private static int register(int registers, int r) {
+        if(r >= registers) {
+            throw new IllegalStateException("Invalid register " + r + ", function has " + registers);
+        }
+        return r;
+    }
+    
+    private static int range(int registers, int first, int count) {
+        if(count > 0) {
+            register(registers, first + count - 1);
+        }
+        return first;
+    }
+    
+    private static int target(int[] offsets, int position) {
+        if(position >= offsets.length || offsets[position] < 0) {
+            throw new IllegalStateException("Jump to invalid position " + position);
+        }
+        return offsets[position];
+    }
+    
+    private static int emit(int[] code, int idx, int op, int... args) {
+        code[idx++] = op;
+        for(var arg : args) {
+            code[idx++] = arg;
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.natanbc.idk.interpreter;
+
+//decoded RegisterOpcode code, same layout as Instructions. operands named
+//after registers hold the register number
+final class RegisterInstructions {
+    //[dst]
+    static final int CONSTANT_NIL = 0;
+    //[dst]
+    static final int CONSTANT_TRUE = 1;
+    //[dst]
+    static final int CONSTANT_FALSE = 2;
+    //[dst, constant pool index]
+    static final int CONSTANT = 3;
+    //[dst, first, count]
+    static final int CREATE_ARRAY = 4;
+    //[dst, first, pair count]
+    static final int CREATE_OBJECT = 5;
+    //[dst, from, to]
+    static final int CREATE_RANGE = 6;
+    //[dst, src]
+    static final int MOVE = 7;
+    //[dst, upvalue idx]
+    static final int LOAD_UPVALUE = 8;
+    //[upvalue idx, src]
+    static final int STORE_UPVALUE = 9;
+    //[dst, global slot]
+    static final int LOAD_GLOBAL = 10;
+    //[global slot, src]
+    static final int STORE_GLOBAL = 11;
+    //[dst, target, key, member cache index]
+    static final int LOAD_MEMBER = 12;
+    //[target, key, value, member cache index]
+    static final int STORE_MEMBER = 13;
+    //[dst, first, arg count]
+    static final int CALL = 14;
+    //[src]
+    static final int RETURN = 15;
+    //[dst, lhs, rhs]
+    static final int ADD = 16;
+    static final int SUB = 17;
+    static final int MUL = 18;
+    static final int DIV = 19;
+    static final int MOD = 20;
+    static final int POW = 21;
+    static final int EQ = 22;
+    static final int NEQ = 23;
+    static final int GREATER = 24;
+    static final int GREATER_EQ = 25;
+    static final int SMALLER = 26;
+    static final int SMALLER_EQ = 27;
+    static final int AND = 28;
+    static final int OR = 29;
+    //[dst, src]
+    static final int NEG = 30;
+    static final int NEGATE = 31;
+    //[target]
+    static final int JUMP = 32;
+    //[src, target]
+    static final int JUMP_IF_TRUE = 33;
+    //[src, target]
+    static final int JUMP_IF_FALSE = 34;
+    //[dst, function number]
+    static final int LOAD_FUNCTION = 35;
+    //[src]
+    static final int THROW = 36;
+    //[dst, src, value type ordinal]
+    static final int TEST_TYPE = 37;
+    
+    private RegisterInstructions() {}
+}
@@ -0,0 +1,295 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.bytecode.BytecodeReader;
+import com.github.natanbc.idk.bytecode.FunctionReader;
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.runtime.ArrayValue;
+import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.GlobalTable;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.MemberCache;
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.ObjectValue;
+import com.github.natanbc.idk.runtime.RangeValue;
+import com.github.natanbc.idk.runtime.StringValue;
+import com.github.natanbc.idk.runtime.ThrownError;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.github.natanbc.idk.interpreter.RegisterInstructions.*;
+
+//runs code written by RegisterConverter. registers are the locals of the
+//FunctionState, so captured ones are shared with closures like in the other engines
+public class RegisterInterpreter {
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+    
+    private final BytecodeReader reader;
+    private final Value[] constants;
+    private final GlobalTable globals;
+    private final Function[] functions;
+    private final Function entrypoint;
+    
+    public RegisterInterpreter(byte[] code, Map<String, Value> globals) {
+        this(ByteBuffer.wrap(code), globals);
+    }
+    
+    //the buffer is read in place, and may be a mapped file
+    public RegisterInterpreter(ByteBuffer code, Map<String, Value> globals) {
+        this.reader = new BytecodeReader(code);
+        if(!reader.registers()) {
+            throw new IllegalArgumentException("Not register code, use BytecodeInterpreter");
+        }
+        this.constants = new Value[reader.constantCount()];
+        for(var i = 0; i < constants.length; i++) {
+            var c = reader.constant((short)i);
+            if(c instanceof Long) {
+                constants[i] = LongValue.of((Long)c);
+            } else if(c instanceof Double) {
+                constants[i] = DoubleValue.of((Double)c);
+            } else {
+                constants[i] = StringValue.of((String)c);
+            }
+        }
+        this.globals = GlobalTable.of(globals);
+        this.functions = new Function[reader.functionCount()];
+        this.entrypoint = function(reader.entrypoint() & 0xFFFF);
+    }
+    
+    public Value run() {
+        return execute(entrypoint, new FunctionState(globals, entrypoint.metadata.localsCount(), entrypoint.capturedLocals));
+    }
+    
+    private Value execute(Function function, FunctionState state) {
+        var code = function.code;
+        var memberCaches = function.memberCaches;
+        var constants = this.constants;
+        var ip = 0;
+        while(ip < code.length) {
+            switch(code[ip]) {
+                case CONSTANT_NIL -> {
+                    state.setLocal(code[ip + 1], NilValue.instance());
+                    ip += 2;
+                }
+                case CONSTANT_TRUE -> {
+                    state.setLocal(code[ip + 1], BooleanValue.of(true));
+                    ip += 2;
+                }
+                case CONSTANT_FALSE -> {
+                    state.setLocal(code[ip + 1], BooleanValue.of(false));
+                    ip += 2;
+                }
+                case CONSTANT -> {
+                    state.setLocal(code[ip + 1], constants[code[ip + 2]]);
+                    ip += 3;
+                }
+                case CREATE_ARRAY -> {
+                    var first = code[ip + 2];
+                    var arr = new Value[code[ip + 3]];
+                    for(var i = 0; i < arr.length; i++) {
+                        arr[i] = state.getLocal(first + i);
+                    }
+                    state.setLocal(code[ip + 1], new ArrayValue(arr));
+                    ip += 4;
+                }
+                case CREATE_OBJECT -> {
+                    var obj = new ObjectValue();
+                    //insert in source order, so literals get the same shape as in other engines
+                    var first = code[ip + 2];
+                    var end = first + 2 * code[ip + 3];
+                    for(var i = first; i < end; i += 2) {
+                        obj.set(state.getLocal(i), state.getLocal(i + 1));
+                    }
+                    state.setLocal(code[ip + 1], obj);
+                    ip += 4;
+                }
+                case CREATE_RANGE -> {
+                    var from = state.getLocal(code[ip + 2]);
+                    var to = state.getLocal(code[ip + 3]);
+                    state.setLocal(code[ip + 1], RangeValue.of(from.asLong().getValue(), to.asLong().getValue()));
+                    ip += 4;
+                }
+                case MOVE -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]));
+                    ip += 3;
+                }
+                case LOAD_UPVALUE -> {
+                    state.setLocal(code[ip + 1], state.getUpvalue(code[ip + 2]));
+                    ip += 3;
+                }
+                case STORE_UPVALUE -> {
+                    state.setUpvalue(code[ip + 1], state.getLocal(code[ip + 2]));
+                    ip += 3;
+                }
+                case LOAD_GLOBAL -> {
+                    state.setLocal(code[ip + 1], state.getGlobal(code[ip + 2]));
+                    ip += 3;
+                }
+                case STORE_GLOBAL -> {
+                    state.setGlobal(code[ip + 1], state.getLocal(code[ip + 2]));
+                    ip += 3;
+                }
+                case LOAD_MEMBER -> {
+                    var m = state.getLocal(code[ip + 2]);
+                    var k = state.getLocal(code[ip + 3]);
+                    state.setLocal(code[ip + 1], memberCaches[code[ip + 4]].get(m, k));
+                    ip += 5;
+                }
+                case STORE_MEMBER -> {
+                    var m = state.getLocal(code[ip + 1]);
+                    var k = state.getLocal(code[ip + 2]);
+                    var v = state.getLocal(code[ip + 3]);
+                    memberCaches[code[ip + 4]].set(m, k, v);
+                    ip += 5;
+                }
+                case CALL -> {
+                    var first = code[ip + 2];
+                    var args = new Value[code[ip + 3]];
+                    for(var i = 0; i < args.length; i++) {
+                        args[i] = state.getLocal(first + 1 + i);
+                    }
+                    state.setLocal(code[ip + 1], state.getLocal(first).asFunction().call(args));
+                    ip += 4;
+                }
+                case RETURN -> {
+                    return state.getLocal(code[ip + 1]);
+                }
+                case ADD -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).add(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case SUB -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).sub(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case MUL -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).mul(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case DIV -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).div(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case MOD -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).mod(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case POW -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).pow(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case EQ -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).eq(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case NEQ -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).neq(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case GREATER -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).greater(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case GREATER_EQ -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).greaterEq(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case SMALLER -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).smaller(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case SMALLER_EQ -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).smallerEq(state.getLocal(code[ip + 3])));
+                    ip += 4;
+                }
+                case AND, OR -> {
+                    //short circuiting is done with jumps, this only converts the rhs
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 3]).asBoolean());
+                    ip += 4;
+                }
+                case NEG -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).neg());
+                    ip += 3;
+                }
+                case NEGATE -> {
+                    state.setLocal(code[ip + 1], state.getLocal(code[ip + 2]).negate());
+                    ip += 3;
+                }
+                case JUMP -> ip = code[ip + 1];
+                case JUMP_IF_TRUE -> ip = state.getLocal(code[ip + 1]).asBoolean().getValue() ? code[ip + 2] : ip + 3;
+                case JUMP_IF_FALSE -> ip = state.getLocal(code[ip + 1]).asBoolean().getValue() ? ip + 3 : code[ip + 2];
+                case LOAD_FUNCTION -> {
+                    var m = function(code[ip + 2]);
+                    var annotations = m.metadata.annotations()
+                            .stream().map(StringValue::of).collect(Collectors.toList());
+                    var upvalues = state.closure(m.upvalues);
+                    var fn = new com.github.natanbc.idk.runtime.Function(m.metadata.name(), annotations) {
+                        @Override
+                        public Value call(Value[] args) {
+                            var s = new FunctionState(globals, m.metadata.localsCount(), m.capturedLocals, upvalues);
+                            s.fillFromArgs(args, m.metadata.argumentCount(), m.metadata.varargs());
+                            return execute(m, s);
+                        }
+                    };
+                    state.setLocal(code[ip + 1], fn);
+                    ip += 3;
+                }
+                case THROW -> throw new ThrownError(state.getLocal(code[ip + 1]));
+                case TEST_TYPE -> {
+                    var v = state.getLocal(code[ip + 2]);
+                    state.setLocal(code[ip + 1], BooleanValue.of(switch(VALUE_TYPES[code[ip + 3]]) {
+                        case NIL -> v.isNil();
+                        case BOOLEAN -> v.isBoolean();
+                        case LONG -> v.isLong();
+                        case DOUBLE -> v.isDouble();
+                        case STRING -> v.isString();
+                        case ARRAY -> v.isArray();
+                        case OBJECT -> v.isObject();
+                        case RANGE -> v.isRange();
+                    }));
+                    ip += 4;
+                }
+                default -> throw new IllegalStateException("Unknown instruction " + code[ip]);
+            }
+        }
+        return NilValue.instance();
+    }
+    
+    //functions are only decoded when first loaded, same as in BytecodeInterpreter
+    private Function function(int id) {
+        var fn = functions[id];
+        return fn != null ? fn : load(id);
+    }
+    
+    private synchronized Function load(int id) {
+        var fn = functions[id];
+        if(fn == null) {
+            fn = functions[id] = new Function(reader.function(id), globals);
+        }
+        return fn;
+    }
+    
+    private static class Function {
+        private final FunctionReader metadata;
+        private final int[] code;
+        private final MemberCache[] memberCaches;
+        private final int[] capturedLocals;
+        private final int[] upvalues;
+        
+        Function(FunctionReader reader, GlobalTable globals) {
+            this.metadata = reader;
+            this.capturedLocals = reader.capturedLocals();
+            this.upvalues = reader.upvalues();
+            var decoded = RegisterDecoder.decode(reader, globals);
+            this.code = decoded.code;
+            this.memberCaches = new MemberCache[decoded.memberSites];
+            for(var i = 0; i < memberCaches.length; i++) {
+                memberCaches[i] = new MemberCache();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.bytecode.convert.BytecodeConverter;
+import com.github.natanbc.idk.bytecode.convert.IrMapping;
+import com.github.natanbc.idk.ir.misc.IrRoot;
+import com.github.natanbc.idk.runtime.ExecutionContext;
+import com.github.natanbc.idk.runtime.Value;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+//starts running code in the bytecode interpreter, which starts up fast, and
+//compiles functions once they're called often enough or spend enough time in
+//loops. closures already created switch to the compiled code on their next call,
+//and hot loops switch to compiled code in the middle of the call running them.
+//compiling is done by the given HotCodeCompiler
+public class TieredInterpreter {
+    private final BytecodeInterpreter interpreter;
+    
+    public TieredInterpreter(IrRoot root, ExecutionContext context, HotCodeCompiler compiler) {
+        this(root, context.getGlobals(), compiler);
+    }
+    
+    public TieredInterpreter(IrRoot root, Map<String, Value> globals, HotCodeCompiler compiler) {
+        var ir = new IrMapping();
+        this.interpreter = new BytecodeInterpreter(ByteBuffer.wrap(BytecodeConverter.convert(root, ir)), globals, ir, compiler);
+    }
+    
+    public Value run() {
+        return interpreter.run();
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.interpreter.tree.NodeBuilder;
+import com.github.natanbc.idk.interpreter.tree.RootNode;
+import com.github.natanbc.idk.ir.misc.IrRoot;
+import com.github.natanbc.idk.runtime.ExecutionContext;
+import com.github.natanbc.idk.runtime.GlobalTable;
+import com.github.natanbc.idk.runtime.Value;
+
+import java.util.Map;
+
+//executes the ir by converting it to a tree of nodes which specialize
+//themselves on the types they see (see Node). the tree is kept between runs,
+//so running the same interpreter again starts with the specialized nodes
+public class TreeInterpreter {
+    private final RootNode root;
+    private final GlobalTable globals;
+    
+    public TreeInterpreter(IrRoot root, ExecutionContext context) {
+        this(root, context.getGlobals());
+    }
+    
+    public TreeInterpreter(IrRoot root, Map<String, Value> globals) {
+        this.globals = GlobalTable.of(globals);
+        this.root = NodeBuilder.build(root, this.globals);
+    }
+    
+    public Value run() {
+        return root.run(globals);
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.natanbc.idk.interpreter;
+
+import com.github.natanbc.idk.runtime.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//operand stack shared by all bytecode frames running on a thread.
+//frames reserve their max stack size on entry and release it on exit, so
+//a frame's slots never move. when the current chunk can't fit a frame a new
+//chunk is used instead of growing (and copying) the existing one.
+final class ValueStack {
+    private static final int CHUNK_SIZE = 4096;
+    private static final ThreadLocal<ValueStack> STACKS = ThreadLocal.withInitial(ValueStack::new);
+    
+    private final List<Value[]> chunks = new ArrayList<>();
+    private int chunk;
+    private Value[] values;
+    private int top;
+    
+    private ValueStack() {
+        values = new Value[CHUNK_SIZE];
+        chunks.add(values);
+    }
+    
+    static ValueStack current() {
+        return STACKS.get();
+    }
+    
+    //must be called before enter, the returned value is passed to exit
+    long mark() {
+        return ((long)chunk << 32) | top;
+    }
+    
+    //array containing the slots reserved by the last enter call
+    Value[] values() {
+        return values;
+    }
+    
+    //reserves size slots, returning the index of the first one
+    int enter(int size) {
+        if(top + size > values.length) {
+            chunk++;
+            if(chunk == chunks.size() || chunks.get(chunk).length < size) {
+                var c = new Value[Math.max(CHUNK_SIZE, size)];
+                if(chunk == chunks.size()) {
+                    chunks.add(c);
+                } else {
+                    chunks.set(chunk, c);
+                }
+            }
+            values = chunks.get(chunk);
+            top = 0;
+        }
+        var base = top;
+        top += size;
+        return base;
+    }
+    
+    void exit(long mark) {
+        var markChunk = (int)(mark >>> 32);
+        var markTop = (int)mark;
+        //clear released slots so they don't keep values alive
+        Arrays.fill(values, markChunk == chunk ? markTop : 0, top, null);
+        chunk = markChunk;
+        values = chunks.get(chunk);
+        top = markTop;
+    }
+}
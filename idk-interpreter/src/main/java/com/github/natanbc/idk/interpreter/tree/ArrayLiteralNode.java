@@ -0,0 +1,27 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.ArrayValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class ArrayLiteralNode extends Node {
+    final Node[] values;
+    
+    ArrayLiteralNode(Node[] values) {
+        this.values = adopt(values);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var array = new ArrayValue();
+        for(var i = 0; i < values.length; i++) {
+            array.rawSet(i, values[i].execute(state));
+        }
+        return array;
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        replaceIn(values, child, replacement);
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class AssignGlobalNode extends Node {
+    private final int slot;
+    Node value;
+    
+    AssignGlobalNode(int slot, Node value) {
+        this.slot = slot;
+        this.value = adopt(value);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return state.setGlobal(slot, value.execute(state));
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(value == child) {
+            value = replacement;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class AssignLocalNode extends Node {
+    private final int index;
+    Node value;
+    
+    AssignLocalNode(int index, Node value) {
+        this.index = index;
+        this.value = adopt(value);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return state.setLocal(index, value.execute(state));
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(value == child) {
+            value = replacement;
+        }
+    }
+}
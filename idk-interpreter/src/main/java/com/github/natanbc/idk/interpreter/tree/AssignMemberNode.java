@@ -0,0 +1,36 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.MemberCache;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class AssignMemberNode extends Node {
+    private final MemberCache cache = new MemberCache();
+    Node target;
+    Node key;
+    Node value;
+    
+    AssignMemberNode(Node target, Node key, Node value) {
+        this.target = adopt(target);
+        this.key = adopt(key);
+        this.value = adopt(value);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var t = target.execute(state);
+        var k = key.execute(state);
+        return cache.set(t, k, value.execute(state));
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(target == child) {
+            target = replacement;
+        } else if(key == child) {
+            key = replacement;
+        } else if(value == child) {
+            value = replacement;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//arithmetic and comparison operators. every binary node starts as an
+//UninitializedBinaryNode, which replaces itself with a node for the operand
+//types of its first execution
+abstract class BinaryNode extends Node {
+    final BinaryOperationType type;
+    Node lhs;
+    Node rhs;
+    
+    BinaryNode(BinaryOperationType type, Node lhs, Node rhs) {
+        this.type = type;
+        this.lhs = adopt(lhs);
+        this.rhs = adopt(rhs);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var l = lhs.execute(state);
+        var r = rhs.execute(state);
+        return compute(l, r);
+    }
+    
+    abstract Value compute(Value l, Value r);
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(lhs == child) {
+            lhs = replacement;
+        } else if(rhs == child) {
+            rhs = replacement;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class BodyNode extends Node {
+    final Node[] children;
+    
+    BodyNode(Node[] children) {
+        this.children = adopt(children);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        Value ret = NilValue.instance();
+        for(var n : children) {
+            ret = n.execute(state);
+            if(state.isReturning()) {
+                return ret;
+            }
+        }
+        return ret;
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        replaceIn(children, child, replacement);
+    }
+}
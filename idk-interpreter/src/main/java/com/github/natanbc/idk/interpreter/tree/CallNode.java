@@ -0,0 +1,33 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class CallNode extends Node {
+    Node target;
+    final Node[] arguments;
+    
+    CallNode(Node target, Node[] arguments) {
+        this.target = adopt(target);
+        this.arguments = adopt(arguments);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var t = target.execute(state);
+        var args = new Value[arguments.length];
+        for(var i = 0; i < args.length; i++) {
+            args[i] = arguments[i].execute(state);
+        }
+        return t.asFunction().call(args);
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(target == child) {
+            target = replacement;
+        } else {
+            replaceIn(arguments, child, replacement);
+        }
+    }
+}
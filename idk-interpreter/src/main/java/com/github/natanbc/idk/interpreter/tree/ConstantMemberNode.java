@@ -0,0 +1,30 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.MemberCache;
+import com.github.natanbc.idk.runtime.StringValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//target.name, the key is created once so the cache always matches it by identity
+class ConstantMemberNode extends Node {
+    private final MemberCache cache = new MemberCache();
+    private final StringValue key;
+    Node target;
+    
+    ConstantMemberNode(Node target, StringValue key) {
+        this.target = adopt(target);
+        this.key = key;
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return cache.get(target.execute(state), key);
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(target == child) {
+            target = replacement;
+        }
+    }
+}
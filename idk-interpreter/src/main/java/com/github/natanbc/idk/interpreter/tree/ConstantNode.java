@@ -0,0 +1,17 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class ConstantNode extends Node {
+    private final Value value;
+    
+    ConstantNode(Value value) {
+        this.value = value;
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return value;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.Value;
+
+//both operands were doubles so far, goes generic on anything else
+class DoubleBinaryNode extends BinaryNode {
+    private final Operator operator;
+    
+    DoubleBinaryNode(BinaryOperationType type, Node lhs, Node rhs) {
+        super(type, lhs, rhs);
+        this.operator = operator(type);
+    }
+    
+    @Override
+    Value compute(Value l, Value r) {
+        if(!(l instanceof DoubleValue) || !(r instanceof DoubleValue)) {
+            return replace(new GenericBinaryNode(type, lhs, rhs)).compute(l, r);
+        }
+        return operator.apply(((DoubleValue)l).getValue(), ((DoubleValue)r).getValue());
+    }
+    
+    //resolved once per node instead of switching on every execution
+    private static Operator operator(BinaryOperationType type) {
+        return switch(type) {
+            case ADD -> (a, b) -> DoubleValue.of(a + b);
+            case SUB -> (a, b) -> DoubleValue.of(a - b);
+            case MUL -> (a, b) -> DoubleValue.of(a * b);
+            case DIV -> (a, b) -> DoubleValue.of(a / b);
+            case MOD -> (a, b) -> DoubleValue.of(a % b);
+            case POW -> (a, b) -> DoubleValue.of(Math.pow(a, b));
+            case EQ -> (a, b) -> BooleanValue.of(a == b);
+            case NEQ -> (a, b) -> BooleanValue.of(a != b);
+            case GREATER -> (a, b) -> BooleanValue.of(a > b);
+            case GREATER_EQ -> (a, b) -> BooleanValue.of(a >= b);
+            case SMALLER -> (a, b) -> BooleanValue.of(a < b);
+            case SMALLER_EQ -> (a, b) -> BooleanValue.of(a <= b);
+            default -> throw new UnsupportedOperationException("Unimplemented operator " + type);
+        };
+    }
+    
+    private interface Operator {
+        Value apply(double a, double b);
+    }
+}
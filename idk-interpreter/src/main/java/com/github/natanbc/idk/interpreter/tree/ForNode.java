@@ -0,0 +1,68 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.TypeError;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class ForNode extends Node {
+    private final int variableIndex;
+    Node value;
+    Node body;
+    Node elseBody;
+    
+    ForNode(int variableIndex, Node value, Node body, Node elseBody) {
+        this.variableIndex = variableIndex;
+        this.value = adopt(value);
+        this.body = adopt(body);
+        this.elseBody = adopt(elseBody);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var v = value.execute(state);
+        //ranges are always closed on both ends so the else body never runs
+        if(v.isRange()) {
+            var range = v.asRange();
+            var step = range.getFrom() > range.getTo() ? -1 : 1;
+            Value ret = NilValue.instance();
+            var end = range.getTo() + step;
+            for(var l = range.getFrom(); l != end; l += step) {
+                state.setLocal(variableIndex, LongValue.of(l));
+                ret = body.execute(state);
+                if(state.isReturning()) {
+                    return ret;
+                }
+            }
+            return ret;
+        }
+        if(v.isArray()) {
+            var array = v.asArray();
+            if(array.size() == 0) {
+                return elseBody.execute(state);
+            }
+            Value ret = NilValue.instance();
+            for(var i = 0; i < array.size(); i++) {
+                state.setLocal(variableIndex, array.rawGet(i));
+                ret = body.execute(state);
+                if(state.isReturning()) {
+                    return ret;
+                }
+            }
+            return ret;
+        }
+        throw new TypeError("Bad type as for target: " + v.type());
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(value == child) {
+            value = replacement;
+        } else if(body == child) {
+            body = replacement;
+        } else if(elseBody == child) {
+            elseBody = replacement;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Function;
+import com.github.natanbc.idk.runtime.StringValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+import com.github.natanbc.idk.runtime.internal.ReturnException;
+
+import java.util.List;
+
+//creates a closure. every closure created by this node shares its body, so
+//specializations done by one of them are seen by all
+class FunctionNode extends Node {
+    private final String name;
+    private final List<StringValue> annotations;
+    private final int argumentCount;
+    private final int localsCount;
+    private final boolean varargs;
+    private final int[] capturedLocals;
+    private final int[] upvalues;
+    Node body;
+    
+    FunctionNode(String name, List<StringValue> annotations, int argumentCount, int localsCount, boolean varargs,
+                 int[] capturedLocals, int[] upvalues, Node body) {
+        this.name = name;
+        this.annotations = annotations;
+        this.argumentCount = argumentCount;
+        this.localsCount = localsCount;
+        this.varargs = varargs;
+        this.capturedLocals = capturedLocals;
+        this.upvalues = upvalues;
+        this.body = adopt(body);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var globals = state.getGlobals();
+        var cells = state.closure(upvalues);
+        return new Function(name, annotations) {
+            @Override
+            public Value call(Value[] args) {
+                var s = new FunctionState(globals, localsCount, capturedLocals, cells);
+                s.fillFromArgs(args, argumentCount, varargs);
+                try {
+                    return body.execute(s);
+                } catch(ReturnException e) {
+                    return e.getValue();
+                }
+            }
+        };
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(body == child) {
+            body = replacement;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.runtime.Value;
+
+import java.util.function.BinaryOperator;
+
+class GenericBinaryNode extends BinaryNode {
+    private final BinaryOperator<Value> operator;
+    
+    GenericBinaryNode(BinaryOperationType type, Node lhs, Node rhs) {
+        super(type, lhs, rhs);
+        this.operator = operator(type);
+    }
+    
+    @Override
+    Value compute(Value l, Value r) {
+        return operator.apply(l, r);
+    }
+    
+    private static BinaryOperator<Value> operator(BinaryOperationType type) {
+        return switch(type) {
+            case ADD -> Value::add;
+            case SUB -> Value::sub;
+            case MUL -> Value::mul;
+            case DIV -> Value::div;
+            case MOD -> Value::mod;
+            case POW -> Value::pow;
+            case EQ -> Value::eq;
+            case NEQ -> Value::neq;
+            case GREATER -> Value::greater;
+            case GREATER_EQ -> Value::greaterEq;
+            case SMALLER -> Value::smaller;
+            case SMALLER_EQ -> Value::smallerEq;
+            default -> throw new UnsupportedOperationException("Unimplemented operator " + type);
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class GlobalNode extends Node {
+    private final int slot;
+    
+    GlobalNode(int slot) {
+        this.slot = slot;
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return state.getGlobal(slot);
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class IfNode extends Node {
+    Node condition;
+    Node ifBody;
+    Node elseBody;
+    
+    IfNode(Node condition, Node ifBody, Node elseBody) {
+        this.condition = adopt(condition);
+        this.ifBody = adopt(ifBody);
+        this.elseBody = adopt(elseBody);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return condition.execute(state).asBoolean().getValue()
+                ? ifBody.execute(state)
+                : elseBody.execute(state);
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(condition == child) {
+            condition = replacement;
+        } else if(ifBody == child) {
+            ifBody = replacement;
+        } else if(elseBody == child) {
+            elseBody = replacement;
+        }
+    }
+}
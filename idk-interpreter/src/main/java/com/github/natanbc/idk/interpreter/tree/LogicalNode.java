@@ -0,0 +1,36 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//short circuiting and/or
+class LogicalNode extends Node {
+    private final boolean and;
+    Node lhs;
+    Node rhs;
+    
+    LogicalNode(boolean and, Node lhs, Node rhs) {
+        this.and = and;
+        this.lhs = adopt(lhs);
+        this.rhs = adopt(rhs);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var l = lhs.execute(state).asBoolean().getValue();
+        if(l != and) {
+            return BooleanValue.of(l);
+        }
+        return BooleanValue.of(rhs.execute(state).asBoolean().getValue());
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(lhs == child) {
+            lhs = replacement;
+        } else if(rhs == child) {
+            rhs = replacement;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.Value;
+
+//both operands were longs so far, goes generic on anything else
+class LongBinaryNode extends BinaryNode {
+    private final Operator operator;
+    
+    LongBinaryNode(BinaryOperationType type, Node lhs, Node rhs) {
+        super(type, lhs, rhs);
+        this.operator = operator(type);
+    }
+    
+    @Override
+    Value compute(Value l, Value r) {
+        if(!(l instanceof LongValue) || !(r instanceof LongValue)) {
+            return replace(new GenericBinaryNode(type, lhs, rhs)).compute(l, r);
+        }
+        return operator.apply(((LongValue)l).getValue(), ((LongValue)r).getValue());
+    }
+    
+    //resolved once per node instead of switching on every execution
+    private static Operator operator(BinaryOperationType type) {
+        return switch(type) {
+            case ADD -> (a, b) -> LongValue.of(a + b);
+            case SUB -> (a, b) -> LongValue.of(a - b);
+            case MUL -> (a, b) -> LongValue.of(a * b);
+            case DIV -> (a, b) -> LongValue.of(a / b);
+            case MOD -> (a, b) -> LongValue.of(a % b);
+            case POW -> (a, b) -> LongValue.of((long)Math.pow(a, b));
+            case EQ -> (a, b) -> BooleanValue.of(a == b);
+            case NEQ -> (a, b) -> BooleanValue.of(a != b);
+            case GREATER -> (a, b) -> BooleanValue.of(a > b);
+            case GREATER_EQ -> (a, b) -> BooleanValue.of(a >= b);
+            case SMALLER -> (a, b) -> BooleanValue.of(a < b);
+            case SMALLER_EQ -> (a, b) -> BooleanValue.of(a <= b);
+            default -> throw new UnsupportedOperationException("Unimplemented operator " + type);
+        };
+    }
+    
+    private interface Operator {
+        Value apply(long a, long b);
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.MemberCache;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class MemberNode extends Node {
+    private final MemberCache cache = new MemberCache();
+    Node target;
+    Node key;
+    
+    MemberNode(Node target, Node key) {
+        this.target = adopt(target);
+        this.key = adopt(key);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var t = target.execute(state);
+        return cache.get(t, key.execute(state));
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(target == child) {
+            target = replacement;
+        } else if(key == child) {
+            key = replacement;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//executable node built from the ir. nodes may replace themselves in their
+//parent with a node specialized for the values seen so far, and specialized
+//nodes replace themselves with a generic one once their assumptions stop
+//holding. nodes with children implement replaceChild for the fields they
+//keep them in.
+public abstract class Node {
+    private Node parent;
+    
+    public abstract Value execute(FunctionState state);
+    
+    //makes this node the parent of child
+    <T extends Node> T adopt(T child) {
+        ((Node)child).parent = this;
+        return child;
+    }
+    
+    <T extends Node> T[] adopt(T[] children) {
+        for(var c : children) {
+            ((Node)c).parent = this;
+        }
+        return children;
+    }
+    
+    //replaces this node in its parent. the replacement is returned so the
+    //current execution can use it even if this node was already replaced by
+    //a recursive execution of the same tree
+    <T extends Node> T replace(T replacement) {
+        ((Node)replacement).parent = parent;
+        if(parent != null) {
+            parent.replaceChild(this, replacement);
+        }
+        return replacement;
+    }
+    
+    //swaps child for replacement in the fields of this node. only called on
+    //nodes that adopted child
+    void replaceChild(Node child, Node replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no children");
+    }
+    
+    static void replaceIn(Node[] children, Node child, Node replacement) {
+        for(var i = 0; i < children.length; i++) {
+            if(children[i] == child) {
+                children[i] = replacement;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.IrVisitor;
+import com.github.natanbc.idk.ir.misc.*;
+import com.github.natanbc.idk.ir.operation.IrBinaryOperation;
+import com.github.natanbc.idk.ir.operation.IrUnaryOperation;
+import com.github.natanbc.idk.ir.value.*;
+import com.github.natanbc.idk.ir.variable.*;
+import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.GlobalTable;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.StringValue;
+import com.github.natanbc.idk.runtime.TypeError;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+//builds the node tree for an ir tree. nodes are built unspecialized, they
+//only specialize once executed
+public class NodeBuilder implements IrVisitor<Node> {
+    //table the globals are resolved against
+    private final GlobalTable globals;
+    
+    private NodeBuilder(GlobalTable globals) {
+        this.globals = globals;
+    }
+    
+    public static RootNode build(IrRoot root, GlobalTable globals) {
+        return (RootNode)root.accept(new NodeBuilder(globals));
+    }
+    
+    @Override
+    public Node visitRoot(IrRoot node) {
+        return new RootNode(node.getLocalsCount(), node.getCapturedLocals(), node.getBody().accept(this));
+    }
+    
+    @Override
+    public Node visitBoolean(IrBoolean node) {
+        return new ConstantNode(BooleanValue.of(node.getValue()));
+    }
+    
+    @Override
+    public Node visitDouble(IrDouble node) {
+        return new ConstantNode(DoubleValue.of(node.getValue()));
+    }
+    
+    @Override
+    public Node visitLong(IrLong node) {
+        return new ConstantNode(LongValue.of(node.getValue()));
+    }
+    
+    @Override
+    public Node visitNil(IrNil node) {
+        return new ConstantNode(NilValue.instance());
+    }
+    
+    @Override
+    public Node visitString(IrString node) {
+        return new ConstantNode(StringValue.of(node.getValue()));
+    }
+    
+    @Override
+    public Node visitArrayLiteral(IrArrayLiteral node) {
+        return new ArrayLiteralNode(build(node.getValues()));
+    }
+    
+    @Override
+    public Node visitObjectLiteral(IrObjectLiteral node) {
+        var entries = node.getEntries();
+        var keys = new Node[entries.size()];
+        var values = new Node[entries.size()];
+        for(var i = 0; i < keys.length; i++) {
+            keys[i] = entries.get(i).getKey().accept(this);
+            values[i] = entries.get(i).getValue().accept(this);
+        }
+        return new ObjectLiteralNode(keys, values);
+    }
+    
+    @Override
+    public Node visitUnaryOperation(IrUnaryOperation node) {
+        return new UnaryNode(node.getType(), node.getTarget().accept(this));
+    }
+    
+    @Override
+    public Node visitBinaryOperation(IrBinaryOperation node) {
+        var type = node.getType();
+        var lhs = node.getLhs().accept(this);
+        var rhs = node.getRhs().accept(this);
+        if(type == BinaryOperationType.AND || type == BinaryOperationType.OR) {
+            return new LogicalNode(type == BinaryOperationType.AND, lhs, rhs);
+        }
+        return new UninitializedBinaryNode(type, lhs, rhs);
+    }
+    
+    @Override
+    public Node visitRange(IrRange node) {
+        return new RangeNode(node.getFrom().accept(this), node.getTo().accept(this));
+    }
+    
+    @Override
+    public Node visitLocal(IrLocal node) {
+        return new LocalNode(node.getIndex());
+    }
+    
+    @Override
+    public Node visitUpvalue(IrUpvalue node) {
+        return new UpvalueNode(node.getIndex());
+    }
+    
+    @Override
+    public Node visitGlobal(IrGlobal node) {
+        return new GlobalNode(globals.slot(node.getName()));
+    }
+    
+    @Override
+    public Node visitAssign(IrAssign node) {
+        var target = node.getTarget();
+        var value = node.getValue().accept(this);
+        if(target instanceof IrLocal) {
+            return new AssignLocalNode(((IrLocal)target).getIndex(), value);
+        } else if(target instanceof IrUpvalue) {
+            return new AssignUpvalueNode(((IrUpvalue)target).getIndex(), value);
+        } else if(target instanceof IrGlobal) {
+            return new AssignGlobalNode(globals.slot(((IrGlobal)target).getName()), value);
+        } else if(target instanceof IrMember) {
+            var m = (IrMember)target;
+            return new AssignMemberNode(m.getTarget().accept(this), m.getKey().accept(this), value);
+        } else {
+            throw new TypeError("Can't assign to " + target);
+        }
+    }
+    
+    @Override
+    public Node visitMember(IrMember node) {
+        var target = node.getTarget().accept(this);
+        if(node.getKey() instanceof IrString) {
+            return new ConstantMemberNode(target, StringValue.of(((IrString)node.getKey()).getValue()));
+        }
+        return new MemberNode(target, node.getKey().accept(this));
+    }
+    
+    @Override
+    public Node visitBody(IrBody node) {
+        return new BodyNode(build(node.getChildren()));
+    }
+    
+    @Override
+    public Node visitCall(IrCall node) {
+        return new CallNode(node.getTarget().accept(this), build(node.getArguments()));
+    }
+    
+    @Override
+    public Node visitFunction(IrFunction node) {
+        var annotations = node.getAnnotations().stream()
+                .map(StringValue::of)
+                .collect(Collectors.toUnmodifiableList());
+        return new FunctionNode(
+                node.getName(),
+                annotations,
+                node.getArgumentCount(),
+                node.getLocalsCount(),
+                node.isVarargs(),
+                node.getCapturedLocals(),
+                node.getUpvalues(),
+                node.getBody().accept(this)
+        );
+    }
+    
+    @Override
+    public Node visitIf(IrIf node) {
+        return new IfNode(
+                node.getCondition().accept(this),
+                node.getIfBody().accept(this),
+                node.getElseBody().accept(this)
+        );
+    }
+    
+    @Override
+    public Node visitWhile(IrWhile node) {
+        return new WhileNode(
+                node.getCondition().accept(this),
+                node.getBody().accept(this),
+                node.getElseBody().accept(this)
+        );
+    }
+    
+    @Override
+    public Node visitFor(IrFor node) {
+        return new ForNode(
+                node.getVariableIndex(),
+                node.getValue().accept(this),
+                node.getBody().accept(this),
+                node.getElseBody().accept(this)
+        );
+    }
+    
+    @Override
+    public Node visitReturn(IrReturn node) {
+        return new ReturnNode(node.getValue().accept(this), node.isStructured());
+    }
+    
+    @Override
+    public Node visitThrow(IrThrow node) {
+        return new ThrowNode(node.getValue().accept(this));
+    }
+    
+    private Node[] build(Collection<? extends IrNode> nodes) {
+        return nodes.stream().map(n -> n.accept(this)).toArray(Node[]::new);
+    }
+}
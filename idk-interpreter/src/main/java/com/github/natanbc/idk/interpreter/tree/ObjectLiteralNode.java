@@ -0,0 +1,30 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.ObjectValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class ObjectLiteralNode extends Node {
+    final Node[] keys;
+    final Node[] values;
+    
+    ObjectLiteralNode(Node[] keys, Node[] values) {
+        this.keys = adopt(keys);
+        this.values = adopt(values);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var object = new ObjectValue();
+        for(var i = 0; i < keys.length; i++) {
+            object.set(keys[i].execute(state), values[i].execute(state));
+        }
+        return object;
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        replaceIn(keys, child, replacement);
+        replaceIn(values, child, replacement);
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.RangeValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class RangeNode extends Node {
+    Node from;
+    Node to;
+    
+    RangeNode(Node from, Node to) {
+        this.from = adopt(from);
+        this.to = adopt(to);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return RangeValue.of(
+                from.execute(state).asLong().getValue(),
+                to.execute(state).asLong().getValue()
+        );
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(from == child) {
+            from = replacement;
+        } else if(to == child) {
+            to = replacement;
+        }
+    }
+}
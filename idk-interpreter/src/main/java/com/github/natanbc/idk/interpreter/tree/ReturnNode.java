@@ -0,0 +1,31 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+import com.github.natanbc.idk.runtime.internal.ReturnException;
+
+class ReturnNode extends Node {
+    private final boolean structured;
+    Node value;
+    
+    ReturnNode(Node value, boolean structured) {
+        this.value = adopt(value);
+        this.structured = structured;
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var v = value.execute(state);
+        if(structured) {
+            return state.returnValue(v);
+        }
+        throw new ReturnException(v);
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(value == child) {
+            value = replacement;
+        }
+    }
+}
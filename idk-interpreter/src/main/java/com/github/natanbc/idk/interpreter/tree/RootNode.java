@@ -0,0 +1,39 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+import com.github.natanbc.idk.runtime.internal.ReturnException;
+
+import java.util.Map;
+
+public class RootNode extends Node {
+    private final int localsCount;
+    private final int[] capturedLocals;
+    Node body;
+    
+    RootNode(int localsCount, int[] capturedLocals, Node body) {
+        this.localsCount = localsCount;
+        this.capturedLocals = capturedLocals;
+        this.body = adopt(body);
+    }
+    
+    public Value run(Map<String, Value> globals) {
+        return execute(new FunctionState(globals, localsCount, capturedLocals));
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        try {
+            return body.execute(state);
+        } catch(ReturnException e) {
+            return e.getValue();
+        }
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(body == child) {
+            body = replacement;
+        }
+    }
+}
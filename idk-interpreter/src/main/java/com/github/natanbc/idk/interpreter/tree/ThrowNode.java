@@ -0,0 +1,25 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.ThrownError;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class ThrowNode extends Node {
+    Node value;
+    
+    ThrowNode(Node value) {
+        this.value = adopt(value);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        throw new ThrownError(value.execute(state));
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(value == child) {
+            value = replacement;
+        }
+    }
+}
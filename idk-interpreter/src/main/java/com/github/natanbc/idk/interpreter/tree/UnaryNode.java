@@ -0,0 +1,31 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.UnaryOperationType;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class UnaryNode extends Node {
+    private final UnaryOperationType type;
+    Node target;
+    
+    UnaryNode(UnaryOperationType type, Node target) {
+        this.type = type;
+        this.target = adopt(target);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        var value = target.execute(state);
+        return switch(type) {
+            case NEG -> value.neg();
+            case NEGATE -> value.negate();
+        };
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(target == child) {
+            target = replacement;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.common.BinaryOperationType;
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.Value;
+
+class UninitializedBinaryNode extends BinaryNode {
+    UninitializedBinaryNode(BinaryOperationType type, Node lhs, Node rhs) {
+        super(type, lhs, rhs);
+    }
+    
+    @Override
+    Value compute(Value l, Value r) {
+        BinaryNode specialized;
+        if(l instanceof LongValue && r instanceof LongValue) {
+            specialized = new LongBinaryNode(type, lhs, rhs);
+        } else if(l instanceof DoubleValue && r instanceof DoubleValue) {
+            specialized = new DoubleBinaryNode(type, lhs, rhs);
+        } else {
+            specialized = new GenericBinaryNode(type, lhs, rhs);
+        }
+        return replace(specialized).compute(l, r);
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class UpvalueNode extends Node {
+    private final int index;
+    
+    UpvalueNode(int index) {
+        this.index = index;
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        return state.getUpvalue(index);
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.natanbc.idk.interpreter.tree;
+
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+class WhileNode extends Node {
+    Node condition;
+    Node body;
+    Node elseBody;
+    
+    WhileNode(Node condition, Node body, Node elseBody) {
+        this.condition = adopt(condition);
+        this.body = adopt(body);
+        this.elseBody = adopt(elseBody);
+    }
+    
+    @Override
+    public Value execute(FunctionState state) {
+        Value ret = NilValue.instance();
+        var executed = false;
+        while(condition.execute(state).asBoolean().getValue()) {
+            executed = true;
+            ret = body.execute(state);
+            if(state.isReturning()) {
+                return ret;
+            }
+        }
+        if(!executed) {
+            ret = elseBody.execute(state);
+        }
+        return ret;
+    }
+    
+    @Override
+    void replaceChild(Node child, Node replacement) {
+        if(condition == child) {
+            condition = replacement;
+        } else if(body == child) {
+            body = replacement;
+        } else if(elseBody == child) {
+            elseBody = replacement;
+        }
+    }
+}
@@ -25,9 +25,13 @@ import java.util.Map;
 
 class ActualIrConverter implements AstVisitor<IrNode> {
     private final FunctionScope scope;
+    //whether the node being converted is only nested in bodies, if branches and
+    //loop bodies of its function, see IrReturn#isStructured
+    private final boolean statement;
     
-    ActualIrConverter(FunctionScope scope) {
+    ActualIrConverter(FunctionScope scope, boolean statement) {
         this.scope = scope;
+        this.statement = statement;
     }
     
     @Override
@@ -145,7 +149,7 @@ class ActualIrConverter implements AstVisitor<IrNode> {
     @Override
     public IrNode visitBody(AstBody node) {
         var r = new ArrayList<IrNode>(node.getChildren().size());
-        var s = innerScope();
+        var s = innerStatement();
         for(var v : node.getChildren()) {
             r.add(v.accept(s));
         }
@@ -168,7 +172,7 @@ class ActualIrConverter implements AstVisitor<IrNode> {
         for(String argument : node.getArguments()) {
             newScope.declareLocal(argument);
         }
-        var ir = node.getBody().accept(new ActualIrConverter(newScope));
+        var ir = node.getBody().accept(new ActualIrConverter(newScope, true));
         var name = node.getName();
         var fn = new IrFunction(
                 name,
@@ -176,7 +180,9 @@ class ActualIrConverter implements AstVisitor<IrNode> {
                 newScope.localsCount(),
                 ir,
                 node.isVarargs(),
-                node.getAnnotations()
+                node.getAnnotations(),
+                newScope.capturedLocals(),
+                newScope.upvalues()
         );
         if(name != null) {
             if(node.isLocal()) {
@@ -190,12 +196,12 @@ class ActualIrConverter implements AstVisitor<IrNode> {
     
     @Override
     public IrNode visitIf(AstIf node) {
-        return new IrIf(node.getCondition().accept(innerScope()), node.getIfBody().accept(innerScope()), node.getElseBody().accept(innerScope()));
+        return new IrIf(node.getCondition().accept(innerScope()), node.getIfBody().accept(innerStatement()), node.getElseBody().accept(innerStatement()));
     }
     
     @Override
     public IrNode visitWhile(AstWhile node) {
-        return new IrWhile(node.getCondition().accept(innerScope()), node.getBody().accept(innerScope()), node.getElseBody().accept(innerScope()));
+        return new IrWhile(node.getCondition().accept(innerScope()), node.getBody().accept(innerStatement()), node.getElseBody().accept(innerStatement()));
     }
     
     @Override
@@ -236,22 +242,22 @@ class ActualIrConverter implements AstVisitor<IrNode> {
             return new IrFor(
                     loadNode.getIndex(),
                     node.getValue().accept(innerScope()),
-                    node.getBody().accept(innerScope()),
-                    node.getElseBody().accept(innerScope())
+                    node.getBody().accept(innerStatement()),
+                    node.getElseBody().accept(innerStatement())
             );
         } else {
             return new IrFor(
                     loadNode.getIndex(),
                     node.getValue().accept(innerScope()),
-                    new IrBody(List.of(setup, node.getBody().accept(innerScope()))),
-                    node.getElseBody().accept(innerScope())
+                    new IrBody(List.of(setup, node.getBody().accept(innerStatement()))),
+                    node.getElseBody().accept(innerStatement())
             );
         }
     }
     
     @Override
     public IrNode visitReturn(AstReturn node) {
-        return new IrReturn(node.getValue().accept(innerScope()));
+        return new IrReturn(node.getValue().accept(innerScope()), statement);
     }
     
     @Override
@@ -303,7 +309,12 @@ class ActualIrConverter implements AstVisitor<IrNode> {
     }
     
     private ActualIrConverter innerScope() {
-        return new ActualIrConverter(scope.innerScope());
+        return new ActualIrConverter(scope.innerScope(), false);
+    }
+    
+    //inner scope for nodes in the same position (statement or not) as the current one
+    private ActualIrConverter innerStatement() {
+        return new ActualIrConverter(scope.innerScope(), statement);
     }
     
     private static String uniqueKey(Object identifier) {
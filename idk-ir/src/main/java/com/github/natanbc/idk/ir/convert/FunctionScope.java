@@ -7,6 +7,7 @@ import com.github.natanbc.idk.ir.variable.IrUpvalue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
 
 class FunctionScope {
     private static final String UNUSED_NAME = null;
@@ -14,16 +15,20 @@ class FunctionScope {
     private final List<String> declaredLocals = new ArrayList<>();
     private final FunctionScope parent;
     private final FunctionScope outer;
+    //shared by every block scope of the same function
+    private final Captures captures;
     
     private FunctionScope(FunctionScope outer, Void v) {
         this.parent = outer.parent;
         this.outer = outer;
+        this.captures = outer.captures;
         this.declaredLocals.addAll(outer.declaredLocals);
     }
     
     FunctionScope(FunctionScope parent) {
         this.parent = parent;
         this.outer = null;
+        this.captures = new Captures();
     }
     
     FunctionScope innerScope() {
@@ -34,6 +39,16 @@ class FunctionScope {
         return declaredLocals.size();
     }
     
+    //locals of this function used by nested functions, sorted
+    int[] capturedLocals() {
+        return captures.locals.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    //sources of the upvalues of this function, see IrFunction#getUpvalues
+    int[] upvalues() {
+        return captures.upvalues.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
     IrLocal declareLocal(String name) {
         if(outer != null) {
             outer.declareLocal(UNUSED_NAME);
@@ -47,9 +62,9 @@ class FunctionScope {
         if(local != null) {
             return local;
         }
-        var upvalue = findUpvalue(name, 0);
-        if(upvalue != null) {
-            return upvalue;
+        var upvalue = findUpvalue(name);
+        if(upvalue >= 0) {
+            return new IrUpvalue(upvalue);
         }
         return new IrGlobal(name);
     }
@@ -62,14 +77,36 @@ class FunctionScope {
         return null;
     }
     
-    private IrNode findUpvalue(String name, int level) {
-        var idx = declaredLocals.indexOf(name);
+    //index of the upvalue of this function holding the given variable of an
+    //enclosing function, adding it (and marking the variable as captured) if
+    //needed. -1 if no enclosing function has such a variable
+    private int findUpvalue(String name) {
+        if(parent == null) {
+            return -1;
+        }
+        var idx = parent.declaredLocals.indexOf(name);
         if(idx >= 0) {
-            return new IrUpvalue(level, idx);
+            parent.captures.locals.add(idx);
+            return captures.upvalue(idx);
         }
-        if(parent == null) {
-            return null;
+        var up = parent.findUpvalue(name);
+        if(up < 0) {
+            return -1;
+        }
+        return captures.upvalue(~up);
+    }
+    
+    private static class Captures {
+        final TreeSet<Integer> locals = new TreeSet<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        
+        int upvalue(int source) {
+            var idx = upvalues.indexOf(source);
+            if(idx < 0) {
+                idx = upvalues.size();
+                upvalues.add(source);
+            }
+            return idx;
         }
-        return parent.findUpvalue(name, level + 1);
     }
 }
@@ -139,7 +139,7 @@ public class IrConverter implements AstVisitor<IrNode> {
     
     private static IrNode convertAndWrap(AstNode node) {
         var scope = new FunctionScope(null);
-        var ir = node.accept(new ActualIrConverter(scope));
-        return new IrRoot(scope.localsCount(), ir);
+        var ir = node.accept(new ActualIrConverter(scope, true));
+        return new IrRoot(scope.localsCount(), ir, scope.capturedLocals());
     }
 }
@@ -3,6 +3,7 @@ package com.github.natanbc.idk.ir.misc;
 import com.github.natanbc.idk.ir.IrNode;
 import com.github.natanbc.idk.ir.IrVisitor;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -13,14 +14,19 @@ public class IrFunction implements IrNode {
     private final IrNode body;
     private final boolean varargs;
     private final List<String> annotations;
+    private final int[] capturedLocals;
+    private final int[] upvalues;
     
-    public IrFunction(String name, int argumentCount, int localsCount, IrNode body, boolean varargs, List<String> annotations) {
+    public IrFunction(String name, int argumentCount, int localsCount, IrNode body, boolean varargs, List<String> annotations,
+                      int[] capturedLocals, int[] upvalues) {
         this.name = name;
         this.argumentCount = argumentCount;
         this.localsCount = localsCount;
         this.body = body;
         this.varargs = varargs;
         this.annotations = annotations;
+        this.capturedLocals = capturedLocals;
+        this.upvalues = upvalues;
     }
     
     public String getName() {
@@ -47,6 +53,18 @@ public class IrFunction implements IrNode {
         return annotations;
     }
     
+    //locals of this function that are upvalues of a nested function, sorted
+    public int[] getCapturedLocals() {
+        return capturedLocals;
+    }
+    
+    //where each upvalue comes from when the function is created: a value v >= 0
+    //is local v of the enclosing function, which is one of its captured locals,
+    //while a negative value v is upvalue ~v of the enclosing function
+    public int[] getUpvalues() {
+        return upvalues;
+    }
+    
     @Override
     public <T> T accept(IrVisitor<T> visitor) {
         return visitor.visitFunction(this);
@@ -54,7 +72,8 @@ public class IrFunction implements IrNode {
     
     @Override
     public int hashCode() {
-        return Objects.hashCode(name) ^ argumentCount ^ localsCount ^ body.hashCode() ^ Boolean.hashCode(varargs) ^ annotations.hashCode();
+        return Objects.hashCode(name) ^ argumentCount ^ localsCount ^ body.hashCode() ^ Boolean.hashCode(varargs) ^ annotations.hashCode()
+                ^ Arrays.hashCode(capturedLocals) ^ Arrays.hashCode(upvalues);
     }
     
     @Override
@@ -64,11 +83,13 @@ public class IrFunction implements IrNode {
         }
         var o = (IrFunction)obj;
         return Objects.equals(o.name, name) && o.argumentCount == argumentCount && o.localsCount == localsCount
-                && o.body.equals(body) && o.varargs == varargs && o.annotations.equals(annotations);
+                && o.body.equals(body) && o.varargs == varargs && o.annotations.equals(annotations)
+                && Arrays.equals(o.capturedLocals, capturedLocals) && Arrays.equals(o.upvalues, upvalues);
     }
     
     @Override
     public String toString() {
-        return "Function(" + name + ", " + argumentCount + ", " + localsCount + ", " + body + ", " + varargs + ", " + annotations + ")";
+        return "Function(" + name + ", " + argumentCount + ", " + localsCount + ", " + body + ", " + varargs + ", " + annotations + ", "
+                + Arrays.toString(capturedLocals) + ", " + Arrays.toString(upvalues) + ")";
     }
 }
@@ -5,15 +5,24 @@ import com.github.natanbc.idk.ir.IrVisitor;
 
 public class IrReturn implements IrNode {
     private final IrNode value;
+    private final boolean structured;
     
-    public IrReturn(IrNode value) {
+    public IrReturn(IrNode value, boolean structured) {
         this.value = value;
+        this.structured = structured;
     }
     
     public IrNode getValue() {
         return value;
     }
     
+    //true if the only nodes between the function (or root) and this return are
+    //bodies, if branches and loop bodies, which lets engines unwind it by
+    //returning normally instead of throwing
+    public boolean isStructured() {
+        return structured;
+    }
+    
     @Override
     public <T> T accept(IrVisitor<T> visitor) {
         return visitor.visitReturn(this);
@@ -21,16 +30,16 @@ public class IrReturn implements IrNode {
     
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return value.hashCode() ^ Boolean.hashCode(structured);
     }
     
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof IrReturn && ((IrReturn) obj).value.equals(value);
+        return obj instanceof IrReturn && ((IrReturn) obj).value.equals(value) && ((IrReturn) obj).structured == structured;
     }
     
     @Override
     public String toString() {
-        return "Return(" + value + ")";
+        return "Return(" + value + ", " + structured + ")";
     }
 }
@@ -3,13 +3,17 @@ package com.github.natanbc.idk.ir.misc;
 import com.github.natanbc.idk.ir.IrNode;
 import com.github.natanbc.idk.ir.IrVisitor;
 
+import java.util.Arrays;
+
 public class IrRoot implements IrNode {
     private final int localsCount;
     private final IrNode body;
+    private final int[] capturedLocals;
     
-    public IrRoot(int localsCount, IrNode body) {
+    public IrRoot(int localsCount, IrNode body, int[] capturedLocals) {
         this.localsCount = localsCount;
         this.body = body;
+        this.capturedLocals = capturedLocals;
     }
     
     public int getLocalsCount() {
@@ -20,6 +24,11 @@ public class IrRoot implements IrNode {
         return body;
     }
     
+    //locals that are upvalues of a function, sorted
+    public int[] getCapturedLocals() {
+        return capturedLocals;
+    }
+    
     @Override
     public <T> T accept(IrVisitor<T> visitor) {
         return visitor.visitRoot(this);
@@ -27,7 +36,7 @@ public class IrRoot implements IrNode {
     
     @Override
     public int hashCode() {
-        return localsCount ^ body.hashCode();
+        return localsCount ^ body.hashCode() ^ Arrays.hashCode(capturedLocals);
     }
     
     @Override
@@ -36,11 +45,11 @@ public class IrRoot implements IrNode {
             return false;
         }
         var o = (IrRoot)obj;
-        return o.localsCount == localsCount && o.body.equals(body);
+        return o.localsCount == localsCount && o.body.equals(body) && Arrays.equals(o.capturedLocals, capturedLocals);
     }
     
     @Override
     public String toString() {
-        return "Root(" + localsCount + ", " + body + ")";
+        return "Root(" + localsCount + ", " + body + ", " + Arrays.toString(capturedLocals) + ")";
     }
 }
@@ -3,19 +3,14 @@ package com.github.natanbc.idk.ir.variable;
 import com.github.natanbc.idk.ir.IrNode;
 import com.github.natanbc.idk.ir.IrVisitor;
 
+//variable of an enclosing function, index is in the upvalues of the current function
 public class IrUpvalue implements IrNode {
-    private final int level;
     private final int index;
     
-    public IrUpvalue(int level, int index) {
-        this.level = level;
+    public IrUpvalue(int index) {
         this.index = index;
     }
     
-    public int getLevel() {
-        return level;
-    }
-    
     public int getIndex() {
         return index;
     }
@@ -27,7 +22,7 @@ public class IrUpvalue implements IrNode {
     
     @Override
     public int hashCode() {
-        return level ^ index;
+        return index;
     }
     
     @Override
@@ -36,11 +31,11 @@ public class IrUpvalue implements IrNode {
             return false;
         }
         var o = (IrUpvalue)obj;
-        return o.level == level && o.index == index;
+        return o.index == index;
     }
     
     @Override
     public String toString() {
-        return "Upvalue(" + level + ", " + index + ")";
+        return "Upvalue(" + index + ")";
     }
 }
@@ -0,0 +1,144 @@
+package com.github.natanbc.idk.jvm;
+
+import com.github.natanbc.idk.bytecode.util.ByteWriter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+//minimal class file writer, only supporting what the generated classes need.
+//classes are written with version 49 so no stack map frames are required,
+//the verifier infers the types itself.
+class ClassWriter {
+    private static final int VERSION = 49;
+    private static final int ACC_FINAL_SUPER = 0x0030;
+    static final int MAX_CODE_LENGTH = 0xFFFF;
+    
+    private final ByteWriter pool = new ByteWriter();
+    private final Map<String, Integer> entries = new HashMap<>();
+    private final ByteWriter methods = new ByteWriter();
+    private final int thisClass;
+    private final int superClass;
+    private final int iface;
+    private int poolSize = 1;
+    private int methodCount;
+    
+    ClassWriter(String name, String superName, String iface) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.iface = classRef(iface);
+    }
+    
+    int utf8(String value) {
+        return entry("U" + value, w -> {
+            w.u8(1);
+            w.utf(value);
+        });
+    }
+    
+    int integer(int value) {
+        return entry("I" + value, w -> {
+            w.u8(3);
+            w.u32(value);
+        });
+    }
+    
+    int classRef(String internalName) {
+        var name = utf8(internalName);
+        return entry("C" + internalName, w -> {
+            w.u8(7);
+            w.u16(name);
+        });
+    }
+    
+    int methodRef(String owner, String name, String descriptor) {
+        return ref(10, owner, name, descriptor);
+    }
+    
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return ref(11, owner, name, descriptor);
+    }
+    
+    void method(int access, String name, String descriptor, int maxStack, int maxLocals, ByteWriter code) {
+        var length = code.size();
+        if(length > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("Method " + name + " is too large (" + length + " bytes)");
+        }
+        var nameIdx = utf8(name);
+        var descriptorIdx = utf8(descriptor);
+        var codeIdx = utf8("Code");
+        methods.u16(access);
+        methods.u16(nameIdx);
+        methods.u16(descriptorIdx);
+        methods.u16(1);
+        methods.u16(codeIdx);
+        methods.u32(12 + length);
+        methods.u16(maxStack);
+        methods.u16(maxLocals);
+        methods.u32(length);
+        append(methods, code);
+        //exception table and attributes
+        methods.u16(0);
+        methods.u16(0);
+        methodCount++;
+    }
+    
+    byte[] toByteArray() {
+        var out = new ByteWriter();
+        out.u32(0xCAFEBABE);
+        out.u16(0);
+        out.u16(VERSION);
+        out.u16(poolSize);
+        append(out, pool);
+        out.u16(ACC_FINAL_SUPER);
+        out.u16(thisClass);
+        out.u16(superClass);
+        out.u16(1);
+        out.u16(iface);
+        //fields
+        out.u16(0);
+        out.u16(methodCount);
+        append(out, methods);
+        //attributes
+        out.u16(0);
+        return out.write();
+    }
+    
+    private int ref(int tag, String owner, String name, String descriptor) {
+        var ownerIdx = classRef(owner);
+        var nameIdx = utf8(name);
+        var descriptorIdx = utf8(descriptor);
+        var nameAndType = entry("N" + name + ":" + descriptor, w -> {
+            w.u8(12);
+            w.u16(nameIdx);
+            w.u16(descriptorIdx);
+        });
+        return entry(tag + owner + "." + name + ":" + descriptor, w -> {
+            w.u8(tag);
+            w.u16(ownerIdx);
+            w.u16(nameAndType);
+        });
+    }
+    
+    private int entry(String key, Consumer<ByteWriter> writer) {
+        var idx = entries.get(key);
+        if(idx != null) {
+            return idx;
+        }
+        if(poolSize == 0xFFFF) {
+            throw new IllegalStateException("Constant pool too large");
+        }
+        writer.accept(pool);
+        entries.put(key, poolSize);
+        return poolSize++;
+    }
+    
+    private static void append(ByteWriter to, ByteWriter from) {
+        try {
+            from.write(to.sink());
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
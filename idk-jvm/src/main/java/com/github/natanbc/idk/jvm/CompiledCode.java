@@ -0,0 +1,9 @@
+package com.github.natanbc.idk.jvm;
+
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//implemented by the generated classes, dispatching to the method of the given function
+interface CompiledCode {
+    Value call(int function, JvmCompiler program, FunctionState state);
+}
@@ -0,0 +1,210 @@
+package com.github.natanbc.idk.jvm;
+
+import com.github.natanbc.idk.bytecode.BytecodeReader;
+import com.github.natanbc.idk.bytecode.FunctionReader;
+import com.github.natanbc.idk.bytecode.util.ByteWriter;
+import com.github.natanbc.idk.interpreter.BytecodeInterpreter;
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.GlobalTable;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.MemberCache;
+import com.github.natanbc.idk.runtime.StringValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+//compiles idk bytecode into a hidden class with one static method per function,
+//letting the jvm jit compile scripts like any other java code
+public class JvmCompiler {
+    private static final String CLASS_NAME = "com/github/natanbc/idk/jvm/CompiledScript";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String COMPILED_CODE = "com/github/natanbc/idk/jvm/CompiledCode";
+    private static final String ILLEGAL_ARGUMENT = "java/lang/IllegalArgumentException";
+    
+    final Value[] constants;
+    final MemberCache[] memberCaches;
+    private final GlobalTable globals;
+    private final Function[] functions;
+    private final Function entrypoint;
+    private final CompiledCode code;
+    private final ByteBuffer bytecode;
+    //bodies of the functions too large to be compiled, run by an interpreter
+    //created on first use
+    private final MethodHandle[] interpreted;
+    private BytecodeInterpreter interpreter;
+    
+    public JvmCompiler(byte[] code, Map<String, Value> globals) {
+        this(ByteBuffer.wrap(code), globals);
+    }
+    
+    //the buffer is read in place, and may be a mapped file
+    public JvmCompiler(ByteBuffer code, Map<String, Value> globals) {
+        this.bytecode = code;
+        var reader = new BytecodeReader(code);
+        if(reader.registers()) {
+            throw new IllegalArgumentException("Register code isn't supported");
+        }
+        this.constants = new Value[reader.constantCount()];
+        for(var i = 0; i < constants.length; i++) {
+            var c = reader.constant((short)i);
+            if(c instanceof Long) {
+                constants[i] = LongValue.of((Long)c);
+            } else if(c instanceof Double) {
+                constants[i] = DoubleValue.of((Double)c);
+            } else {
+                constants[i] = StringValue.of((String)c);
+            }
+        }
+        this.globals = GlobalTable.of(globals);
+        var cw = new ClassWriter(CLASS_NAME, OBJECT, COMPILED_CODE);
+        this.functions = new Function[reader.functionCount()];
+        this.interpreted = new MethodHandle[functions.length];
+        var readers = new FunctionReader[functions.length];
+        var memberSites = 0;
+        for(var i = 0; i < functions.length; i++) {
+            var fr = reader.readFunction();
+            var id = fr.id() & 0xFFFF;
+            functions[id] = new Function(id, fr);
+            readers[id] = fr;
+            memberSites = MethodGenerator.generate(cw, fr, this.globals, memberSites);
+        }
+        this.memberCaches = new MemberCache[memberSites];
+        for(var i = 0; i < memberCaches.length; i++) {
+            memberCaches[i] = new MemberCache();
+        }
+        this.entrypoint = functions[reader.entrypoint() & 0xFFFF];
+        constructor(cw);
+        dispatcher(cw, readers);
+        this.code = define(cw.toByteArray());
+    }
+    
+    public Value run() {
+        var state = new FunctionState(globals, entrypoint.localsCount, entrypoint.capturedLocals);
+        return code.call(entrypoint.id, this, state);
+    }
+    
+    //called by the generated code to create a closure of the given function
+    Value closure(int id, FunctionState state) {
+        var f = functions[id];
+        var upvalues = state.closure(f.upvalues);
+        return new com.github.natanbc.idk.runtime.Function(f.name, f.annotations) {
+            @Override
+            public Value call(Value[] args) {
+                var s = new FunctionState(globals, f.localsCount, f.capturedLocals, upvalues);
+                s.fillFromArgs(args, f.argumentCount, f.varargs);
+                return code.call(f.id, JvmCompiler.this, s);
+            }
+        };
+    }
+    
+    //called by the generated code for functions too large for a jvm method
+    Value interpret(int id, FunctionState state) {
+        var body = interpreted[id];
+        if(body == null) {
+            body = interpreted[id] = interpreter().functionBody(id);
+        }
+        try {
+            return (Value)body.invokeExact(state);
+        } catch(RuntimeException | Error e) {
+            throw e;
+        } catch(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+    
+    private synchronized BytecodeInterpreter interpreter() {
+        if(interpreter == null) {
+            interpreter = new BytecodeInterpreter(bytecode, globals);
+        }
+        return interpreter;
+    }
+    
+    private static CompiledCode define(byte[] bytes) {
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return (CompiledCode)constructor.invoke();
+        } catch(RuntimeException | Error e) {
+            throw e;
+        } catch(Throwable t) {
+            throw new IllegalStateException("Unable to define compiled class", t);
+        }
+    }
+    
+    private static void constructor(ClassWriter cw) {
+        var code = new ByteWriter();
+        //aload_0, invokespecial Object.<init>, return
+        code.u8(0x2A);
+        code.u8(0xB7);
+        code.u16(cw.methodRef(OBJECT, "<init>", "()V"));
+        code.u8(0xB1);
+        cw.method(0x0001, "<init>", "()V", 1, 1, code);
+    }
+    
+    //CompiledCode.call: tableswitch on the function id, calling its method
+    private static void dispatcher(ClassWriter cw, FunctionReader[] functions) {
+        var code = new ByteWriter();
+        //iload_1, tableswitch
+        code.u8(0x1B);
+        code.u8(0xAA);
+        while(code.size() % 4 != 0) {
+            code.u8(0);
+        }
+        var table = code.size();
+        //default, low, high, offsets
+        code.u32(0);
+        code.u32(0);
+        code.u32(functions.length - 1);
+        for(var i = 0; i < functions.length; i++) {
+            code.u32(0);
+        }
+        for(var i = 0; i < functions.length; i++) {
+            code.patchU32(table + 12 + i * 4, code.size() - 1);
+            //aload_2, aload_3, invokestatic, areturn
+            code.u8(0x2C);
+            code.u8(0x2D);
+            code.u8(0xB8);
+            code.u16(cw.methodRef(CLASS_NAME, MethodGenerator.methodName(functions[i]), MethodGenerator.METHOD_DESCRIPTOR));
+            code.u8(0xB0);
+        }
+        code.patchU32(table, code.size() - 1);
+        //new, dup, invokespecial IllegalArgumentException.<init>, athrow
+        code.u8(0xBB);
+        code.u16(cw.classRef(ILLEGAL_ARGUMENT));
+        code.u8(0x59);
+        code.u8(0xB7);
+        code.u16(cw.methodRef(ILLEGAL_ARGUMENT, "<init>", "()V"));
+        code.u8(0xBF);
+        cw.method(0x0001, "call", "(IL" + MethodGenerator.PROGRAM + ";L" + MethodGenerator.FUNCTION_STATE
+                + ";)L" + MethodGenerator.VALUE + ";", 2, 4, code);
+    }
+    
+    private static class Function {
+        private final int id;
+        private final String name;
+        private final List<StringValue> annotations;
+        private final int argumentCount;
+        private final int localsCount;
+        private final boolean varargs;
+        private final int[] capturedLocals;
+        private final int[] upvalues;
+        
+        Function(int id, FunctionReader reader) {
+            this.id = id;
+            this.name = reader.name();
+            this.annotations = reader.annotations().stream().map(StringValue::of).collect(Collectors.toList());
+            this.argumentCount = reader.argumentCount();
+            this.localsCount = reader.localsCount();
+            this.varargs = reader.varargs();
+            this.capturedLocals = reader.capturedLocals();
+            this.upvalues = reader.upvalues();
+        }
+    }
+}
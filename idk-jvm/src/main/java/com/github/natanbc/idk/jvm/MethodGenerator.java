@@ -0,0 +1,420 @@
+package com.github.natanbc.idk.jvm;
+
+import com.github.natanbc.idk.bytecode.BytecodeConstants;
+import com.github.natanbc.idk.bytecode.ConditionType;
+import com.github.natanbc.idk.bytecode.FunctionReader;
+import com.github.natanbc.idk.bytecode.Opcode;
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.bytecode.util.ByteWriter;
+import com.github.natanbc.idk.runtime.GlobalTable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//translates the code of a function into a static method of the generated class.
+//the idk operand stack maps directly to the jvm operand stack, and every
+//instruction becomes a short sequence calling Value methods or Ops helpers.
+class MethodGenerator {
+    static final String VALUE = "com/github/natanbc/idk/runtime/Value";
+    static final String FUNCTION_STATE = "com/github/natanbc/idk/runtime/internal/FunctionState";
+    static final String PROGRAM = "com/github/natanbc/idk/jvm/JvmCompiler";
+    static final String METHOD_DESCRIPTOR = "(L" + PROGRAM + ";L" + FUNCTION_STATE + ";)L" + VALUE + ";";
+    private static final String OPS = "com/github/natanbc/idk/jvm/Ops";
+    private static final String THROWN_ERROR = "com/github/natanbc/idk/runtime/ThrownError";
+    //stack slots used by an instruction on top of the values it operates on
+    private static final int EXTRA_STACK = 4;
+    
+    private static final int ACC_PRIVATE_STATIC = 0x000A;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int DUP_X1 = 0x5A;
+    private static final int SWAP = 0x5F;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9A;
+    private static final int ARETURN = 0xB0;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int INVOKEINTERFACE = 0xB9;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int NEW = 0xBB;
+    private static final int ANEWARRAY = 0xBD;
+    private static final int ATHROW = 0xBF;
+    private static final int GOTO_W = 0xC8;
+    
+    private final ClassWriter cw;
+    //table the globals are resolved against
+    private final GlobalTable globals;
+    private final ByteWriter code = new ByteWriter();
+    //jvm positions of the goto_w instructions and the instruction index they jump to
+    private final List<int[]> jumps = new ArrayList<>();
+    private int memberSites;
+    
+    private MethodGenerator(ClassWriter cw, GlobalTable globals, int memberSites) {
+        this.cw = cw;
+        this.globals = globals;
+        this.memberSites = memberSites;
+    }
+    
+    static String methodName(FunctionReader function) {
+        var name = function.name();
+        var id = "f" + (function.id() & 0xFFFF);
+        if(name == null) {
+            return id;
+        }
+        //keep the name visible in stack traces, without characters methods can't have
+        return id + "$" + name.replaceAll("[.;\\[/<>]", "_");
+    }
+    
+    //adds the method for the given function, numbering its member access sites
+    //starting at memberSites. returns the number of sites used so far.
+    //functions whose code doesn't fit in a jvm method get a method running them
+    //in the interpreter instead
+    static int generate(ClassWriter cw, FunctionReader function, GlobalTable globals, int memberSites) {
+        var g = new MethodGenerator(cw, globals, memberSites);
+        var maxStack = g.translate(function);
+        if(g.code.size() > ClassWriter.MAX_CODE_LENGTH) {
+            g = new MethodGenerator(cw, globals, memberSites);
+            g.interpret(function);
+            maxStack = 3;
+        }
+        cw.method(ACC_PRIVATE_STATIC, methodName(function), METHOD_DESCRIPTOR, maxStack + EXTRA_STACK, 2, g.code);
+        return g.memberSites;
+    }
+    
+    //program.interpret(id, state)
+    private void interpret(FunctionReader function) {
+        code.u8(ALOAD_0);
+        pushInt(function.id() & 0xFFFF);
+        code.u8(ALOAD_1);
+        invoke(INVOKEVIRTUAL, PROGRAM, "interpret", "(IL" + FUNCTION_STATE + ";)L" + VALUE + ";");
+        code.u8(ARETURN);
+    }
+    
+    private int translate(FunctionReader function) {
+        var reader = function.reader();
+        var owner = function.owner();
+        var codeStart = reader.pos();
+        var opcodes = new ArrayList<Opcode>();
+        var operands = new ArrayList<int[]>();
+        //byte offset -> instruction index, -1 for offsets that don't start an instruction
+        var offsets = new int[reader.limit() + 1];
+        Arrays.fill(offsets, -1);
+        while(reader.canRead()) {
+            offsets[reader.pos() - codeStart] = opcodes.size();
+            var op = Opcode.fromValue(reader.u8());
+            var args = new int[op.argumentTypes.size()];
+            for(var i = 0; i < args.length; i++) {
+                args[i] = switch(op.argumentTypes.get(i).byteSize) {
+                    case 1 -> reader.u8() & 0xFF;
+                    case 2 -> reader.u16() & 0xFFFF;
+                    default -> throw new IllegalStateException("Unsupported argument size");
+                };
+            }
+            opcodes.add(op);
+            operands.add(args);
+        }
+        var count = opcodes.size();
+        offsets[reader.pos() - codeStart] = count;
+        //jump targets are rewritten to instruction indices
+        for(var i = 0; i < count; i++) {
+            var args = operands.get(i);
+            switch(opcodes.get(i)) {
+                case JUMP -> args[0] = target(offsets, args[0]);
+                case JUMP_IF, JUMP_IF_LESS -> args[1] = target(offsets, args[1]);
+                default -> {}
+            }
+        }
+        
+        //stack depth before each instruction, -1 for unreachable ones. index
+        //count is the end of the code
+        var depths = new int[count + 1];
+        Arrays.fill(depths, -1);
+        var maxDepth = 0;
+        var pending = new ArrayDeque<Integer>();
+        depths[0] = 0;
+        pending.add(0);
+        while(!pending.isEmpty()) {
+            var i = pending.poll();
+            if(i == count) continue;
+            var op = opcodes.get(i);
+            var args = operands.get(i);
+            var depth = depths[i] - pops(op, args);
+            if(depth < 0) {
+                throw new IllegalStateException("Stack underflow at instruction " + i);
+            }
+            depth += pushes(op);
+            maxDepth = Math.max(maxDepth, depth);
+            switch(op) {
+                case JUMP -> flow(depths, pending, args[0], depth);
+                case JUMP_IF, JUMP_IF_LESS -> {
+                    flow(depths, pending, args[1], depth);
+                    flow(depths, pending, i + 1, depth);
+                }
+                case RETURN, THROW -> {}
+                default -> flow(depths, pending, i + 1, depth);
+            }
+        }
+        
+        var positions = new int[count + 1];
+        for(var i = 0; i < count; i++) {
+            positions[i] = code.size();
+            //unreachable code is never jumped to, so it can be left out
+            if(depths[i] < 0) continue;
+            var args = operands.get(i);
+            switch(opcodes.get(i)) {
+                case CONSTANT_NIL -> ops("nil", "()L" + VALUE + ";");
+                case CONSTANT_BOOLEAN -> {
+                    pushInt(args[0] != 0 ? 1 : 0);
+                    ops("bool", "(Z)L" + VALUE + ";");
+                }
+                case CONSTANT_LONG, CONSTANT_DOUBLE, CONSTANT_STRING -> {
+                    switch(opcodes.get(i)) {
+                        case CONSTANT_LONG -> owner.constantLong((short)args[0]);
+                        case CONSTANT_DOUBLE -> owner.constantDouble((short)args[0]);
+                        default -> owner.constantString((short)args[0]);
+                    }
+                    code.u8(ALOAD_0);
+                    pushInt(args[0]);
+                    ops("constant", "(L" + PROGRAM + ";I)L" + VALUE + ";");
+                }
+                case CREATE_ARRAY -> {
+                    toArray(args[0]);
+                    ops("array", "([L" + VALUE + ";)L" + VALUE + ";");
+                }
+                case CREATE_OBJECT -> {
+                    toArray(args[0] * 2);
+                    ops("object", "([L" + VALUE + ";)L" + VALUE + ";");
+                }
+                case CREATE_RANGE -> ops("range", "(L" + VALUE + ";L" + VALUE + ";)L" + VALUE + ";");
+                case LOAD_LOCAL -> load("getLocal", args[0]);
+                case STORE_LOCAL -> store("storeLocal", args[0]);
+                case LOAD_UPVALUE -> load("getUpvalue", args[0]);
+                case STORE_UPVALUE -> store("storeUpvalue", args[0]);
+                case LOAD_GLOBAL -> load("getGlobal", globals.slot(owner.constantString((short)args[0])));
+                case STORE_GLOBAL -> store("storeGlobal", globals.slot(owner.constantString((short)args[0])));
+                case LOAD_MEMBER -> {
+                    code.u8(ALOAD_0);
+                    pushInt(memberSites++);
+                    ops("loadMember", "(L" + VALUE + ";L" + VALUE + ";L" + PROGRAM + ";I)L" + VALUE + ";");
+                }
+                case STORE_MEMBER -> {
+                    code.u8(ALOAD_0);
+                    pushInt(memberSites++);
+                    ops("storeMember", "(L" + VALUE + ";L" + VALUE + ";L" + VALUE + ";L" + PROGRAM + ";I)V");
+                }
+                case CALL -> {
+                    toArray(args[0]);
+                    ops("call", "(L" + VALUE + ";[L" + VALUE + ";)L" + VALUE + ";");
+                }
+                case RETURN -> code.u8(ARETURN);
+                case BINARY_OPERATION -> {
+                    var type = BytecodeConstants.binaryOp((byte)args[0]);
+                    switch(type) {
+                        case AND, OR -> ops("logical", "(L" + VALUE + ";L" + VALUE + ";)L" + VALUE + ";");
+                        default -> value(switch(type) {
+                            case ADD -> "add";
+                            case SUB -> "sub";
+                            case MUL -> "mul";
+                            case DIV -> "div";
+                            case MOD -> "mod";
+                            case POW -> "pow";
+                            case EQ -> "eq";
+                            case NEQ -> "neq";
+                            case GREATER -> "greater";
+                            case GREATER_EQ -> "greaterEq";
+                            case SMALLER -> "smaller";
+                            case SMALLER_EQ -> "smallerEq";
+                            default -> throw new AssertionError();
+                        }, "(L" + VALUE + ";)L" + VALUE + ";", 2);
+                    }
+                }
+                case UNARY_OPERATION -> value(switch(BytecodeConstants.unaryOp((byte)args[0])) {
+                    case NEG -> "neg";
+                    case NEGATE -> "negate";
+                }, "()L" + VALUE + ";", 1);
+                case JUMP -> jump(args[0]);
+                case JUMP_IF -> {
+                    ops("isTrue", "(L" + VALUE + ";)Z");
+                    //skip the goto_w if the condition doesn't hold
+                    code.u8(ConditionType.type((byte)args[0]) == ConditionType.IF_TRUE ? IFEQ : IFNE);
+                    code.u16(8);
+                    jump(args[1]);
+                }
+                case LOAD_FUNCTION -> {
+                    code.u8(ALOAD_0);
+                    pushInt(args[0]);
+                    code.u8(ALOAD_1);
+                    invoke(INVOKEVIRTUAL, PROGRAM, "closure", "(IL" + FUNCTION_STATE + ";)L" + VALUE + ";");
+                }
+                case POP -> code.u8(POP);
+                case DUP -> code.u8(DUP);
+                case THROW -> {
+                    //..., value -> ..., error, error, value
+                    code.u8(NEW);
+                    code.u16(cw.classRef(THROWN_ERROR));
+                    code.u8(DUP_X1);
+                    code.u8(SWAP);
+                    invoke(INVOKESPECIAL, THROWN_ERROR, "<init>", "(L" + VALUE + ";)V");
+                    code.u8(ATHROW);
+                }
+                case TEST_TYPE -> {
+                    pushInt(ValueType.type((byte)args[0]).ordinal());
+                    ops("testType", "(L" + VALUE + ";I)L" + VALUE + ";");
+                }
+                case SIZE -> ops("size", "(L" + VALUE + ";)L" + VALUE + ";");
+                case SWAP2 -> code.u8(SWAP);
+                case ADD_LOCAL_LOCAL -> {
+                    load("getLocal", args[0]);
+                    load("getLocal", args[1]);
+                    value("add", "(L" + VALUE + ";)L" + VALUE + ";", 2);
+                }
+                case INC_LOCAL -> {
+                    owner.constantLong((short)args[1]);
+                    load("getLocal", args[0]);
+                    code.u8(ALOAD_0);
+                    pushInt(args[1]);
+                    ops("constant", "(L" + PROGRAM + ";I)L" + VALUE + ";");
+                    value("add", "(L" + VALUE + ";)L" + VALUE + ";", 2);
+                    store("storeLocal", args[0]);
+                }
+                case JUMP_IF_LESS -> {
+                    value("smaller", "(L" + VALUE + ";)L" + VALUE + ";", 2);
+                    ops("isTrue", "(L" + VALUE + ";)Z");
+                    code.u8(ConditionType.type((byte)args[0]) == ConditionType.IF_TRUE ? IFEQ : IFNE);
+                    code.u16(8);
+                    jump(args[1]);
+                }
+            }
+        }
+        positions[count] = code.size();
+        //falling off the end returns the value on top of the stack, if any
+        if(depths[count] >= 0) {
+            if(depths[count] == 0) {
+                ops("nil", "()L" + VALUE + ";");
+            }
+            code.u8(ARETURN);
+        }
+        for(var j : jumps) {
+            code.patchU32(j[0] + 1, positions[j[1]] - j[0]);
+        }
+        return maxDepth;
+    }
+    
+    private static int pops(Opcode op, int[] args) {
+        return switch(op) {
+            case CREATE_ARRAY -> args[0];
+            case CREATE_OBJECT -> args[0] * 2;
+            case CALL -> args[0] + 1;
+            case CREATE_RANGE, LOAD_MEMBER, BINARY_OPERATION, SWAP2, JUMP_IF_LESS -> 2;
+            case STORE_MEMBER -> 3;
+            case STORE_LOCAL, STORE_UPVALUE, STORE_GLOBAL, RETURN, UNARY_OPERATION,
+                    JUMP_IF, POP, DUP, THROW, TEST_TYPE, SIZE -> 1;
+            default -> 0;
+        };
+    }
+    
+    private static int pushes(Opcode op) {
+        return switch(op) {
+            case STORE_LOCAL, STORE_UPVALUE, STORE_GLOBAL, STORE_MEMBER, RETURN, JUMP, JUMP_IF, POP, THROW,
+                    INC_LOCAL, JUMP_IF_LESS -> 0;
+            case DUP, SWAP2 -> 2;
+            default -> 1;
+        };
+    }
+    
+    private static void flow(int[] depths, ArrayDeque<Integer> pending, int target, int depth) {
+        if(depths[target] < 0) {
+            depths[target] = depth;
+            pending.add(target);
+        } else if(depths[target] != depth) {
+            throw new IllegalStateException("Inconsistent stack size at instruction " + target);
+        }
+    }
+    
+    private static int target(int[] offsets, int position) {
+        if(position >= offsets.length || offsets[position] < 0) {
+            throw new IllegalStateException("Jump to invalid position " + position);
+        }
+        return offsets[position];
+    }
+    
+    private void jump(int target) {
+        jumps.add(new int[] { code.size(), target });
+        code.u8(GOTO_W);
+        code.u32(0);
+    }
+    
+    //..., <count values> -> ..., <array>
+    private void toArray(int count) {
+        pushInt(count);
+        code.u8(ANEWARRAY);
+        code.u16(cw.classRef(VALUE));
+        for(var i = count - 1; i >= 0; i--) {
+            //..., value, array -> ..., array, array, idx, value
+            code.u8(DUP_X1);
+            code.u8(SWAP);
+            pushInt(i);
+            code.u8(SWAP);
+            code.u8(AASTORE);
+        }
+    }
+    
+    private void load(String method, int idx) {
+        code.u8(ALOAD_1);
+        pushInt(idx);
+        invoke(INVOKEVIRTUAL, FUNCTION_STATE, method, "(I)L" + VALUE + ";");
+    }
+    
+    private void store(String method, int idx) {
+        code.u8(ALOAD_1);
+        pushInt(idx);
+        ops(method, "(L" + VALUE + ";L" + FUNCTION_STATE + ";I)V");
+    }
+    
+    private void ops(String method, String descriptor) {
+        invoke(INVOKESTATIC, OPS, method, descriptor);
+    }
+    
+    private void value(String method, String descriptor, int argumentSlots) {
+        code.u8(INVOKEINTERFACE);
+        code.u16(cw.interfaceMethodRef(VALUE, method, descriptor));
+        code.u8(argumentSlots);
+        code.u8(0);
+    }
+    
+    private void invoke(int opcode, String owner, String method, String descriptor) {
+        code.u8(opcode);
+        code.u16(cw.methodRef(owner, method, descriptor));
+    }
+    
+    private void pushInt(int value) {
+        if(value >= -1 && value <= 5) {
+            code.u8(ICONST_0 + value);
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.u8(BIPUSH);
+            code.u8((byte)value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.u8(SIPUSH);
+            code.u16((short)value);
+        } else {
+            var idx = cw.integer(value);
+            if(idx <= 0xFF) {
+                code.u8(LDC);
+                code.u8(idx);
+            } else {
+                code.u8(LDC_W);
+                code.u16(idx);
+            }
+        }
+    }
+}
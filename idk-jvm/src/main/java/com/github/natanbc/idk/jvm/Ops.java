@@ -0,0 +1,97 @@
+package com.github.natanbc.idk.jvm;
+
+import com.github.natanbc.idk.bytecode.ValueType;
+import com.github.natanbc.idk.runtime.ArrayValue;
+import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.ObjectValue;
+import com.github.natanbc.idk.runtime.RangeValue;
+import com.github.natanbc.idk.runtime.Value;
+import com.github.natanbc.idk.runtime.internal.FunctionState;
+
+//operations called by the generated code. arguments are in the order they're
+//on the operand stack, and every value is typed as Value so the verifier
+//never has to merge unrelated value classes
+class Ops {
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+    
+    static Value nil() {
+        return NilValue.instance();
+    }
+    
+    static Value bool(boolean value) {
+        return BooleanValue.of(value);
+    }
+    
+    static Value constant(JvmCompiler program, int idx) {
+        return program.constants[idx];
+    }
+    
+    static Value array(Value[] values) {
+        return new ArrayValue(values);
+    }
+    
+    static Value object(Value[] pairs) {
+        var obj = new ObjectValue();
+        //insert in source order, so literals get the same shape as in other engines
+        for(var i = 0; i < pairs.length; i += 2) {
+            obj.set(pairs[i], pairs[i + 1]);
+        }
+        return obj;
+    }
+    
+    static Value range(Value from, Value to) {
+        return RangeValue.of(from.asLong().getValue(), to.asLong().getValue());
+    }
+    
+    static void storeLocal(Value value, FunctionState state, int idx) {
+        state.setLocal(idx, value);
+    }
+    
+    static void storeUpvalue(Value value, FunctionState state, int idx) {
+        state.setUpvalue(idx, value);
+    }
+    
+    static void storeGlobal(Value value, FunctionState state, int slot) {
+        state.setGlobal(slot, value);
+    }
+    
+    static Value loadMember(Value target, Value key, JvmCompiler program, int site) {
+        return program.memberCaches[site].get(target, key);
+    }
+    
+    static void storeMember(Value target, Value key, Value value, JvmCompiler program, int site) {
+        program.memberCaches[site].set(target, key, value);
+    }
+    
+    static Value call(Value target, Value[] args) {
+        return target.asFunction().call(args);
+    }
+    
+    //the converter only emits and/or after short circuiting failed
+    static Value logical(Value lhs, Value rhs) {
+        return rhs.asBoolean();
+    }
+    
+    static boolean isTrue(Value value) {
+        return value.asBoolean().getValue();
+    }
+    
+    static Value testType(Value v, int type) {
+        return BooleanValue.of(switch(VALUE_TYPES[type]) {
+            case NIL -> v.isNil();
+            case BOOLEAN -> v.isBoolean();
+            case LONG -> v.isLong();
+            case DOUBLE -> v.isDouble();
+            case STRING -> v.isString();
+            case ARRAY -> v.isArray();
+            case OBJECT -> v.isObject();
+            case RANGE -> v.isRange();
+        });
+    }
+    
+    static Value size(Value value) {
+        return LongValue.of(value.size());
+    }
+}
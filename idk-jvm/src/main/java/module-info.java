@@ -0,0 +1,7 @@
+module idk.jvm {
+    exports com.github.natanbc.idk.jvm;
+    
+    requires transitive idk.bytecode;
+    requires transitive idk.runtime;
+    requires transitive idk.interpreter;
+}
@@ -0,0 +1,100 @@
+package com.github.natanbc.idk.runner;
+
+import com.github.natanbc.idk.bytecode.BytecodeConstants;
+import com.github.natanbc.idk.bytecode.BytecodeReader;
+import com.github.natanbc.idk.bytecode.BytecodeWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
+
+//directory of compiled bytecode, one .idkc file per source. files are named
+//after a hash of the source, the bytecode format and code generation versions
+//and the options changing the generated code, so a stale entry is simply never
+//looked up
+class BytecodeCache {
+    private static final String EXTENSION = ".idkc";
+    
+    private final Path directory;
+    
+    BytecodeCache(Path directory) {
+        this.directory = directory;
+    }
+    
+    //cached bytecode for the source, null if there's none. the file is mapped
+    //instead of read, so only the parts actually used get loaded
+    ByteBuffer load(String source, boolean simplify, boolean optimize, boolean registers) throws IOException {
+        var file = file(source, simplify, optimize, registers);
+        if(!Files.isRegularFile(file)) {
+            return null;
+        }
+        var code = map(file);
+        try {
+            new BytecodeReader(code);
+        } catch(RuntimeException e) {
+            //truncated or corrupted, it'll get replaced by the next store
+            return null;
+        }
+        return code;
+    }
+    
+    //stores the program written by generate, which must leave the writer ready to
+    //finish, and returns it mapped like load does. the functions go to the file
+    //as they're written, so the program is never fully held in memory
+    ByteBuffer store(String source, boolean simplify, boolean optimize, boolean registers,
+                     Consumer<BytecodeWriter> generate) throws IOException {
+        Files.createDirectories(directory);
+        var file = file(source, simplify, optimize, registers);
+        //written to a temporary file first so concurrent runs never read a partial entry
+        var tmp = Files.createTempFile(directory, "idk", ".tmp");
+        try {
+            try(var out = Files.newOutputStream(tmp)) {
+                var writer = new BytecodeWriter(registers, out);
+                generate.accept(writer);
+                writer.finish();
+            } catch(UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return map(file);
+    }
+    
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try(var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
+    private Path file(String source, boolean simplify, boolean optimize, boolean registers) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        digest.update(ByteBuffer.allocate(9)
+                .putInt(BytecodeConstants.FORMAT_VERSION)
+                .putInt(BytecodeConstants.CODEGEN_VERSION)
+                .put((byte)((simplify ? 1 : 0) | (optimize ? 2 : 0) | (registers ? 4 : 0)))
+                .flip());
+        var hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+        var name = new StringBuilder(hash.length * 2 + EXTENSION.length());
+        for(var b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return directory.resolve(name.append(EXTENSION).toString());
+    }
+}
@@ -2,10 +2,20 @@ package com.github.natanbc.idk.runner;
 
 import com.github.natanbc.idk.ast.SimplifierVisitor;
 import com.github.natanbc.idk.bytecode.BytecodeReader;
+import com.github.natanbc.idk.bytecode.BytecodeWriter;
 import com.github.natanbc.idk.bytecode.convert.BytecodeConverter;
+import com.github.natanbc.idk.bytecode.convert.IrMapping;
+import com.github.natanbc.idk.bytecode.convert.RegisterConverter;
+import com.github.natanbc.idk.bytecode.optimize.BytecodeOptimizer;
 import com.github.natanbc.idk.interpreter.BytecodeInterpreter;
 import com.github.natanbc.idk.interpreter.Interpreter;
+import com.github.natanbc.idk.interpreter.RegisterInterpreter;
+import com.github.natanbc.idk.interpreter.TieredInterpreter;
+import com.github.natanbc.idk.interpreter.TreeInterpreter;
+import com.github.natanbc.idk.ir.IrNode;
 import com.github.natanbc.idk.ir.convert.IrConverter;
+import com.github.natanbc.idk.ir.misc.IrRoot;
+import com.github.natanbc.idk.jvm.JvmCompiler;
 import com.github.natanbc.idk.parser.IdkParser;
 import com.github.natanbc.idk.runtime.BooleanValue;
 import com.github.natanbc.idk.runtime.ExecutionContext;
@@ -15,18 +25,26 @@ import com.github.natanbc.idk.runtime.Value;
 import com.github.natanbc.idk.stdlib.Stdlib;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.function.Supplier;
 
 public class Runner {
     private static ExecutionContext context;
+    private static BytecodeCache cache;
     private static boolean bytecode;
     private static boolean debug;
+    private static boolean jvm;
+    private static boolean optimize;
     private static boolean quiet;
+    private static boolean registers;
     private static boolean simplify;
+    private static boolean tree;
+    private static boolean tiered;
     private static boolean startup = true;
     
     public static void main(String[] args) {
@@ -77,25 +95,29 @@ public class Runner {
                     }
                 }
                 case "b", "bytecode" -> bytecode = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
+                case "cache" -> cache = parts.length <= 1 || parts[1].isEmpty() ? null : new BytecodeCache(Path.of(parts[1]));
                 case "d", "debug" -> debug = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
+                case "j", "jvm" -> jvm = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
+                case "o", "optimize" -> optimize = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
+                case "registers" -> registers = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
                 case "s", "silent" -> quiet = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
                 case "simplify" -> simplify = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
+                case "t", "tree" -> tree = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
+                case "tiered" -> tiered = parts.length <= 1 || Boolean.parseBoolean(parts[1]);
             }
         }, () -> executeCode(command));
     }
     
     private static void executeCode(String code) {
         try {
-            var ast = new IdkParser(code).parse();
-            debug("AST (parsed): %s", ast);
-            if(simplify) {
-                ast = ast.accept(SimplifierVisitor.instance());
-                debug("AST (simplified): %s", ast);
-            }
-            var ir = ast.accept(IrConverter.instance());
-            debug("IR: %s", ir);
-            if(bytecode) {
-                var bc = ir.accept(BytecodeConverter.instance());
+            var useBytecode = !tiered && (bytecode || jvm || registers);
+            //a cache hit skips parsing and conversion entirely
+            var cached = useBytecode ? loadCached(code) : null;
+            var ir = cached == null ? toIr(code) : null;
+            if(tiered) {
+                execute(() -> new TieredInterpreter((IrRoot)ir, context, new TieredCompiler()).run());
+            } else if(useBytecode) {
+                var bc = cached != null ? cached : toBytecode(code, ir);
                 if(debug) {
                     var br = new BytecodeReader(bc);
                     while(true) {
@@ -107,16 +129,26 @@ public class Runner {
                         debug("  locals count: %d", fr.localsCount());
                         debug("  varargs: %s", fr.varargs());
                         debug("  annotations: %s", fr.annotations());
+                        debug("  captured locals: %s", Arrays.toString(fr.capturedLocals()));
+                        debug("  upvalues: %s", Arrays.toString(fr.upvalues()));
                         var codeStart = fr.reader().pos();
                         while(true) {
                             var pos = fr.reader().pos() - codeStart;
-                            var op = fr.nextInstruction();
+                            var op = br.registers() ? fr.nextRegisterInstruction() : fr.nextInstruction();
                             if(op == null) break;
                             debug("    %s: %s", pos, op);
                         }
                     }
                 }
-                execute(() -> new BytecodeInterpreter(bc, context.getGlobals()).run());
+                if(registers) {
+                    execute(() -> new RegisterInterpreter(bc, context.getGlobals()).run());
+                } else if(jvm) {
+                    execute(() -> new JvmCompiler(bc, context.getGlobals()).run());
+                } else {
+                    execute(() -> new BytecodeInterpreter(bc, context.getGlobals()).run());
+                }
+            } else if(tree) {
+                execute(() -> new TreeInterpreter((IrRoot)ir, context).run());
             } else {
                 execute(() -> ir.accept(new Interpreter(context)));
             }
@@ -125,6 +157,55 @@ public class Runner {
         }
     }
     
+    private static IrNode toIr(String code) {
+        var ast = new IdkParser(code).parse();
+        debug("AST (parsed): %s", ast);
+        if(simplify) {
+            ast = ast.accept(SimplifierVisitor.instance());
+            debug("AST (simplified): %s", ast);
+        }
+        var ir = ast.accept(IrConverter.instance());
+        debug("IR: %s", ir);
+        return ir;
+    }
+    
+    //writes the bytecode straight into the cache if there's one
+    private static ByteBuffer toBytecode(String code, IrNode ir) {
+        if(cache != null) {
+            try {
+                return cache.store(code, simplify, optimize, registers, writer -> writeBytecode(ir, writer));
+            } catch(IOException e) {
+                debug("Error writing bytecode cache: %s", e);
+            }
+        }
+        var writer = new BytecodeWriter(registers);
+        writeBytecode(ir, writer);
+        return ByteBuffer.wrap(writer.write());
+    }
+    
+    private static void writeBytecode(IrNode ir, BytecodeWriter writer) {
+        //the optimizer only knows stack code
+        if(registers) {
+            RegisterConverter.convert((IrRoot)ir, writer);
+        } else if(optimize) {
+            BytecodeOptimizer.optimize(new BytecodeReader(ir.accept(BytecodeConverter.instance())), writer);
+        } else {
+            BytecodeConverter.convert((IrRoot)ir, new IrMapping(), writer);
+        }
+    }
+    
+    private static ByteBuffer loadCached(String code) {
+        if(cache == null) return null;
+        try {
+            var bc = cache.load(code, simplify, optimize, registers);
+            debug("Bytecode cache %s", bc == null ? "miss" : "hit");
+            return bc;
+        } catch(IOException e) {
+            debug("Error reading bytecode cache: %s", e);
+            return null;
+        }
+    }
+    
     private static void execute(Supplier<Value> fn) {
         try {
             var v = fn.get();
@@ -0,0 +1,21 @@
+package com.github.natanbc.idk.runner;
+
+import com.github.natanbc.idk.compiler.Compiler;
+import com.github.natanbc.idk.interpreter.HotCodeCompiler;
+import com.github.natanbc.idk.ir.IrNode;
+import com.github.natanbc.idk.ir.misc.IrFunction;
+
+import java.lang.invoke.MethodHandle;
+
+//compiles hot code of the tiered interpreter with the method handle compiler
+class TieredCompiler implements HotCodeCompiler {
+    @Override
+    public MethodHandle compileBody(IrFunction function) {
+        return Compiler.instance().compileBody(function);
+    }
+    
+    @Override
+    public MethodHandle compileContinuation(IrNode continuation) {
+        return Compiler.instance().compileContinuation(continuation);
+    }
+}
@@ -7,6 +7,7 @@ module idk.runner {
     requires transitive idk.compiler;
     requires transitive idk.interpreter;
     requires transitive idk.ir;
+    requires transitive idk.jvm;
     requires transitive idk.parser;
     requires transitive idk.runtime;
     requires transitive idk.stdlib;
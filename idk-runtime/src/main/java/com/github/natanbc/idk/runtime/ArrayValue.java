@@ -1,22 +1,19 @@
 package com.github.natanbc.idk.runtime;
 
-import com.github.natanbc.idk.runtime.internal.SparseArray;
+import com.github.natanbc.idk.runtime.internal.ArrayStorage;
 
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 
+//storage is picked based on the values stored, see ArrayStorage
 public class ArrayValue implements Value, Iterable<Value> {
-    private SparseArray<Value> array;
+    private ArrayStorage storage;
     private boolean cow;
     
     public ArrayValue(Collection<? extends Value> values) {
-        this.array = new SparseArray<>(values.size());
-        var i = 0;
-        for(var v : values) {
-            array.put(i++, Objects.requireNonNull(v));
-        }
+        this(values.toArray(new Value[0]));
     }
     
     public ArrayValue(List<? extends Value> values) {
@@ -24,14 +21,14 @@ public class ArrayValue implements Value, Iterable<Value> {
     }
     
     public ArrayValue(Value[] array) {
-        this.array = new SparseArray<>(array.length);
-        for(var i = 0; i < array.length; i++) {
-            this.array.put(i, Objects.requireNonNull(array[i]));
+        for(var v : array) {
+            Objects.requireNonNull(v);
         }
+        this.storage = ArrayStorage.of(array);
     }
     
     public ArrayValue() {
-        this.array = new SparseArray<>();
+        this.storage = ArrayStorage.empty();
     }
     
     public ArrayValue copyOnWrite() {
@@ -43,21 +40,20 @@ public class ArrayValue implements Value, Iterable<Value> {
         if(index < 0) {
             throw new RangeError("Negative index");
         }
-        return array.get(index, NilValue.instance());
+        return get(index);
     }
     
     public Value rawSet(int index, Value value) {
         if(index < 0) {
             throw new RangeError("Negative index");
         }
-        checkWrite();
-        array.put(index, value);
+        put(index, value);
         return value;
     }
     
     @Override
     public Iterator<Value> iterator() {
-        return array.iterator();
+        return storage.iterator();
     }
     
     @Override
@@ -82,20 +78,18 @@ public class ArrayValue implements Value, Iterable<Value> {
     
     @Override
     public Value get(Value key) {
-        return array.get(index(key), NilValue.instance());
+        return get(index(key));
     }
     
     @Override
     public Value set(Value key, Value value) {
-        var i = index(key);
-        checkWrite();
-        array.put(i, value);
+        put(index(key), value);
         return value;
     }
     
     @Override
     public long size() {
-        return array.size();
+        return storage.size();
     }
     
     @Override
@@ -110,14 +104,20 @@ public class ArrayValue implements Value, Iterable<Value> {
     
     @Override
     public String toString() {
-        return "Array(" + array + ")";
+        return "Array(" + storage + ")";
+    }
+    
+    private Value get(int index) {
+        var v = storage.get(index);
+        return v == null ? NilValue.instance() : v;
     }
     
-    private void checkWrite() {
+    private void put(int index, Value value) {
         if(cow) {
-            array = array.copy();
+            storage = storage.copy();
             cow = false;
         }
+        storage = storage.set(index, value);
     }
     
     private int index(Value key) {
@@ -2,7 +2,6 @@ package com.github.natanbc.idk.runtime;
 
 import com.github.natanbc.idk.runtime.internal.BasicExecutionContext;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public interface ExecutionContext {
@@ -13,9 +12,10 @@ public interface ExecutionContext {
     Map<String, Value> getGlobals();
     
     static ExecutionContext newEmptyContext() {
-        return newFromMap(new HashMap<>());
+        return newFromMap(new GlobalTable());
     }
     
+    //the map is used directly, changes made through the context are visible in it and the other way around
     static ExecutionContext newFromMap(Map<String, Value> map) {
         return new BasicExecutionContext(map);
     }
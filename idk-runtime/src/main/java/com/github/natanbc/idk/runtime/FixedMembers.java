@@ -0,0 +1,11 @@
+package com.github.natanbc.idk.runtime;
+
+//values whose members only depend on the value's class (builtin methods, for
+//example), letting MemberCache resolve a key once per class
+public interface FixedMembers extends Value {
+    //opaque handle for the member with the given key, null if there's no such member
+    Object findMember(Value key);
+    
+    //value of a member found by findMember on a value of the same class
+    Value getMember(Object member);
+}
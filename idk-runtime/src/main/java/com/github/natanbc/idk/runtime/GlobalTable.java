@@ -0,0 +1,239 @@
+package com.github.natanbc.idk.runtime;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+//global variables, stored in slots indexed by name.
+//every table numbers its own slots, and engines resolve the names used by code
+//against the table of the context it runs with. missing globals are stored as null.
+//slots are only allocated for names that get stored or that linked code refers
+//to, lookups by name never allocate one. slots are never freed, since linked code
+//might still use them, so a table grows with the number of distinct names used
+//with it, even if they're removed later
+public class GlobalTable extends AbstractMap<String, Value> {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[16];
+    private Value[] values = new Value[16];
+    private int size;
+    
+    public GlobalTable() {}
+    
+    public GlobalTable(Map<String, Value> globals) {
+        putAll(globals);
+    }
+    
+    //other maps are wrapped, not copied, so reads and writes on either side
+    //are seen by the other
+    public static GlobalTable of(Map<String, Value> globals) {
+        return globals instanceof GlobalTable ? (GlobalTable)globals : new MapBacked(globals);
+    }
+    
+    public int slot(String name) {
+        var slot = slots.get(name);
+        if(slot == null) {
+            slot = slots.size();
+            if(slot == names.length) {
+                names = Arrays.copyOf(names, slot * 2);
+            }
+            names[slot] = name;
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+    
+    //doesn't allocate a slot for unknown names, returns -1 instead
+    private int existingSlot(String name) {
+        return slots.getOrDefault(name, -1);
+    }
+    
+    public String name(int slot) {
+        return names[slot];
+    }
+    
+    public Value get(int slot) {
+        var values = this.values;
+        if(slot >= 0 && slot < values.length) {
+            var v = values[slot];
+            if(v != null) return v;
+        }
+        return NilValue.instance();
+    }
+    
+    public Value set(int slot, Value value) {
+        if(slot >= values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, slot + 1));
+        }
+        if(values[slot] == null) {
+            size++;
+        }
+        return values[slot] = value;
+    }
+    
+    @Override
+    public Value get(Object key) {
+        return key instanceof String ? getOrNull(existingSlot((String)key)) : null;
+    }
+    
+    @Override
+    public Value put(String key, Value value) {
+        if(value == null) {
+            return remove(key);
+        }
+        var slot = slot(key);
+        var old = getOrNull(slot);
+        set(slot, value);
+        return old;
+    }
+    
+    @Override
+    public Value remove(Object key) {
+        if(!(key instanceof String)) return null;
+        var slot = existingSlot((String)key);
+        var old = getOrNull(slot);
+        if(old != null) {
+            values[slot] = null;
+            size--;
+        }
+        return old;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+    
+    @Override
+    public Set<Entry<String, Value>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Value>> iterator() {
+                return new EntryIterator();
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    private Value getOrNull(int slot) {
+        return slot >= 0 && slot < values.length ? values[slot] : null;
+    }
+    
+    //slot indexed view of a map that isn't a GlobalTable, writing through to it
+    private static class MapBacked extends GlobalTable {
+        private final Map<String, Value> map;
+        
+        MapBacked(Map<String, Value> map) {
+            this.map = map;
+        }
+        
+        @Override
+        public Value get(int slot) {
+            var v = slot < 0 ? null : map.get(name(slot));
+            return v == null ? NilValue.instance() : v;
+        }
+        
+        @Override
+        public Value set(int slot, Value value) {
+            map.put(name(slot), value);
+            return value;
+        }
+        
+        @Override
+        public Value get(Object key) {
+            return map.get(key);
+        }
+        
+        @Override
+        public Value put(String key, Value value) {
+            return value == null ? map.remove(key) : map.put(key, value);
+        }
+        
+        @Override
+        public Value remove(Object key) {
+            return map.remove(key);
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
+        
+        @Override
+        public int size() {
+            return map.size();
+        }
+        
+        @Override
+        public void clear() {
+            map.clear();
+        }
+        
+        @Override
+        public Set<Entry<String, Value>> entrySet() {
+            return map.entrySet();
+        }
+    }
+    
+    private class EntryIterator implements Iterator<Entry<String, Value>> {
+        private int next = advance(0);
+        private int last = -1;
+        
+        @Override
+        public boolean hasNext() {
+            return next < values.length;
+        }
+        
+        @Override
+        public Entry<String, Value> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var slot = next;
+            last = slot;
+            next = advance(slot + 1);
+            return new SimpleEntry<>(name(slot), values[slot]) {
+                @Override
+                public Value setValue(Value value) {
+                    put(getKey(), value);
+                    return super.setValue(value);
+                }
+            };
+        }
+        
+        @Override
+        public void remove() {
+            if(last == -1) {
+                throw new IllegalStateException();
+            }
+            values[last] = null;
+            size--;
+            last = -1;
+        }
+        
+        private int advance(int from) {
+            var i = from;
+            while(i < values.length && values[i] == null) i++;
+            return i;
+        }
+    }
+}
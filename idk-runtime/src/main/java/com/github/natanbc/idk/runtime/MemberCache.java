@@ -0,0 +1,115 @@
+package com.github.natanbc.idk.runtime;
+
+import com.github.natanbc.idk.runtime.internal.Shape;
+
+//monomorphic inline cache for a single member access site (target[key]).
+//remembers the key, receiver layout and result of the last lookup, so a
+//following access with the same key on an object with the same shape goes
+//straight to the slot, and one on a FixedMembers value of the same class
+//skips the member lookup. anything else takes the regular get/set path and
+//replaces the cached entry if the result can be cached.
+public final class MemberCache {
+    private Entry getEntry;
+    private Entry setEntry;
+    
+    public Value get(Value receiver, Value key) {
+        var e = getEntry;
+        if(e != null && e.matches(key)) {
+            if(e.shape != null) {
+                if(receiver instanceof ObjectValue && ((ObjectValue)receiver).shape() == e.shape) {
+                    return e.slot < 0 ? NilValue.instance() : ((ObjectValue)receiver).slot(e.slot);
+                }
+            } else if(receiver.getClass() == e.receiverClass) {
+                return ((FixedMembers)receiver).getMember(e.member);
+            }
+        }
+        return getMiss(receiver, key);
+    }
+    
+    public Value set(Value receiver, Value key, Value value) {
+        var e = setEntry;
+        if(e != null && receiver instanceof ObjectValue && e.matches(key)) {
+            var o = (ObjectValue)receiver;
+            if(o.shape() == e.shape) {
+                if(e.next == null) {
+                    o.setSlot(e.slot, value);
+                } else {
+                    o.addSlot(e.next, value);
+                }
+                return value;
+            }
+        }
+        return setMiss(receiver, key, value);
+    }
+    
+    private Value getMiss(Value receiver, Value key) {
+        if(key instanceof StringValue) {
+            if(receiver instanceof ObjectValue) {
+                var o = (ObjectValue)receiver;
+                var shape = o.shape();
+                if(shape != null) {
+                    var slot = shape.indexOf(((StringValue)key).getValue());
+                    getEntry = new Entry(key, shape, slot, null, null, null);
+                    return slot < 0 ? NilValue.instance() : o.slot(slot);
+                }
+            } else if(receiver instanceof FixedMembers) {
+                var member = ((FixedMembers)receiver).findMember(key);
+                if(member != null) {
+                    getEntry = new Entry(key, null, -1, null, receiver.getClass(), member);
+                    return ((FixedMembers)receiver).getMember(member);
+                }
+            }
+        }
+        return receiver.get(key);
+    }
+    
+    private Value setMiss(Value receiver, Value key, Value value) {
+        if(key instanceof StringValue && receiver instanceof ObjectValue) {
+            var o = (ObjectValue)receiver;
+            var before = o.shape();
+            receiver.set(key, value);
+            var after = o.shape();
+            if(before != null && after != null) {
+                if(before == after) {
+                    setEntry = new Entry(key, before, before.indexOf(((StringValue)key).getValue()), null, null, null);
+                } else {
+                    setEntry = new Entry(key, before, before.size(), after, null, null);
+                }
+            }
+            return value;
+        }
+        return receiver.set(key, value);
+    }
+    
+    //immutable so a racing reader never sees a shape paired with another shape's slot
+    private static class Entry {
+        final Value key;
+        //non null if key is a string
+        final String name;
+        //for objects, the shape the receiver must have
+        final Shape shape;
+        //for objects, slot of the key in shape (or the slot being added), -1 if missing
+        final int slot;
+        //for stores adding a property, the shape after adding it
+        final Shape next;
+        //for FixedMembers values, the class the receiver must have and the resolved member
+        final Class<?> receiverClass;
+        final Object member;
+        
+        Entry(Value key, Shape shape, int slot, Shape next, Class<?> receiverClass, Object member) {
+            this.key = key;
+            this.name = key instanceof StringValue ? ((StringValue)key).getValue() : null;
+            this.shape = shape;
+            this.slot = slot;
+            this.next = next;
+            this.receiverClass = receiverClass;
+            this.member = member;
+        }
+        
+        //keys are usually the same constant instance, but engines that create
+        //a new string for every evaluation of a constant still hit by content
+        boolean matches(Value key) {
+            return key == this.key || (name != null && key instanceof StringValue && name.equals(((StringValue)key).getValue()));
+        }
+    }
+}
@@ -1,14 +1,30 @@
 package com.github.natanbc.idk.runtime;
 
+import com.github.natanbc.idk.runtime.internal.Shape;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
+//objects with only string keys store their values in a slot array laid out by
+//a shared Shape. a non string key, or too many keys, switches the object to a
+//hash map for good, as does removing a key.
 public class ObjectValue implements Value {
-    private Map<Value, Value> map = new HashMap<>();
+    private static final Value[] NO_SLOTS = new Value[0];
+    
+    private Shape shape = Shape.root();
+    private Value[] slots = NO_SLOTS;
+    //non null once the object stopped using shapes
+    private Map<Value, Value> map;
     private boolean cow;
     
     public ObjectValue(Map<Value, Value> map) {
-        this.map.putAll(map);
+        map.forEach(this::set);
     }
     
     public ObjectValue() {}
@@ -18,8 +34,66 @@ public class ObjectValue implements Value {
         return this;
     }
     
+    //view of the properties of this object. writes go to the object, iteration
+    //sees the properties present when the iterator was created, removing
+    //through the iterator removes from the object
     public Map<Value, Value> getMap() {
-        return map;
+        if(map != null) {
+            return map;
+        }
+        return new AbstractMap<>() {
+            @Override
+            public Value get(Object key) {
+                if(map != null) return map.get(key);
+                if(!(key instanceof StringValue)) return null;
+                var i = shape.indexOf(((StringValue)key).getValue());
+                return i < 0 ? null : slots[i];
+            }
+            
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+            
+            @Override
+            public Value put(Value key, Value value) {
+                var old = get(key);
+                set(key, value);
+                return old;
+            }
+            
+            @Override
+            public Value remove(Object key) {
+                var old = get(key);
+                if(old != null) {
+                    ObjectValue.this.remove((Value)key);
+                }
+                return old;
+            }
+            
+            @Override
+            public void clear() {
+                checkWrite();
+                map = new HashMap<>();
+                shape = null;
+                slots = null;
+            }
+            
+            @Override
+            public Set<Entry<Value, Value>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<Value, Value>> iterator() {
+                        return entries();
+                    }
+                    
+                    @Override
+                    public int size() {
+                        return (int)ObjectValue.this.size();
+                    }
+                };
+            }
+        };
     }
     
     @Override
@@ -44,14 +118,34 @@ public class ObjectValue implements Value {
     
     @Override
     public Value get(Value key) {
+        if(map == null) {
+            if(key instanceof StringValue) {
+                var i = shape.indexOf(((StringValue)key).getValue());
+                if(i >= 0) return slots[i];
+            }
+            return NilValue.instance();
+        }
         return map.getOrDefault(key, NilValue.instance());
     }
     
     @Override
     public Value set(Value key, Value value) {
-        if(cow) {
-            map = new HashMap<>(map);
-            cow = false;
+        checkWrite();
+        if(map == null) {
+            if(key instanceof StringValue) {
+                var s = (StringValue)key;
+                var i = shape.indexOf(s.getValue());
+                if(i >= 0) {
+                    slots[i] = value;
+                    return value;
+                }
+                var next = shape.size() < Shape.MAX_PROPERTIES ? shape.withProperty(s) : null;
+                if(next != null) {
+                    append(next, value);
+                    return value;
+                }
+            }
+            toMap();
         }
         map.put(key, value);
         return value;
@@ -59,12 +153,19 @@ public class ObjectValue implements Value {
     
     @Override
     public long size() {
-        return map.size();
+        return map == null ? shape.size() : map.size();
     }
     
     @Override
     public ArrayValue keys() {
-        return new ArrayValue(map.keySet());
+        if(map != null) {
+            return new ArrayValue(map.keySet());
+        }
+        var keys = new Value[shape.size()];
+        for(var i = 0; i < keys.length; i++) {
+            keys[i] = shape.key(i);
+        }
+        return new ArrayValue(keys);
     }
     
     @Override
@@ -79,6 +180,101 @@ public class ObjectValue implements Value {
     
     @Override
     public String toString() {
-        return "Object(" + map + ")";
+        return "Object(" + getMap() + ")";
+    }
+    
+    //null once the object stopped using shapes
+    Shape shape() {
+        return shape;
+    }
+    
+    Value slot(int slot) {
+        return slots[slot];
+    }
+    
+    void setSlot(int slot, Value value) {
+        checkWrite();
+        slots[slot] = value;
+    }
+    
+    //next must be the current shape with one property added
+    void addSlot(Shape next, Value value) {
+        checkWrite();
+        append(next, value);
+    }
+    
+    private void append(Shape next, Value value) {
+        var size = shape.size();
+        if(size == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(4, size * 2));
+        }
+        slots[size] = value;
+        shape = next;
+    }
+    
+    private void remove(Value key) {
+        checkWrite();
+        if(map == null) {
+            toMap();
+        }
+        map.remove(key);
+    }
+    
+    private void checkWrite() {
+        if(cow) {
+            if(map != null) {
+                map = new HashMap<>(map);
+            } else {
+                slots = slots.clone();
+            }
+            cow = false;
+        }
+    }
+    
+    private Iterator<Map.Entry<Value, Value>> entries() {
+        if(map != null) {
+            return map.entrySet().iterator();
+        }
+        //copy on write never modifies the current slots
+        var shape = this.shape;
+        var slots = this.slots;
+        return new Iterator<>() {
+            private int idx;
+            private boolean removable;
+            
+            @Override
+            public boolean hasNext() {
+                return idx < shape.size();
+            }
+            
+            @Override
+            public Map.Entry<Value, Value> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var i = idx++;
+                removable = true;
+                return new AbstractMap.SimpleImmutableEntry<>(shape.key(i), slots[i]);
+            }
+            
+            @Override
+            public void remove() {
+                if(!removable) {
+                    throw new IllegalStateException();
+                }
+                removable = false;
+                ObjectValue.this.remove(shape.key(idx - 1));
+            }
+        };
+    }
+    
+    private void toMap() {
+        var m = new HashMap<Value, Value>();
+        for(var i = 0; i < shape.size(); i++) {
+            m.put(shape.key(i), slots[i]);
+        }
+        map = m;
+        shape = null;
+        slots = null;
     }
 }
@@ -0,0 +1,392 @@
+package com.github.natanbc.idk.runtime.internal;
+
+import com.github.natanbc.idk.runtime.DoubleValue;
+import com.github.natanbc.idk.runtime.LongValue;
+import com.github.natanbc.idk.runtime.Value;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+//backing storage of an ArrayValue.
+//arrays where every element is a long or every element is a double are kept
+//unboxed in a long[]/double[] while they have no holes. anything else is kept
+//in a Value[], and writes leaving a large hole switch to a SparseArray.
+//storages only ever become more general: set returns the storage to use
+//from then on, which is either this or a new, more general one.
+public abstract class ArrayStorage implements Iterable<Value> {
+    private static final int DEFAULT_CAPACITY = 10;
+    //a write at most this many slots past the end (or past twice the current
+    //length) keeps the array dense
+    private static final int MAX_HOLE = 16;
+    
+    ArrayStorage() {}
+    
+    //the narrowest storage with no elements
+    public static ArrayStorage empty() {
+        return EmptyStorage.INSTANCE;
+    }
+    
+    //the narrowest storage holding the given values, which must not be null
+    public static ArrayStorage of(Value[] values) {
+        if(values.length == 0) {
+            return empty();
+        }
+        var allLongs = true;
+        var allDoubles = true;
+        for(var v : values) {
+            allLongs &= v instanceof LongValue;
+            allDoubles &= v instanceof DoubleValue;
+        }
+        if(allLongs) {
+            var longs = new long[values.length];
+            for(var i = 0; i < longs.length; i++) {
+                longs[i] = ((LongValue)values[i]).getValue();
+            }
+            return new LongStorage(longs, longs.length);
+        }
+        if(allDoubles) {
+            var doubles = new double[values.length];
+            for(var i = 0; i < doubles.length; i++) {
+                doubles[i] = ((DoubleValue)values[i]).getValue();
+            }
+            return new DoubleStorage(doubles, doubles.length);
+        }
+        return new ValueStorage(values.clone(), values.length, values.length);
+    }
+    
+    //null if there's no element at the given index
+    public abstract Value get(int index);
+    
+    public abstract ArrayStorage set(int index, Value value);
+    
+    public abstract int size();
+    
+    //storage with the same contents which doesn't share state with this one
+    public abstract ArrayStorage copy();
+    
+    @Override
+    public String toString() {
+        var sb = new StringBuilder().append('[');
+        var first = true;
+        for(var v : this) {
+            if(!first) {
+                sb.append(", ");
+            }
+            sb.append(v);
+            first = false;
+        }
+        return sb.append(']').toString();
+    }
+    
+    private static int grow(int capacity, int index) {
+        return Math.max(Math.max(capacity * 2, DEFAULT_CAPACITY), index + 1);
+    }
+    
+    private static abstract class DenseIterator implements Iterator<Value> {
+        private final int end;
+        int idx;
+        
+        DenseIterator(int end) {
+            this.end = end;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return idx < end;
+        }
+        
+        @Override
+        public Value next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return get(idx++);
+        }
+        
+        abstract Value get(int index);
+    }
+    
+    //picks the storage for the first element written
+    private static class EmptyStorage extends ArrayStorage {
+        static final EmptyStorage INSTANCE = new EmptyStorage();
+        
+        @Override
+        public Value get(int index) {
+            return null;
+        }
+        
+        @Override
+        public ArrayStorage set(int index, Value value) {
+            ArrayStorage storage;
+            if(index != 0) {
+                storage = new ValueStorage(new Value[DEFAULT_CAPACITY], 0, 0);
+            } else if(value instanceof LongValue) {
+                storage = new LongStorage(new long[DEFAULT_CAPACITY], 0);
+            } else if(value instanceof DoubleValue) {
+                storage = new DoubleStorage(new double[DEFAULT_CAPACITY], 0);
+            } else {
+                storage = new ValueStorage(new Value[DEFAULT_CAPACITY], 0, 0);
+            }
+            return storage.set(index, value);
+        }
+        
+        @Override
+        public int size() {
+            return 0;
+        }
+        
+        @Override
+        public ArrayStorage copy() {
+            return this;
+        }
+        
+        @Override
+        public Iterator<Value> iterator() {
+            return Collections.emptyIterator();
+        }
+    }
+    
+    //no holes, every element is a long
+    private static class LongStorage extends ArrayStorage {
+        private long[] values;
+        private int length;
+        
+        LongStorage(long[] values, int length) {
+            this.values = values;
+            this.length = length;
+        }
+        
+        @Override
+        public Value get(int index) {
+            return index < length ? LongValue.of(values[index]) : null;
+        }
+        
+        @Override
+        public ArrayStorage set(int index, Value value) {
+            if(!(value instanceof LongValue) || index > length) {
+                return generalize().set(index, value);
+            }
+            if(index == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, index));
+            }
+            values[index] = ((LongValue)value).getValue();
+            if(index == length) {
+                length++;
+            }
+            return this;
+        }
+        
+        @Override
+        public int size() {
+            return length;
+        }
+        
+        @Override
+        public ArrayStorage copy() {
+            return new LongStorage(values.clone(), length);
+        }
+        
+        @Override
+        public Iterator<Value> iterator() {
+            var values = this.values;
+            return new DenseIterator(length) {
+                @Override
+                Value get(int index) {
+                    return LongValue.of(values[index]);
+                }
+            };
+        }
+        
+        private ArrayStorage generalize() {
+            var boxed = new Value[Math.max(values.length, DEFAULT_CAPACITY)];
+            for(var i = 0; i < length; i++) {
+                boxed[i] = LongValue.of(values[i]);
+            }
+            return new ValueStorage(boxed, length, length);
+        }
+    }
+    
+    //no holes, every element is a double
+    private static class DoubleStorage extends ArrayStorage {
+        private double[] values;
+        private int length;
+        
+        DoubleStorage(double[] values, int length) {
+            this.values = values;
+            this.length = length;
+        }
+        
+        @Override
+        public Value get(int index) {
+            return index < length ? DoubleValue.of(values[index]) : null;
+        }
+        
+        @Override
+        public ArrayStorage set(int index, Value value) {
+            if(!(value instanceof DoubleValue) || index > length) {
+                return generalize().set(index, value);
+            }
+            if(index == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, index));
+            }
+            values[index] = ((DoubleValue)value).getValue();
+            if(index == length) {
+                length++;
+            }
+            return this;
+        }
+        
+        @Override
+        public int size() {
+            return length;
+        }
+        
+        @Override
+        public ArrayStorage copy() {
+            return new DoubleStorage(values.clone(), length);
+        }
+        
+        @Override
+        public Iterator<Value> iterator() {
+            var values = this.values;
+            return new DenseIterator(length) {
+                @Override
+                Value get(int index) {
+                    return DoubleValue.of(values[index]);
+                }
+            };
+        }
+        
+        private ArrayStorage generalize() {
+            var boxed = new Value[Math.max(values.length, DEFAULT_CAPACITY)];
+            for(var i = 0; i < length; i++) {
+                boxed[i] = DoubleValue.of(values[i]);
+            }
+            return new ValueStorage(boxed, length, length);
+        }
+    }
+    
+    //any values, missing elements are null
+    private static class ValueStorage extends ArrayStorage {
+        private Value[] values;
+        //highest present index + 1
+        private int length;
+        //number of present elements
+        private int count;
+        
+        ValueStorage(Value[] values, int length, int count) {
+            this.values = values;
+            this.length = length;
+            this.count = count;
+        }
+        
+        @Override
+        public Value get(int index) {
+            return index < length ? values[index] : null;
+        }
+        
+        @Override
+        public ArrayStorage set(int index, Value value) {
+            if(index >= values.length) {
+                if(index > Math.max(length * 2, length + MAX_HOLE)) {
+                    return toSparse().set(index, value);
+                }
+                values = Arrays.copyOf(values, grow(values.length, index));
+            }
+            if(values[index] == null) {
+                count++;
+            }
+            values[index] = value;
+            if(index >= length) {
+                length = index + 1;
+            }
+            return this;
+        }
+        
+        @Override
+        public int size() {
+            return count;
+        }
+        
+        @Override
+        public ArrayStorage copy() {
+            return new ValueStorage(values.clone(), length, count);
+        }
+        
+        @Override
+        public Iterator<Value> iterator() {
+            var values = this.values;
+            var end = length;
+            return new Iterator<>() {
+                private int idx = 0;
+                
+                @Override
+                public boolean hasNext() {
+                    while(idx < end && values[idx] == null) {
+                        idx++;
+                    }
+                    return idx < end;
+                }
+                
+                @Override
+                public Value next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[idx++];
+                }
+            };
+        }
+        
+        private ArrayStorage toSparse() {
+            var sparse = new SparseArray<Value>(Math.max(count + 1, DEFAULT_CAPACITY));
+            for(var i = 0; i < length; i++) {
+                if(values[i] != null) {
+                    sparse.put(i, values[i]);
+                }
+            }
+            return new SparseStorage(sparse);
+        }
+    }
+    
+    private static class SparseStorage extends ArrayStorage {
+        private final SparseArray<Value> array;
+        
+        SparseStorage(SparseArray<Value> array) {
+            this.array = array;
+        }
+        
+        @Override
+        public Value get(int index) {
+            return array.get(index);
+        }
+        
+        @Override
+        public ArrayStorage set(int index, Value value) {
+            array.put(index, value);
+            return this;
+        }
+        
+        @Override
+        public int size() {
+            return array.size();
+        }
+        
+        @Override
+        public ArrayStorage copy() {
+            return new SparseStorage(array.copy());
+        }
+        
+        @Override
+        public Iterator<Value> iterator() {
+            return array.iterator();
+        }
+        
+        @Override
+        public String toString() {
+            return array.toString();
+        }
+    }
+}
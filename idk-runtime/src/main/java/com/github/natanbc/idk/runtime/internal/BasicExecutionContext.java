@@ -1,31 +1,41 @@
 package com.github.natanbc.idk.runtime.internal;
 
 import com.github.natanbc.idk.runtime.ExecutionContext;
+import com.github.natanbc.idk.runtime.GlobalTable;
 import com.github.natanbc.idk.runtime.NilValue;
 import com.github.natanbc.idk.runtime.Value;
 
 import java.util.Map;
 
 public class BasicExecutionContext implements ExecutionContext {
-    protected final Map<String, Value> globals;
+    protected final GlobalTable globals;
     
     public BasicExecutionContext(Map<String, Value> globals) {
-        this.globals = globals;
+        this.globals = GlobalTable.of(globals);
     }
     
     @Override
     public Value getGlobal(String name) {
-        return globals.getOrDefault(name, NilValue.instance());
+        //by name, since looking up an unknown name shouldn't allocate a slot for it
+        var v = globals.get(name);
+        return v == null ? NilValue.instance() : v;
     }
     
     @Override
     public Value setGlobal(String name, Value value) {
-        globals.put(name, value);
-        return value;
+        return globals.set(globals.slot(name), value);
+    }
+    
+    public Value getGlobal(int slot) {
+        return globals.get(slot);
+    }
+    
+    public Value setGlobal(int slot, Value value) {
+        return globals.set(slot, value);
     }
     
     @Override
-    public Map<String, Value> getGlobals() {
+    public GlobalTable getGlobals() {
         return globals;
     }
 }
@@ -0,0 +1,18 @@
+package com.github.natanbc.idk.runtime.internal;
+
+import com.github.natanbc.idk.runtime.NilValue;
+import com.github.natanbc.idk.runtime.Value;
+
+//storage of a local captured by a closure, shared between the frame that
+//declared it and every closure using it
+public final class Cell {
+    private Value value = NilValue.instance();
+    
+    public Value get() {
+        return value;
+    }
+    
+    public Value set(Value value) {
+        return this.value = value;
+    }
+}
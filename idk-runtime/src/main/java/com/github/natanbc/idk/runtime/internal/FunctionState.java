@@ -8,57 +8,133 @@ import com.github.natanbc.idk.runtime.Value;
 import java.util.Arrays;
 import java.util.Map;
 
+//locals of a function call. locals captured by a closure live in a Cell
+//instead, and closures only keep their cells alive, not the whole frame
 public class FunctionState extends BasicExecutionContext {
-    private final FunctionState parent;
+    private static final Cell[] NO_CELLS = new Cell[0];
+    
     private final Value[] locals;
+    //cells of captured locals, indexed like locals (null for the ones not
+    //captured). null if nothing is captured
+    private final Cell[] cells;
+    private final Cell[] upvalues;
+    //set by returns that unwind to the function by returning normally
+    //instead of throwing a ReturnException
+    private boolean returning;
+    //unboxed storage for locals the compiler proved to always be longs or doubles,
+    //indexed like locals. allocated on the first write
+    private long[] primitiveLocals;
     
-    public FunctionState(FunctionState parent, int localsCount) {
-        super(parent.getGlobals());
-        this.parent = parent;
+    public FunctionState(Map<String, Value> globals, int localsCount, int[] capturedLocals, Cell[] upvalues) {
+        super(globals);
         this.locals = new Value[localsCount];
         Arrays.fill(locals, NilValue.instance());
+        if(capturedLocals.length > 0) {
+            cells = new Cell[localsCount];
+            for(var i : capturedLocals) {
+                cells[i] = new Cell();
+            }
+        } else {
+            cells = null;
+        }
+        this.upvalues = upvalues;
     }
     
-    public FunctionState(Map<String, Value> globals, int localsCount) {
-        super(globals);
-        this.parent = null;
-        this.locals = new Value[localsCount];
-        Arrays.fill(locals, NilValue.instance());
+    public FunctionState(Map<String, Value> globals, int localsCount, int[] capturedLocals) {
+        this(globals, localsCount, capturedLocals, NO_CELLS);
     }
     
     public void fillFromArgs(Value[] args, int argCount, boolean varargs) {
-        System.arraycopy(args, 0, locals, 0, Math.min(argCount - (varargs ? 1 : 0), args.length));
+        var n = Math.min(argCount - (varargs ? 1 : 0), args.length);
+        if(cells == null) {
+            System.arraycopy(args, 0, locals, 0, n);
+        } else {
+            for(var i = 0; i < n; i++) {
+                setLocal(i, args[i]);
+            }
+        }
         if(varargs) {
             var arr = new ArrayValue();
             var j = 0;
             for(var i = argCount - 1; i < args.length; i++) {
                 arr.set(LongValue.of(j++), args[i]);
             }
-            locals[argCount - 1] = arr;
+            setLocal(argCount - 1, arr);
         }
     }
     
     public Value getLocal(int index) {
+        var c = cells;
+        if(c != null && c[index] != null) {
+            return c[index].get();
+        }
         return locals[index];
     }
     
     public Value setLocal(int index, Value value) {
+        var c = cells;
+        if(c != null && c[index] != null) {
+            return c[index].set(value);
+        }
         return locals[index] = value;
     }
     
-    public Value getUpvalue(int level, int index) {
-        return getParent(level).getLocal(index);
+    public long getLongLocal(int index) {
+        return primitiveLocals[index];
     }
     
-    public Value setUpvalue(int level, int index, Value value) {
-        return getParent(level).setLocal(index, value);
+    public long setLongLocal(int index, long value) {
+        primitives()[index] = value;
+        return value;
+    }
+    
+    public double getDoubleLocal(int index) {
+        return Double.longBitsToDouble(primitiveLocals[index]);
+    }
+    
+    public double setDoubleLocal(int index, double value) {
+        primitives()[index] = Double.doubleToRawLongBits(value);
+        return value;
+    }
+    
+    public boolean isReturning() {
+        return returning;
+    }
+    
+    //marks this call as returning the given value, which must then be
+    //returned by every node up to the function body
+    public Value returnValue(Value value) {
+        returning = true;
+        return value;
+    }
+    
+    public Value getUpvalue(int index) {
+        return upvalues[index].get();
+    }
+    
+    public Value setUpvalue(int index, Value value) {
+        return upvalues[index].set(value);
+    }
+    
+    //upvalues for a closure created by this call. a source v >= 0 is the cell
+    //of captured local v, a negative one is upvalue ~v of this call
+    public Cell[] closure(int[] sources) {
+        if(sources.length == 0) {
+            return NO_CELLS;
+        }
+        var r = new Cell[sources.length];
+        for(var i = 0; i < r.length; i++) {
+            var s = sources[i];
+            r[i] = s >= 0 ? cells[s] : upvalues[~s];
+        }
+        return r;
     }
     
-    private FunctionState getParent(int level) {
-        FunctionState s = this;
-        for(var i = 0; i < level; i++) {
-            s = s.parent;
+    private long[] primitives() {
+        var p = primitiveLocals;
+        if(p == null) {
+            p = primitiveLocals = new long[locals.length];
         }
-        return s;
+        return p;
     }
 }
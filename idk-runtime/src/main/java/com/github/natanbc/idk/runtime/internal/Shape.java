@@ -0,0 +1,86 @@
+package com.github.natanbc.idk.runtime.internal;
+
+import com.github.natanbc.idk.runtime.StringValue;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//layout of the string keyed properties of an object (hidden class).
+//shapes form a tree rooted at the empty shape, where each child adds one
+//property to its parent. objects that got the same properties added in the
+//same order share the same shape, so a (shape, slot index) pair can be cached
+//for a given key.
+//children are held weakly, so shapes no object or cache uses anymore get
+//collected, and each shape has a limited number of children. objects that
+//would need a shape past that limit use a hash map instead.
+public final class Shape {
+    //objects with more properties than this use a hash map instead
+    public static final int MAX_PROPERTIES = 64;
+    //shapes with more properties than this build a hash map for lookups
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+    //shapes with this many children don't get new ones
+    private static final int MAX_TRANSITIONS = 32;
+    private static final Shape ROOT = new Shape(new StringValue[0]);
+    
+    private final StringValue[] keys;
+    private final Map<String, WeakReference<Shape>> transitions = new HashMap<>();
+    private volatile Map<String, Integer> index;
+    
+    private Shape(StringValue[] keys) {
+        this.keys = keys;
+    }
+    
+    public static Shape root() {
+        return ROOT;
+    }
+    
+    public int size() {
+        return keys.length;
+    }
+    
+    public StringValue key(int slot) {
+        return keys[slot];
+    }
+    
+    //slot of the given key, or -1 if this shape doesn't have it
+    public int indexOf(String key) {
+        var keys = this.keys;
+        if(keys.length <= LINEAR_SEARCH_LIMIT) {
+            for(var i = 0; i < keys.length; i++) {
+                if(keys[i].getValue().equals(key)) return i;
+            }
+            return -1;
+        }
+        var index = this.index;
+        if(index == null) {
+            index = new HashMap<>(keys.length * 2);
+            for(var i = 0; i < keys.length; i++) {
+                index.put(keys[i].getValue(), i);
+            }
+            this.index = index;
+        }
+        return index.getOrDefault(key, -1);
+    }
+    
+    //shape with the given key added as the last slot, or null if this shape
+    //already has too many children
+    public Shape withProperty(StringValue key) {
+        synchronized(transitions) {
+            var ref = transitions.get(key.getValue());
+            var next = ref == null ? null : ref.get();
+            if(next == null) {
+                if(transitions.size() >= MAX_TRANSITIONS) {
+                    transitions.values().removeIf(r -> r.get() == null);
+                    if(transitions.size() >= MAX_TRANSITIONS) return null;
+                }
+                var k = Arrays.copyOf(keys, keys.length + 1);
+                k[keys.length] = key;
+                next = new Shape(k);
+                transitions.put(key.getValue(), new WeakReference<>(next));
+            }
+            return next;
+        }
+    }
+}
@@ -47,7 +47,7 @@ public class SparseArray<T> {
     }
     
     public SparseArray<T> copy() {
-        var ret = new SparseArray<T>(size);
+        var ret = new SparseArray<T>(keys.length);
         System.arraycopy(keys, 0, ret.keys, 0, keys.length);
         System.arraycopy(values, 0, ret.values, 0, values.length);
         ret.size = size;
@@ -1,4 +1,4 @@
 module idk.runtime {
     exports com.github.natanbc.idk.runtime;
-    exports com.github.natanbc.idk.runtime.internal to idk.interpreter, idk.compiler;
+    exports com.github.natanbc.idk.runtime.internal to idk.interpreter, idk.compiler, idk.jvm;
 }
@@ -2,6 +2,7 @@ package com.github.natanbc.idk.stdlib;
 
 import com.github.natanbc.idk.runtime.ArrayValue;
 import com.github.natanbc.idk.runtime.BooleanValue;
+import com.github.natanbc.idk.runtime.FixedMembers;
 import com.github.natanbc.idk.runtime.Function;
 import com.github.natanbc.idk.runtime.LongValue;
 import com.github.natanbc.idk.runtime.NilValue;
@@ -18,7 +19,7 @@ import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public class IteratorValue implements Value {
+public class IteratorValue implements FixedMembers {
     private static final Map<Value, BiFunction<IteratorValue, Value[], Value>> OPS = Map.ofEntries(
             Map.entry(StringValue.of("count"), (self, args) -> LongValue.of(self.consume().count())),
             Map.entry(StringValue.of("filter"), (self, args) -> {
@@ -156,8 +157,20 @@ public class IteratorValue implements Value {
     
     @Override
     public Value get(Value key) {
-        var op = OPS.get(key);
+        var op = findMember(key);
         if(op == null) return NilValue.instance();
+        return getMember(op);
+    }
+    
+    @Override
+    public Object findMember(Value key) {
+        return OPS.get(key);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Value getMember(Object member) {
+        var op = (BiFunction<IteratorValue, Value[], Value>)member;
         return new Function() {
             @Override
             public Value call(Value[] args) {